@@ -0,0 +1,162 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A WAX that writes a file in UTF-8 in which the children of an element
+ * can be fragments written by other processes with <code>FragmentWAX</code>.
+ * Before the fragments of a <code>FragmentManifest</code> are appended,
+ * every one of them is checked: it must be complete, and it must have
+ * been written for the namespace prefixes and indention level of the
+ * manifest, which must match those of the current element.  The fragment
+ * files are appended with <code>FileChannel.transferTo</code>, so that the
+ * operating system copies them without passing them through the JVM.
+ *
+ * <pre>
+ * AssembledFileWAX wax = new AssembledFileWAX(path);
+ * wax.start("orders").namespace("o", "urn:orders");
+ * wax.appendFragments(manifestPath);
+ * wax.close();
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class AssembledFileWAX extends WAX {
+
+    private final FileChannel channel;
+
+    /**
+     * Creates an AssembledFileWAX that uses the default configuration.
+     * The file is created, or truncated if it exists.
+     * @param path the path of the file
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public AssembledFileWAX(Path path) {
+        this(path, WAXConfig.DEFAULT);
+    }
+
+    /**
+     * Creates an AssembledFileWAX that uses a given configuration.
+     * The file is created, or truncated if it exists.
+     * @param path the path of the file
+     * @param config the configuration
+     * @throws IllegalArgumentException if <code>config</code> is null
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public AssembledFileWAX(Path path, WAXConfig config) {
+        this(config, open(path, config));
+    }
+
+    private AssembledFileWAX(WAXConfig config, FileChannel channel) {
+        super(config, new OutputStreamWriter(
+            Channels.newOutputStream(channel), StandardCharsets.UTF_8), null);
+        this.channel = channel;
+    }
+
+    private static FileChannel open(Path path, WAXConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+
+        try {
+            return FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Appends the fragments of a manifest as children of the current
+     * element, after checking that all of them can be appended.
+     * @param manifestPath the path of the manifest
+     * @return the number of bytes appended
+     * @throws IllegalArgumentException if the manifest isn't valid
+     * @throws IllegalStateException
+     *             if there is no current element, or if any fragment is
+     *             incomplete or wasn't written for this manifest, or the
+     *             namespaces or level of the manifest don't match those
+     *             of the current element; nothing is appended
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public long appendFragments(Path manifestPath) {
+        final FragmentManifest manifest = FragmentManifest.read(manifestPath);
+        final List<String> problems = manifest.findProblems(manifestPath);
+        for (Map.Entry<String, String> entry :
+            manifest.getNamespaces().entrySet()) {
+            if (!entry.getValue().equals(getNamespaceURI(entry.getKey()))) {
+                problems.add("the namespace prefix \"" + entry.getKey()
+                    + "\" isn't bound to " + entry.getValue());
+            }
+        }
+        final int level = getXMLWriter().getIndentionLevel();
+        if (level != manifest.getLevel()) {
+            problems.add("they are for level " + manifest.getLevel()
+                + ", not " + level);
+        }
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException(
+                "can't append the fragments of " + manifestPath + ": "
+                + String.join("; ", problems));
+        }
+
+        startExternalChild("appendFragments");
+        try {
+            getXMLWriter().flush();
+            long size = 0;
+            for (int i = 0; i < manifest.getFragments().size(); ++i) {
+                size += ShardedFileWAX.transfer(
+                    manifest.getFragmentPath(manifestPath, i), channel);
+            }
+            return size;
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An OutputStream that passes its bytes to an AsynchronousFileChannel
+ * in large buffers, each written at its own position, with several
+ * writes in flight at once.  Writing only waits when every buffer is
+ * still being written.  Closing it doesn't wait at all; the future
+ * returned by <code>getCompletion</code> completes when the file has
+ * been forced to the storage device and closed.  Forcing the file blocks,
+ * so it is done on a thread kept for that rather than on a thread of the
+ * channel, the thread that closes the stream or the common fork/join
+ * pool, which the parallel writers of WAX use.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class AsyncFileOutputStream extends OutputStream {
+
+    /**
+     * Forces and closes the files, on daemon threads that are
+     * created as needed and end after a minute without work.
+     */
+    private static final Executor FINISHER =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                final Thread thread =
+                    new Thread(runnable, "AsyncFileWAX-finish");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    /**
+     * The number of bytes passed to the channel in each write.
+     */
+    /* package */ static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AsynchronousFileChannel channel;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final CompletableFuture<Long> completion =
+        new CompletableFuture<Long>();
+
+    /**
+     * The number of writes in flight, plus one until the stream is closed,
+     * so that only the last one to finish completes the future.
+     */
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    private final CompletionHandler<Integer, Write> handler =
+        new CompletionHandler<Integer, Write>() {
+            public void completed(Integer count, Write write) {
+                write.position += count;
+                if (write.buffer.hasRemaining()) {
+                    channel.write(write.buffer, write.position, write, this);
+                } else {
+                    done(write.buffer);
+                }
+            }
+
+            public void failed(Throwable throwable, Write write) {
+                if (error == null) error = throwable;
+                done(write.buffer);
+            }
+        };
+
+    private ByteBuffer current;
+    private long position;
+    private boolean closed;
+    private volatile Throwable error;
+
+    /**
+     * A buffer being written and the file position of its next byte.
+     */
+    private static final class Write {
+        final ByteBuffer buffer;
+        long position;
+
+        Write(ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+
+    /**
+     * @param channel the channel, which is closed when this is closed
+     * @param maxWrites the most writes in flight at once
+     */
+    /* package */ AsyncFileOutputStream(
+        AsynchronousFileChannel channel, int maxWrites) {
+        this.channel = channel;
+        freeBuffers = new ArrayBlockingQueue<ByteBuffer>(maxWrites);
+        for (int i = 0; i < maxWrites; ++i) {
+            freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * @return a future that completes with the number of bytes in the file
+     *         once it is closed and every write has finished
+     */
+    /* package */ CompletableFuture<Long> getCompletion() {
+        return completion;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer().put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            final ByteBuffer buffer = buffer();
+            final int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Starts writing the bytes written so far without waiting for them.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkError();
+        if (current != null && current.position() > 0) submit();
+    }
+
+    /**
+     * Starts writing the last bytes and returns without waiting for them.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        try {
+            flush();
+        } catch (IOException e) {
+            if (error == null) error = e;
+            throw e;
+        } finally {
+            closed = true;
+            release();
+        }
+    }
+
+    /**
+     * Closes the stream after a failure, dropping the bytes not yet
+     * passed to the channel.  The file is still closed once the writes
+     * in flight finish, and the future completes exceptionally.
+     * @param throwable the failure
+     */
+    /* package */ void abort(Throwable throwable) {
+        if (closed) return;
+
+        if (error == null) error = throwable;
+        closed = true;
+        current = null;
+        release();
+    }
+
+    /**
+     * @return a buffer with room for at least one byte, waiting
+     *         for a write to finish if every buffer is in flight
+     */
+    private ByteBuffer buffer() throws IOException {
+        if (closed) throw new IOException("stream closed");
+        checkError();
+
+        if (current != null && !current.hasRemaining()) submit();
+        if (current == null) {
+            try {
+                current = freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        return current;
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) throw new IOException(error);
+    }
+
+    private void submit() {
+        final ByteBuffer buffer = current;
+        current = null;
+        buffer.flip();
+
+        final Write write = new Write(buffer, position);
+        position += buffer.remaining();
+        pending.incrementAndGet();
+        try {
+            channel.write(buffer, write.position, write, handler);
+        } catch (RuntimeException e) {
+            // For example, the channel wasn't opened for writing.
+            handler.failed(e, write);
+        }
+    }
+
+    private void done(ByteBuffer buffer) {
+        buffer.clear();
+        freeBuffers.add(buffer);
+        release();
+    }
+
+    /**
+     * Finishes the file when the last write, or the close, is done.
+     */
+    private void release() {
+        if (pending.decrementAndGet() == 0) {
+            FINISHER.execute(new Runnable() {
+                public void run() {
+                    finish();
+                }
+            });
+        }
+    }
+
+    /**
+     * Forces the file to the storage device and closes it,
+     * after every write has finished.
+     */
+    private void finish() {
+        try {
+            if (error == null) channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+
+        if (error == null) {
+            completion.complete(position);
+        } else {
+            completion.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A WAX that writes a file in UTF-8 through an AsynchronousFileChannel.
+ * The document is passed to the channel in large buffers, each written
+ * at its own position while the next one is filled, so the thread that
+ * writes the document only waits when every buffer is still in flight.
+ * <code>closeAsync</code> returns as soon as the last buffer has been
+ * passed to the channel, with a future that completes once the file
+ * is on the storage device.
+ *
+ * <pre>
+ * AsyncFileWAX wax = new AsyncFileWAX(Paths.get("cars.xml"));
+ * wax.start("cars").child("car", "Prius");
+ * wax.closeAsync().thenAccept(size -&gt; log("wrote " + size + " bytes"));
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class AsyncFileWAX extends WAX {
+
+    /**
+     * The most writes in flight at once unless another number is given.
+     */
+    public static final int DEFAULT_MAX_WRITES = 4;
+
+    private final AsyncFileOutputStream stream;
+
+    /**
+     * Creates an AsyncFileWAX that uses the default configuration.
+     * The file is created, or truncated if it exists.
+     * @param path the path of the file
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public AsyncFileWAX(Path path) {
+        this(path, WAXConfig.DEFAULT, DEFAULT_MAX_WRITES);
+    }
+
+    /**
+     * Creates an AsyncFileWAX that uses a given configuration.
+     * The file is created, or truncated if it exists.
+     * @param path the path of the file
+     * @param config the configuration
+     * @param maxWrites the most writes in flight at once
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null
+     *             or <code>maxWrites</code> is less than 1
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public AsyncFileWAX(Path path, WAXConfig config, int maxWrites) {
+        this(config, open(path, config, maxWrites));
+    }
+
+    private AsyncFileWAX(WAXConfig config, AsyncFileOutputStream stream) {
+        super(config,
+            new OutputStreamWriter(stream, StandardCharsets.UTF_8), null);
+        this.stream = stream;
+    }
+
+    private static AsyncFileOutputStream open(
+        Path path, WAXConfig config, int maxWrites) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (maxWrites < 1) {
+            throw new IllegalArgumentException(
+                maxWrites + " is an invalid number of writes");
+        }
+
+        try {
+            return new AsyncFileOutputStream(AsynchronousFileChannel.open(
+                path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING), maxWrites);
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Terminates all unterminated elements and closes the file,
+     * waiting until it is on the storage device.
+     * @throws IllegalStateException if already closed
+     * @throws WAXIOException if an I/O error occurs
+     */
+    @Override
+    public void close() {
+        try {
+            closeAsync().join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            throw new WAXIOException(cause instanceof IOException ?
+                (IOException) cause : new IOException(cause));
+        }
+    }
+
+    /**
+     * Terminates all unterminated elements and starts writing the rest
+     * of the file, without waiting for it.
+     * @return a future that completes with the size of the file in bytes
+     *         once it is on the storage device and closed, or completes
+     *         exceptionally if any write fails
+     * @throws IllegalStateException
+     *             if already closed, or if the root element hasn't been
+     *             started, in which case the file is closed anyway and
+     *             the future completes exceptionally
+     */
+    public CompletableFuture<Long> closeAsync() {
+        try {
+            super.close();
+        } catch (WAXIOException e) {
+            // The file is still closed, and the future reports the failure.
+            stream.abort(e.getIOException());
+        } catch (RuntimeException e) {
+            stream.abort(e);
+            throw e;
+        }
+        return stream.getCompletion();
+    }
+
+    /**
+     * @return the future that <code>closeAsync</code> returns
+     */
+    /* package */ CompletableFuture<Long> getCompletion() {
+        return stream.getCompletion();
+    }
+}
@@ -67,7 +67,7 @@ import java.util.*;
      * <code>true</code> if and only if this XML Element is the start/root/base
      * of an XML Fragment that is a comment representing possible XML elements.
      */
-    private final boolean isCommentElement;
+    private boolean isCommentElement;
 
     /**
      * XML Namespace prefixes defined in this XML Element. <i>(...except for the
@@ -88,22 +88,34 @@ import java.util.*;
      * <p>
      * Lifetime: This value is used throughout the lifetime of this object.
      * It's last used just after <code>writeEndTag</code> is called, when
-     * <code>getParent()</code> is called to unlink this object from the list,
-     * making it available for garbage collection.
+     * <code>getParent()</code> is called to move back up the list.
      * </p>
      */
     private final ElementMetadata parent;
 
     /**
-     * XML <a href="http://www.w3.org/TR/2008/PER-xml-20080205/#NT-Name">
-     * <code>Name</code></a> of an XML <code>Element</code>, with optional XML
-     * Namespace "colon" prefix.
+     * The <code>ElementMetadata</code> last used for a child of this
+     * Element.  It is kept after the child ends so that the next child
+     * at the same depth can reuse it instead of allocating a new one.
+     */
+    private ElementMetadata child;
+
+    /**
+     * XML Namespace prefix of this XML <code>Element</code>; may be
+     * <code>null</code>.
      * <p>
-     * Lifetime: This value is used to open and close the XML Element. It's
-     * lifetime is the same as this class.
+     * Lifetime: This value and <code>name</code> are used to open and close
+     * the XML Element.  They are replaced when this object is reused.
      * </p>
      */
-    private final String qualifiedName;
+    private String prefix;
+
+    /**
+     * XML <a href="http://www.w3.org/TR/2008/PER-xml-20080205/#NT-Name">
+     * <code>Name</code></a> of an XML <code>Element</code>, without its
+     * namespace prefix.
+     */
+    private String name;
 
     /**
      * A <code>Map</code> of namespace URI strings to the schema path that would
@@ -124,18 +136,40 @@ import java.util.*;
 
     private boolean verifyUsage;
 
+    /**
+     * The most entries that the attribute name set or the namespace map
+     * has held when it was cleared.  Clearing a HashSet or HashMap keeps
+     * its table, so they are still about this large.
+     */
+    private int largestCleared;
+
+    /**
+     * When not <code>null</code>, decides which checks are made
+     * and receives the violations they find instead of throwing them.
+     */
+    private final VerificationSampler sampler;
+
     /* package */ ElementMetadata(
         final XMLWriter out, final boolean verifyUsage,
         final ElementMetadata parent,
         final String prefix, final String name,
         final boolean isCommentElement) {
 
-        this.verifyUsage = verifyUsage;
-        this.out = out;
+        this(out, verifyUsage, null, parent, prefix, name, isCommentElement);
+    }
 
-        this.qualifiedName = buildQualifiedName(prefix, name);
-        this.isCommentElement = isCommentElement;
+    /* package */ ElementMetadata(
+        final XMLWriter out, final boolean verifyUsage,
+        final VerificationSampler sampler,
+        final ElementMetadata parent,
+        final String prefix, final String name,
+        final boolean isCommentElement) {
+
+        this.sampler = sampler;
+        this.out = out;
         this.parent = parent;
+
+        reset(verifyUsage, prefix, name, isCommentElement);
     }
 
     /**
@@ -152,14 +186,8 @@ import java.util.*;
      *         "Qualified Name"</a>
      */
     public String buildQualifiedName(final String prefix, final String name) {
-        final boolean hasPrefix = XMLUtil.hasValue(prefix);
-
-        if (verifyUsage) {
-            if (hasPrefix) XMLUtil.verifyName(prefix);
-            XMLUtil.verifyName(name);
-        }
-
-        return hasPrefix ? (prefix + ':' + name) : name;
+        verifyName(prefix, name);
+        return XMLUtil.hasValue(prefix) ? (prefix + ':' + name) : name;
     }
 
     public void closeStartTag() {
@@ -197,18 +225,90 @@ import java.util.*;
      *         the namespace is explicitly <b>undefined</b> in the current
      *         scope.
      */
-    private String getNamespaceUrl(final String prefix) {
-        final String namespaceURL = namespacePrefixToURLMap.get(prefix);
-        if (namespaceURL == null && parent != null)
-            return parent.getNamespaceUrl(prefix);
+    /* package */ String getNamespaceUrl(final String prefix) {
+        // Walk up the Element stack with a loop rather than recursion
+        // so that deeply nested documents can't overflow the call stack.
+        for (ElementMetadata element = this; element != null;
+            element = element.parent) {
+            final String namespaceURL =
+                element.namespacePrefixToURLMap.get(prefix);
+            if (namespaceURL != null) return namespaceURL;
+        }
 
-        return namespaceURL;
+        return null;
     }
 
     public ElementMetadata getParent() {
         return parent;
     }
 
+    /* package */ String getPrefix() {
+        return prefix;
+    }
+
+    /* package */ String getName() {
+        return name;
+    }
+
+    /**
+     * @return the URIs of the namespace prefixes declared on this element
+     */
+    /* package */ Map<String, String> getNamespaces() {
+        return namespacePrefixToURLMap;
+    }
+
+    /**
+     * Gets the metadata for a new child of this Element,
+     * reusing the one from the previous child when there was one.
+     * 
+     * @param verifyUsage true to verify usage; false for "trust me" mode
+     * @param prefix the namespace prefix of the child; may be null
+     * @param name the name of the child
+     * @param isCommentElement true if the child is in a commented start
+     * @return the child metadata
+     */
+    public ElementMetadata newChild(final boolean verifyUsage,
+        final String prefix, final String name,
+        final boolean isCommentElement) {
+        if (child == null) {
+            child = new ElementMetadata(out, verifyUsage, sampler, this,
+                prefix, name, isCommentElement);
+        } else {
+            child.reset(verifyUsage, prefix, name, isCommentElement);
+        }
+
+        return child;
+    }
+
+    /**
+     * @return the number of levels of descendants whose metadata
+     *         is kept for reuse below this element
+     */
+    /* package */ int getReusedDepth() {
+        int depth = 0;
+        for (ElementMetadata element = child; element != null;
+            element = element.child) {
+            ++depth;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the most entries that the attribute name set or namespace
+     *         map of this element, or of the descendants whose metadata
+     *         is kept for reuse, has held
+     */
+    /* package */ int getRetainedEntries() {
+        int most = 0;
+        for (ElementMetadata element = this; element != null;
+            element = element.child) {
+            most = Math.max(most, Math.max(element.largestCleared,
+                Math.max(element.definedAttributeNames.size(),
+                    element.namespacePrefixToURLMap.size())));
+        }
+        return most;
+    }
+
     /**
      * @param prefix
      * @return The URL for the given namespace <code>prefix</code>.
@@ -226,12 +326,49 @@ import java.util.*;
         return namespaceURL;
     }
 
+    /**
+     * Prepares this object to describe a new Element.
+     * Clearing the empty collections doesn't allocate anything,
+     * so reusing an object this way produces no garbage.
+     */
+    /* package */ void reset(final boolean verifyUsage,
+        final String prefix, final String name,
+        final boolean isCommentElement) {
+        this.verifyUsage = verifyUsage;
+        this.isCommentElement = isCommentElement;
+        this.prefix = prefix;
+        this.name = name;
+
+        defaultNamespaceDefined = false;
+        largestCleared = Math.max(largestCleared, Math.max(
+            definedAttributeNames.size(), namespacePrefixToURLMap.size()));
+        if (!definedAttributeNames.isEmpty()) definedAttributeNames.clear();
+        if (!namespacePrefixToURLMap.isEmpty()) namespacePrefixToURLMap.clear();
+        if (!namespaceURIToSchemaPathMap.isEmpty()) {
+            namespaceURIToSchemaPathMap.clear();
+        }
+
+        verifyName(prefix, name);
+    }
+
     public void setTrustMe(final boolean trustMe) {
-        this.verifyUsage = !trustMe;
-        if (parent != null) parent.setTrustMe(trustMe);
+        for (ElementMetadata element = this; element != null;
+            element = element.parent) {
+            element.verifyUsage = !trustMe;
+        }
     }
 
     private void verifyAttributeNamesWithinStartTag() {
+        try {
+            verifyExpandedAttributeNames();
+        } finally {
+            largestCleared =
+                Math.max(largestCleared, definedAttributeNames.size());
+            definedAttributeNames.clear();
+        }
+    }
+
+    private void verifyExpandedAttributeNames() {
         final Set<String> expandedAttributeNames = new HashSet<String>();
 
         for (final String qualifiedAttributeName : definedAttributeNames) {
@@ -253,15 +390,26 @@ import java.util.*;
                 }
             }
         }
-
-        definedAttributeNames.clear();
     }
 
     private void verifyElementNamespaceUsage() {
-        final int colonIndex = qualifiedName.indexOf(':');
-        if (colonIndex > 0) {
-            final String prefix = qualifiedName.substring(0, colonIndex);
-            getRequiredNamespaceURL(prefix);
+        if (XMLUtil.hasValue(prefix)) getRequiredNamespaceURL(prefix);
+    }
+
+    /**
+     * Verifies an element or attribute name and its optional prefix.
+     * 
+     * @param prefix the namespace prefix; may be null
+     * @param name the element or attribute name
+     */
+    private void verifyName(final String prefix, final String name) {
+        if (VerificationSampler.verifying(verifyUsage, sampler)) {
+            try {
+                if (XMLUtil.hasValue(prefix)) XMLUtil.verifyName(prefix);
+                XMLUtil.verifyName(name);
+            } catch (IllegalArgumentException e) {
+                VerificationSampler.report(sampler, e);
+            }
         }
     }
 
@@ -296,34 +444,57 @@ import java.util.*;
         verifyAttributeNamesWithinStartTag();
     }
 
-    public String writeAttributeEqualsValue(
-        final String prefix, final String name, final Object value,
-        final boolean newLine, final boolean escape) {
+    /**
+     * Records an attribute name so that duplicates can be detected.
+     * The qualified name is only built when usage is being verified,
+     * so "trust me" mode doesn't create a String for every attribute.
+     */
+    private void defineAttribute(final String prefix, final String name) {
+        if (!verifyUsage) return;
 
         final String qualifiedAttributeName = buildQualifiedName(prefix, name);
 
-        if (definedAttributeNames.contains(qualifiedAttributeName)) {
-            throw new IllegalArgumentException("The attribute \""
-                + qualifiedAttributeName
-                + "\" is defined twice in this element.");
+        if (!definedAttributeNames.add(qualifiedAttributeName)) {
+            VerificationSampler.report(sampler, new IllegalArgumentException(
+                "The attribute \"" + qualifiedAttributeName
+                + "\" is defined twice in this element."));
         }
+    }
 
-        definedAttributeNames.add(qualifiedAttributeName);
+    public void writeAttributeEqualsValue(
+        final String prefix, final String name, final Object value,
+        final boolean newLine, final boolean escape) {
+
+        writeAttributeStart(prefix, name, newLine);
+        out.writeAttributeValue(value, escape);
+        out.writeAttributeEnd();
+    }
 
-        out.writeAttributeEqualsValue(
-            qualifiedAttributeName, value, newLine, escape);
+    /**
+     * Writes the beginning of an attribute, up to the opening quote
+     * of its value, so that the caller can write the value itself.
+     */
+    public void writeAttributeStart(
+        final String prefix, final String name, final boolean newLine) {
 
-        return qualifiedAttributeName;
+        defineAttribute(prefix, name);
+        out.writeAttributeStart(prefix, name, newLine);
     }
 
     public void writeEndTag(final boolean verbose) {
         writeSchemaLocations();
-        out.writeEndTag(qualifiedName, isCommentElement, verbose);
+        out.writeEndTag(prefix, name, isCommentElement, verbose);
     }
 
     public void writeNamespaceDeclaration(final String prefix,
         final String uri, final String schemaPath) {
-        if (verifyUsage) verifyNamespaceData(prefix, uri, schemaPath);
+        if (VerificationSampler.verifying(verifyUsage, sampler)) {
+            try {
+                verifyNamespaceData(prefix, uri, schemaPath);
+            } catch (IllegalArgumentException e) {
+                VerificationSampler.report(sampler, e);
+            }
+        }
 
         out.writeNamespaceDeclaration(prefix, uri);
 
@@ -340,6 +511,44 @@ import java.util.*;
         }
     }
 
+    /**
+     * Puts a namespace prefix in scope for this element without writing
+     * a declaration, for an element whose start tag is written elsewhere.
+     *
+     * @param prefix the namespace prefix
+     * @param uri the namespace URI
+     */
+    /* package */ void declareNamespace(final String prefix, final String uri) {
+        namespacePrefixToURLMap.put(prefix, uri);
+    }
+
+    /**
+     * Makes metadata, which is never written, for this element as the
+     * scope of children written later by another WAX, with a copy of
+     * every namespace prefix in scope here.  It stays valid after this
+     * element has ended and its metadata has been reused.
+     *
+     * @param out the XMLWriter that the children are written with
+     * @return the scope
+     */
+    /* package */ ElementMetadata copyScope(final XMLWriter out) {
+        final ElementMetadata scope = new ElementMetadata(
+            out, verifyUsage, sampler, null, prefix, name, false);
+
+        // Prefixes declared on inner elements hide the outer ones.
+        for (ElementMetadata element = this; element != null;
+            element = element.parent) {
+            for (final Map.Entry<String, String> entry :
+                element.namespacePrefixToURLMap.entrySet()) {
+                if (!scope.containsNamespacePrefix(entry.getKey())) {
+                    scope.declareNamespace(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        return scope;
+    }
+
     /**
      * Writes the namespace declaration for the XMLSchema-instance namespace and
      * writes the schemaLocation attribute which associates namespace URIs with
@@ -364,6 +573,6 @@ import java.util.*;
      * Write the opening and name portion of a start tag.
      */
     public void writeStartTagOpen(final boolean inCommentedStart) {
-        out.writeStartTagOpen(qualifiedName, inCommentedStart);
+        out.writeStartTagOpen(prefix, name, inCommentedStart);
     }
 }
@@ -1,5 +1,15 @@
 package com.ociweb.xml;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
 /**
  * This interface defines the methods that can be called
  * after the beginning of a start tag has been output, but
@@ -76,6 +86,18 @@ public interface ElementWAX extends CommonWAX {
      */
     ElementWAX child(String prefix, String name, String text);
 
+    /**
+     * @see WAX#children(String, Stream, BiConsumer)
+     */
+    <T> ElementWAX children(String name, Stream<T> items,
+        BiConsumer<? super StartTagWAX, ? super T> childWriter);
+
+    /**
+     * @see WAX#children(String, String, Stream, BiConsumer)
+     */
+    <T> ElementWAX children(String prefix, String name, Stream<T> items,
+        BiConsumer<? super StartTagWAX, ? super T> childWriter);
+
     /**
      * @see WAX#close()
      */
@@ -91,6 +113,11 @@ public interface ElementWAX extends CommonWAX {
      */
     ElementWAX end(boolean verbose);
 
+    /**
+     * @see WAX#flush()
+     */
+    void flush();
+
     /**
      * @see WAX#text(String)
      */
@@ -101,6 +128,61 @@ public interface ElementWAX extends CommonWAX {
      */
     ElementWAX text(String text, boolean newLine);
 
+    /**
+     * @see WAX#text(long)
+     */
+    ElementWAX text(long value);
+
+    /**
+     * @see WAX#text(char)
+     */
+    ElementWAX text(char value);
+
+    /**
+     * @see WAX#text(double)
+     */
+    ElementWAX text(double value);
+
+    /**
+     * @see WAX#text(float)
+     */
+    ElementWAX text(float value);
+
+    /**
+     * @see WAX#decimalText(BigDecimal)
+     */
+    ElementWAX decimalText(BigDecimal value);
+
+    /**
+     * @see WAX#integerText(BigInteger)
+     */
+    ElementWAX integerText(BigInteger value);
+
+    /**
+     * @see WAX#dateText(LocalDate)
+     */
+    ElementWAX dateText(LocalDate value);
+
+    /**
+     * @see WAX#instantText(Instant)
+     */
+    ElementWAX instantText(Instant value);
+
+    /**
+     * @see WAX#dateTimeText(LocalDateTime)
+     */
+    ElementWAX dateTimeText(LocalDateTime value);
+
+    /**
+     * @see WAX#dateTimeText(OffsetDateTime)
+     */
+    ElementWAX dateTimeText(OffsetDateTime value);
+
+    /**
+     * @see WAX#durationText(Duration)
+     */
+    ElementWAX durationText(Duration value);
+
     /**
      * @see WAX#unescapedText(String)
      */
@@ -0,0 +1,247 @@
+package com.ociweb.xml;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A bounded cache of escaped attribute values and text, for documents
+ * that repeat a small set of short values many times.  A cached value is
+ * written without being scanned for special characters again.
+ * Only values up to a maximum length that contain special characters are
+ * cached, and a value that isn't cached is only admitted on a random one
+ * of every few times it is missed, so values that are seen only once,
+ * such as identifiers, seldom displace others or make threads wait for
+ * each other to add them.  When the cache is full,
+ * the least frequently used of a random sample of entries is replaced,
+ * and all the use counts are halved from time to time so that values
+ * that stop being used eventually make room for new ones.
+ * A single instance can be shared by any number of WAX objects
+ * on any number of threads; the use counts are approximate.
+ * See <code>WAX.setEscapeCache</code> and
+ * <code>WAXConfig.withEscapeCache</code>.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public final class EscapeCache {
+
+    /**
+     * The longest value that is cached unless another length is given.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 32;
+
+    /**
+     * A missed value is admitted on one out of this many misses,
+     * on average, unless another interval is given.
+     */
+    /* package */ static final int DEFAULT_ADMISSION_INTERVAL = 4;
+
+    /**
+     * The number of entries compared when choosing one to replace.
+     */
+    private static final int SAMPLE_SIZE = 8;
+
+    /**
+     * The use counts are halved after this many replacements
+     * per entry in the cache.
+     */
+    private static final int AGING_FACTOR = 8;
+
+    private static final class Entry {
+        final String raw;
+        final String escaped;
+        final int slot;
+
+        /**
+         * Incremented without synchronization, so increments made at the
+         * same time by different threads can be lost.  It only guides
+         * which entries are replaced, so an approximate count will do.
+         */
+        int uses = 1;
+
+        Entry(String raw, String escaped, int slot) {
+            this.raw = raw;
+            this.escaped = escaped;
+            this.slot = slot;
+        }
+    }
+
+    private final int maxLength;
+    private final int admissionInterval;
+    private final ConcurrentHashMap<String, Entry> map;
+
+    /**
+     * Every entry in the map, so that entries can be sampled.
+     * It and the fields after it are guarded by this object.
+     */
+    private final Entry[] entries;
+    private int size;
+    private int replacements;
+
+    /**
+     * Creates a cache for values of up to
+     * <code>DEFAULT_MAX_LENGTH</code> characters.
+     * @param capacity the maximum number of values cached
+     * @throws IllegalArgumentException if <code>capacity</code> is less than 1
+     */
+    public EscapeCache(int capacity) {
+        this(capacity, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Creates a cache.
+     * @param capacity the maximum number of values cached
+     * @param maxLength the length of the longest value cached
+     * @throws IllegalArgumentException
+     *             if <code>capacity</code> or <code>maxLength</code>
+     *             is less than 1
+     */
+    public EscapeCache(int capacity, int maxLength) {
+        this(capacity, maxLength, DEFAULT_ADMISSION_INTERVAL);
+    }
+
+    /**
+     * Creates a cache that admits missed values at a given rate.
+     * @param capacity the maximum number of values cached
+     * @param maxLength the length of the longest value cached
+     * @param admissionInterval a missed value is admitted on one out of
+     *                          this many misses; 1 admits it every time
+     */
+    /* package */ EscapeCache(
+        int capacity, int maxLength, int admissionInterval) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                capacity + " is an invalid escape cache capacity");
+        }
+        if (maxLength < 1) {
+            throw new IllegalArgumentException(
+                maxLength + " is an invalid escape cache value length");
+        }
+
+        if (admissionInterval < 1) {
+            throw new IllegalArgumentException(admissionInterval
+                + " is an invalid escape cache admission interval");
+        }
+
+        this.maxLength = maxLength;
+        this.admissionInterval = admissionInterval;
+        this.map = new ConcurrentHashMap<String, Entry>(capacity * 2);
+        this.entries = new Entry[capacity];
+    }
+
+    /**
+     * @return the maximum number of values cached
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return the length of the longest value cached
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return the number of values cached now
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Gets the escaped form of a value, from the cache when possible.
+     * A hit counts a use of the value without synchronization, so the
+     * use counts are approximate when threads share the cache.
+     * @param text a value no longer than the maximum length
+     * @return the escaped value
+     */
+    /* package */ String escape(String text) {
+        final Entry entry = map.get(text);
+        if (entry != null) {
+            ++entry.uses;
+            return entry.escaped;
+        }
+
+        // A value without special characters is returned as is,
+        // so there is nothing to gain by caching it.
+        final String escaped = XMLUtil.escape(text);
+        if (escaped != text && (admissionInterval == 1
+            || ThreadLocalRandom.current().nextInt(admissionInterval) == 0)) {
+            add(text, escaped);
+        }
+        return escaped;
+    }
+
+    private synchronized void add(String text, String escaped) {
+        if (map.containsKey(text)) return;
+
+        final int slot;
+        if (size < entries.length) {
+            slot = size++;
+        } else {
+            final Entry victim = sampleLeastUsed();
+            map.remove(victim.raw);
+            slot = victim.slot;
+
+            if (++replacements >= entries.length * AGING_FACTOR) {
+                replacements = 0;
+                for (Entry e : entries) e.uses >>= 1;
+            }
+        }
+
+        final Entry entry = new Entry(text, escaped, slot);
+        entries[slot] = entry;
+        map.put(text, entry);
+    }
+
+    /**
+     * @return the least used of a random sample of entries
+     */
+    private Entry sampleLeastUsed() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        Entry victim = entries[random.nextInt(size)];
+        for (int i = 1; i < SAMPLE_SIZE; ++i) {
+            final Entry candidate = entries[random.nextInt(size)];
+            if (candidate.uses < victim.uses) victim = candidate;
+        }
+        return victim;
+    }
+}
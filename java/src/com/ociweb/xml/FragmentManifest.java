@@ -0,0 +1,334 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Describes the fragments of a document that are written by separate
+ * processes.  A fragment is a file of sibling elements, written in UTF-8
+ * by a <code>FragmentWAX</code>, that become children of one element of
+ * the document when an <code>AssembledFileWAX</code> appends them.
+ * The manifest lists the fragment files in the order they are appended,
+ * the namespace prefixes that they may use without declaring, and the
+ * indention level of their elements.  It is written as a properties
+ * file that every process reads; fragment files are in the same
+ * directory.
+ *
+ * <p>
+ * When a FragmentWAX is closed, it writes a descriptor beside its
+ * fragment file, whose name has <code>DESCRIPTOR_SUFFIX</code> added.
+ * It records the size of the fragment and the namespace prefixes and
+ * indention level that it was written for, so that an incomplete or
+ * mismatched fragment is found before it is appended.
+ * </p>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public final class FragmentManifest {
+
+    /**
+     * The suffix added to the name of a fragment file
+     * for the name of its descriptor.
+     */
+    public static final String DESCRIPTOR_SUFFIX = ".done";
+
+    private static final String FRAGMENT_KEY = "fragment.";
+    private static final String NAMESPACE_KEY = "namespace.";
+    private static final String LEVEL_KEY = "level";
+    private static final String SIZE_KEY = "size";
+
+    private final List<String> fragments;
+    private final Map<String, String> namespaces;
+    private final int level;
+
+    /**
+     * Creates a manifest.
+     * @param fragments the names of the fragment files, in order
+     * @param namespaces the URIs of the namespace prefixes that the
+     *                   fragments may use, which must be in scope
+     *                   where they are appended
+     * @param level the indention level of the fragment elements,
+     *              which is the number of elements they are inside
+     * @throws IllegalArgumentException
+     *             if there are no fragments, a name is repeated or
+     *             isn't the name of a file, a prefix isn't a valid
+     *             XML name or a URI isn't valid, or
+     *             <code>level</code> is less than 1
+     */
+    public FragmentManifest(List<String> fragments,
+        Map<String, String> namespaces, int level) {
+        if (fragments == null || fragments.isEmpty()) {
+            throw new IllegalArgumentException("there are no fragments");
+        }
+        final Set<String> names = new HashSet<String>();
+        for (String name : fragments) {
+            if (name == null || name.isEmpty() || name.indexOf('/') != -1
+                || name.indexOf('\\') != -1 || name.equals(".")
+                || name.equals("..")) {
+                throw new IllegalArgumentException(
+                    "\"" + name + "\" is an invalid fragment file name");
+            }
+            if (!names.add(name)) {
+                throw new IllegalArgumentException(
+                    "\"" + name + "\" is listed more than once");
+            }
+        }
+        for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+            if (!XMLUtil.isName(entry.getKey())) {
+                throw new IllegalArgumentException("\"" + entry.getKey()
+                    + "\" is an invalid namespace prefix");
+            }
+            if (!XMLUtil.isURI(entry.getValue())) {
+                throw new IllegalArgumentException("\"" + entry.getValue()
+                    + "\" is an invalid URI");
+            }
+        }
+        if (level < 1) {
+            throw new IllegalArgumentException(level + " is an invalid level");
+        }
+
+        this.fragments = Collections.unmodifiableList(
+            new ArrayList<String>(fragments));
+        this.namespaces = Collections.unmodifiableMap(
+            new LinkedHashMap<String, String>(namespaces));
+        this.level = level;
+    }
+
+    /**
+     * @return the names of the fragment files, in order
+     */
+    public List<String> getFragments() {
+        return fragments;
+    }
+
+    /**
+     * @return the URIs of the namespace prefixes that the fragments may use
+     */
+    public Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * @return the indention level of the fragment elements
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Reads a manifest.
+     * @param path the path of the manifest
+     * @return the manifest
+     * @throws IllegalArgumentException if the manifest isn't valid
+     * @throws WAXIOException if it can't be read
+     */
+    public static FragmentManifest read(Path path) {
+        final Properties properties = load(path);
+        final List<String> fragments = new ArrayList<String>();
+        for (int i = 0; properties.containsKey(FRAGMENT_KEY + i); ++i) {
+            fragments.add(properties.getProperty(FRAGMENT_KEY + i));
+        }
+        return new FragmentManifest(fragments,
+            readNamespaces(properties), readLevel(properties));
+    }
+
+    /**
+     * Writes this manifest.  It is written to a temporary file that is
+     * then renamed, so no process ever reads part of it.
+     * @param path the path of the manifest
+     * @throws WAXIOException if it can't be written
+     */
+    public void write(Path path) {
+        final Properties properties = new Properties();
+        for (int i = 0; i < fragments.size(); ++i) {
+            properties.setProperty(FRAGMENT_KEY + i, fragments.get(i));
+        }
+        putNamespaces(properties, namespaces);
+        properties.setProperty(LEVEL_KEY, String.valueOf(level));
+        store(properties, path, "WAX fragment manifest");
+    }
+
+    /**
+     * @param manifestPath the path of the manifest
+     * @param index the index of a fragment
+     * @return the path of the fragment file
+     * @throws IndexOutOfBoundsException if there is no such fragment
+     */
+    /* package */ Path getFragmentPath(Path manifestPath, int index) {
+        return manifestPath.resolveSibling(fragments.get(index));
+    }
+
+    /**
+     * Writes the descriptor of a fragment that has been written.
+     * @param fragmentPath the path of the fragment file
+     * @param namespaces the namespace prefixes it was written for
+     * @param level the indention level it was written for
+     * @throws WAXIOException if it can't be written
+     */
+    /* package */ static void writeDescriptor(Path fragmentPath,
+        Map<String, String> namespaces, int level) {
+        final Properties properties = new Properties();
+        try {
+            properties.setProperty(SIZE_KEY,
+                String.valueOf(Files.size(fragmentPath)));
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+        putNamespaces(properties, namespaces);
+        properties.setProperty(LEVEL_KEY, String.valueOf(level));
+        store(properties, descriptorPath(fragmentPath), "WAX fragment");
+    }
+
+    /**
+     * Finds the problems that keep the fragments from being appended.
+     * @param manifestPath the path of the manifest
+     * @return a description of each problem, or an empty list if
+     *         every fragment is complete and was written for this manifest
+     */
+    /* package */ List<String> findProblems(Path manifestPath) {
+        final List<String> problems = new ArrayList<String>();
+        for (int i = 0; i < fragments.size(); ++i) {
+            final Path fragmentPath = getFragmentPath(manifestPath, i);
+            final Path descriptorPath = descriptorPath(fragmentPath);
+            if (!Files.exists(descriptorPath)) {
+                problems.add(fragments.get(i) + " is incomplete");
+                continue;
+            }
+
+            try {
+                final Properties descriptor = load(descriptorPath);
+                final long size = Long.parseLong(
+                    descriptor.getProperty(SIZE_KEY, "-1"));
+                if (!Files.exists(fragmentPath)
+                    || Files.size(fragmentPath) != size) {
+                    problems.add(fragments.get(i)
+                        + " isn't the size in its descriptor");
+                }
+                if (!readNamespaces(descriptor).equals(namespaces)) {
+                    problems.add(fragments.get(i)
+                        + " was written for other namespaces");
+                }
+                if (readLevel(descriptor) != level) {
+                    problems.add(fragments.get(i)
+                        + " was written for another level");
+                }
+            } catch (IOException | RuntimeException e) {
+                problems.add(fragments.get(i)
+                    + " has an unreadable descriptor: " + e);
+            }
+        }
+        return problems;
+    }
+
+    /* package */ static Path descriptorPath(Path fragmentPath) {
+        return fragmentPath.resolveSibling(
+            fragmentPath.getFileName() + DESCRIPTOR_SUFFIX);
+    }
+
+    private static Map<String, String> readNamespaces(Properties properties) {
+        final Map<String, String> namespaces =
+            new LinkedHashMap<String, String>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(NAMESPACE_KEY)) {
+                namespaces.put(key.substring(NAMESPACE_KEY.length()),
+                    properties.getProperty(key));
+            }
+        }
+        return namespaces;
+    }
+
+    private static void putNamespaces(
+        Properties properties, Map<String, String> namespaces) {
+        for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+            properties.setProperty(
+                NAMESPACE_KEY + entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static int readLevel(Properties properties) {
+        final String level = properties.getProperty(LEVEL_KEY);
+        if (level == null) {
+            throw new IllegalArgumentException("the level is missing");
+        }
+        return Integer.parseInt(level);
+    }
+
+    private static Properties load(Path path) {
+        final Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(path)) {
+            properties.load(is);
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, Path path,
+        String comment) {
+        try {
+            final Path temp = Files.createTempFile(
+                path.toAbsolutePath().getParent(),
+                path.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream os = Files.newOutputStream(temp)) {
+                    properties.store(os, comment);
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+}
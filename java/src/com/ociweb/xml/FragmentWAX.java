@@ -0,0 +1,162 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * A WAX that writes one fragment listed in a <code>FragmentManifest</code>:
+ * a file of sibling elements, in UTF-8, that an <code>AssembledFileWAX</code>
+ * in another process appends as children of one of its elements.
+ * Each sibling is started like a root element.  The namespace prefixes
+ * of the manifest can be used without being declared, and the elements
+ * are indented for the level of the manifest.  When this WAX is closed,
+ * it writes the descriptor that marks the fragment as complete.
+ *
+ * <pre>
+ * FragmentManifest manifest = FragmentManifest.read(manifestPath);
+ * FragmentWAX wax = new FragmentWAX(manifestPath, manifest, workerIndex);
+ * for (Order order : orders) {
+ *     wax.start("o", "order").attr("id", order.getId()).end();
+ * }
+ * wax.close();
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class FragmentWAX extends WAX {
+
+    private final Path path;
+    private final Map<String, String> namespaces;
+    private final int level;
+
+    /**
+     * Creates a FragmentWAX that uses the default configuration.
+     * The fragment file is created, or truncated if it exists,
+     * and its descriptor is deleted until this WAX is closed.
+     * @param manifestPath the path of the manifest
+     * @param manifest the manifest
+     * @param index the index of the fragment in the manifest
+     * @throws IndexOutOfBoundsException if there is no such fragment
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public FragmentWAX(Path manifestPath, FragmentManifest manifest,
+        int index) {
+        this(manifestPath, manifest, index, WAXConfig.DEFAULT);
+    }
+
+    /**
+     * Creates a FragmentWAX that uses a given configuration,
+     * which should be the configuration that the fragment is
+     * appended with.  Only its output settings are used.
+     * @param manifestPath the path of the manifest
+     * @param manifest the manifest
+     * @param index the index of the fragment in the manifest
+     * @param config the configuration
+     * @throws IllegalArgumentException if <code>config</code> is null
+     * @throws IndexOutOfBoundsException if there is no such fragment
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public FragmentWAX(Path manifestPath, FragmentManifest manifest,
+        int index, WAXConfig config) {
+        this(manifest.getFragmentPath(manifestPath, index), manifest,
+            config, open(manifest.getFragmentPath(manifestPath, index),
+                manifest, config));
+    }
+
+    private FragmentWAX(Path path, FragmentManifest manifest,
+        WAXConfig config, XMLWriter out) {
+        super(scope(out, manifest, config), out, !config.isTrustMe());
+        this.path = path;
+        this.namespaces = manifest.getNamespaces();
+        this.level = manifest.getLevel();
+    }
+
+    private static XMLWriter open(
+        Path path, FragmentManifest manifest, WAXConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+
+        try {
+            Files.deleteIfExists(FragmentManifest.descriptorPath(path));
+            final XMLWriter out = new XMLWriter(new OutputStreamWriter(
+                Files.newOutputStream(path), StandardCharsets.UTF_8), config);
+            out.setIndentionLevel(manifest.getLevel());
+            return out;
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Makes the metadata of the element that the fragment is appended to,
+     * which is never written, with the namespace prefixes of the manifest.
+     */
+    private static ElementMetadata scope(
+        XMLWriter out, FragmentManifest manifest, WAXConfig config) {
+        final ElementMetadata scope = new ElementMetadata(
+            out, !config.isTrustMe(), null, null, null, "fragment", false);
+        for (Map.Entry<String, String> entry :
+            manifest.getNamespaces().entrySet()) {
+            scope.declareNamespace(entry.getKey(), entry.getValue());
+        }
+        return scope;
+    }
+
+    /**
+     * Ends all unended elements, closes the fragment file
+     * and writes its descriptor.
+     * @throws IllegalStateException if already closed
+     * @throws WAXIOException if an I/O error occurs
+     */
+    @Override
+    public void close() {
+        final XMLWriter out = getXMLWriter();
+        if (out.isClosed()) throw new IllegalStateException("already closed");
+
+        endSibling();
+        out.close();
+        FragmentManifest.writeDescriptor(path, namespaces, level);
+    }
+}
@@ -0,0 +1,194 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A WAX that keeps the whole document in memory, in a buffer that grows
+ * as needed, instead of writing it to a Writer.  Unlike a WAX that writes
+ * to a <code>StringWriter</code> or a <code>ByteArrayOutputStream</code>,
+ * nothing is synchronized or copied between buffers while the document is
+ * written, and the characters are copied only once more when they are
+ * turned into a String or UTF-8 bytes.
+ * The capacity is only a hint for the expected document size; choosing it
+ * well avoids copying the buffer as it grows.
+ * Like other WAX objects, an InMemoryWAX must only be used by one thread
+ * at a time.
+ *
+ * <pre>
+ * InMemoryWAX wax = new InMemoryWAX(4096);
+ * wax.start("car").attr("year", 2008).text("Prius").close();
+ * byte[] bytes = wax.toByteArray();
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class InMemoryWAX extends WAX {
+
+    /**
+     * The capacity used when none is given.
+     */
+    public static final int DEFAULT_CAPACITY = XMLWriter.DEFAULT_BUFFER_SIZE;
+
+    /**
+     * The number of characters encoded at a time by writeTo.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final XMLWriter out;
+
+    /**
+     * Creates an InMemoryWAX that uses the default configuration
+     * and capacity.
+     */
+    public InMemoryWAX() {
+        this(WAXConfig.DEFAULT, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an InMemoryWAX that uses the default configuration.
+     * @param capacity the expected document size, in characters
+     * @throws IllegalArgumentException if <code>capacity</code> is negative
+     */
+    public InMemoryWAX(int capacity) {
+        this(WAXConfig.DEFAULT, capacity);
+    }
+
+    /**
+     * Creates an InMemoryWAX that uses a given configuration.
+     * @param config the configuration
+     * @param capacity the expected document size, in characters
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null
+     *             or <code>capacity</code> is negative
+     */
+    public InMemoryWAX(WAXConfig config, int capacity) {
+        this(config, newXMLWriter(config, capacity), null);
+    }
+
+    /**
+     * Creates an InMemoryWAX for a <code>WAXFactory</code>.
+     * @param config the configuration
+     * @param out the XMLWriter, which has no Writer
+     * @param sizeHistory the document sizes, or null
+     */
+    /* package */ InMemoryWAX(
+        WAXConfig config, XMLWriter out, SizeHistory sizeHistory) {
+        super(config, out, sizeHistory);
+        this.out = out;
+    }
+
+    /**
+     * Creates an XMLWriter that keeps the document in its buffer.
+     * @param config the configuration
+     * @param capacity the initial buffer size
+     * @return the XMLWriter
+     */
+    /* package */ static XMLWriter newXMLWriter(WAXConfig config, int capacity) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                capacity + " is an invalid capacity");
+        }
+
+        return new XMLWriter(config, capacity);
+    }
+
+    /**
+     * Gets the number of characters written so far.
+     * A start tag that is still waiting for attributes isn't
+     * closed yet, so the document is complete only after close is called.
+     * @return the number of characters
+     */
+    public int size() {
+        return (int) out.getCharCount();
+    }
+
+    /**
+     * Encodes the XML written so far in UTF-8,
+     * the encoding named in the XML declaration.
+     * @return a new array holding exactly the encoded bytes
+     */
+    public byte[] toByteArray() {
+        final char[] chars = out.getBuffer();
+        final int count = size();
+        final byte[] bytes = new byte[UTF8.length(chars, 0, count)];
+        UTF8.encode(chars, 0, count, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Gets the XML written so far.
+     * @return the XML
+     */
+    @Override
+    public String toString() {
+        return new String(out.getBuffer(), 0, size());
+    }
+
+    /**
+     * Writes the XML written so far to an OutputStream in UTF-8,
+     * a chunk at a time, without encoding the whole document first.
+     * The stream is neither flushed nor closed.
+     * @param os the OutputStream
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void writeTo(OutputStream os) {
+        final char[] chars = out.getBuffer();
+        final int count = size();
+        final byte[] bytes =
+            new byte[Math.min(count, CHUNK_SIZE) * UTF8.MAX_BYTES_PER_CHAR];
+
+        try {
+            int offset = 0;
+            while (offset < count) {
+                // A surrogate pair is never split between chunks.
+                final int length = UTF8.wholeChars(chars, offset,
+                    Math.min(count - offset, CHUNK_SIZE), count);
+                os.write(bytes, 0, UTF8.encode(chars, offset, length, bytes, 0));
+                offset += length;
+            }
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A WAX that writes a file in UTF-8 together with an index of the elements
+ * at one depth, such as the children of the root element.  The index holds
+ * the byte offset and length of each element and the value of its key
+ * attribute, and is written to a file beside the document whose name has
+ * <code>WAXIndex.INDEX_SUFFIX</code> added.  See <code>WAXIndex</code>.
+ * A key is recorded whichever <code>attr</code> method writes it.
+ * Elements in commented start tags aren't indexed, and
+ * <code>children</code> refuses a parallel Stream whose elements,
+ * or their descendants, would be.
+ *
+ * <pre>
+ * IndexedFileWAX wax = new IndexedFileWAX(path, 1, "id");
+ * wax.start("accounts");
+ * for (Account account : accounts) {
+ *     wax.start("account").attr("id", account.getId()) ... .end();
+ * }
+ * wax.close();
+ * WAXIndex index = WAXIndex.read(WAXIndex.indexPath(path));
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class IndexedFileWAX extends WAX {
+
+    private final IndexingWriter writer;
+    private final int indexDepth;
+    private final String keyAttribute;
+
+    /**
+     * The number of elements started and not yet ended.
+     */
+    private int depth;
+
+    /**
+     * The entry of the indexed element that is being written, or null.
+     */
+    private IndexingWriter.Entry entry;
+
+    /**
+     * Creates an IndexedFileWAX that uses the default configuration.
+     * The file and its index are created, or truncated if they exist.
+     * @param path the path of the file
+     * @param indexDepth the depth of the elements that are indexed,
+     *                   0 for the root element, 1 for its children
+     *                   and so on
+     * @param keyAttribute the name of the attribute, without a prefix,
+     *                     whose value is the key of an element,
+     *                     or null if there are no keys
+     * @throws IllegalArgumentException
+     *             if <code>indexDepth</code> is negative
+     * @throws WAXIOException if the files cannot be opened for writing
+     */
+    public IndexedFileWAX(Path path, int indexDepth, String keyAttribute) {
+        this(path, WAXConfig.DEFAULT, indexDepth, keyAttribute);
+    }
+
+    /**
+     * Creates an IndexedFileWAX that uses a given configuration.
+     * The file and its index are created, or truncated if they exist.
+     * @param path the path of the file
+     * @param config the configuration
+     * @param indexDepth the depth of the elements that are indexed
+     * @param keyAttribute the name of the key attribute, or null
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null
+     *             or <code>indexDepth</code> is negative
+     * @throws WAXIOException if the files cannot be opened for writing
+     */
+    public IndexedFileWAX(Path path, WAXConfig config, int indexDepth,
+        String keyAttribute) {
+        this(config, open(path, config, indexDepth), indexDepth, keyAttribute);
+    }
+
+    private IndexedFileWAX(WAXConfig config, IndexingWriter writer,
+        int indexDepth, String keyAttribute) {
+        super(config, writer, null);
+        this.writer = writer;
+        this.indexDepth = indexDepth;
+        this.keyAttribute = keyAttribute;
+    }
+
+    private static IndexingWriter open(
+        Path path, WAXConfig config, int indexDepth) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (indexDepth < 0) {
+            throw new IllegalArgumentException(
+                indexDepth + " is an invalid depth");
+        }
+
+        OutputStream os = null;
+        try {
+            os = Files.newOutputStream(path);
+            return new IndexingWriter(os,
+                Files.newOutputStream(WAXIndex.indexPath(path)), indexDepth);
+        } catch (IOException ioException) {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // The first exception is thrown.
+                }
+            }
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    @Override
+    public StartTagWAX start(String prefix, String name) {
+        super.start(prefix, name);
+        if (depth++ == indexDepth) {
+            // Just after the name, which follows the <.
+            final int nameLength = name.length() + (XMLUtil.hasValue(prefix) ?
+                prefix.length() + 1 : 0);
+            entry = writer.add(getXMLWriter().getCharCount() - nameLength - 1,
+                prefix, name);
+        }
+        return this;
+    }
+
+    @Override
+    public StartTagWAX commentedStart(String prefix, String name) {
+        super.commentedStart(prefix, name);
+        ++depth;
+        return this;
+    }
+
+    /**
+     * Takes the key of the indexed element from the value of its key
+     * attribute as it is written, whichever attr method writes it.
+     */
+    @Override
+    /* package */ void attributeStarted(String prefix, String name) {
+        if (entry != null && depth == indexDepth + 1
+            && !XMLUtil.hasValue(prefix) && name.equals(keyAttribute)) {
+            writer.captureKey(entry, getXMLWriter().getCharCount());
+        }
+    }
+
+    /**
+     * Writes a child element for each item in a Stream, like the
+     * method it overrides.
+     * @throws IllegalStateException
+     *             if the Stream is parallel and the children or their
+     *             descendants would be indexed, since elements written
+     *             in parallel can't be
+     */
+    @Override
+    public <T> ElementWAX children(String prefix, String name,
+        Stream<T> items,
+        BiConsumer<? super StartTagWAX, ? super T> childWriter) {
+        if (items.isParallel() && depth <= indexDepth) {
+            throw new IllegalStateException(
+                "can't write indexed elements from a parallel Stream");
+        }
+        return super.children(prefix, name, items, childWriter);
+    }
+
+    @Override
+    public ElementWAX end(boolean verbose) {
+        super.end(verbose);
+        if (--depth == indexDepth && entry != null) {
+            entry.endChar = getXMLWriter().getCharCount();
+            entry = null;
+        }
+        return this;
+    }
+}
@@ -0,0 +1,242 @@
+package com.ociweb.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+
+/**
+ * Encodes a document in UTF-8, like a <code>UTF8Writer</code>, and writes
+ * the index of its elements at one depth.  The positions of the elements
+ * are given in characters, and are converted to byte offsets as the
+ * characters pass through, so nothing is encoded twice.
+ * See <code>IndexedFileWAX</code> and <code>WAXIndex</code>.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class IndexingWriter extends Writer {
+
+    /**
+     * An element being indexed.  Its end is unknown until it is ended.
+     */
+    /* package */ static final class Entry {
+        final long startChar;
+        long endChar = Long.MAX_VALUE;
+        String key;
+        long keyChar;
+        long startByte = -1;
+
+        Entry(long startChar) {
+            this.startChar = startChar;
+        }
+    }
+
+    private final UTF8Writer encoder = new UTF8Writer();
+    private final OutputStream index;
+
+    /**
+     * The elements whose start or end hasn't been written yet, in order.
+     */
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+    private long charCount;
+    private long previousEnd;
+
+    /**
+     * The entries whose keys are taken from the characters that pass
+     * through, from <code>keyChar</code> up to the closing quote of the
+     * attribute value, in order, and the part of the first key that
+     * has passed.
+     */
+    private final ArrayDeque<Entry> keys = new ArrayDeque<Entry>();
+    private final StringBuilder key = new StringBuilder();
+
+    /**
+     * @param os the stream that the document is written to
+     * @param index the stream that the index is written to
+     * @param depth the depth of the indexed elements
+     */
+    /* package */ IndexingWriter(OutputStream os, OutputStream index,
+        int depth) throws IOException {
+        encoder.setOutputStream(os);
+        this.index = new BufferedOutputStream(index);
+        WAXIndex.writeHeader(this.index, depth);
+    }
+
+    /**
+     * Adds an element whose start tag has just been opened.
+     * @param startChar the position of the &lt; of its start tag
+     * @param prefix the namespace prefix of the element, or null
+     * @param name the name of the element
+     * @return the entry, whose end and key are set later
+     */
+    /* package */ Entry add(long startChar, String prefix, String name) {
+        final Entry entry = new Entry(startChar);
+        if (startChar < charCount) {
+            // The buffer was passed on while the start tag was written,
+            // so the offset is found from the characters already encoded.
+            final char[] tag = ("<" + (XMLUtil.hasValue(prefix) ?
+                prefix + ':' + name : name)).toCharArray();
+            int passed = (int) (charCount - startChar);
+            if (Character.isHighSurrogate(tag[passed - 1])) {
+                // The encoder holds it until the rest of the pair comes.
+                --passed;
+            }
+            entry.startByte =
+                encoder.getByteCount() - UTF8.length(tag, 0, passed);
+        }
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Takes the key of an entry from an attribute value, which is
+     * written next.
+     * @param entry the entry
+     * @param startChar the position of the first character of the value
+     */
+    /* package */ void captureKey(Entry entry, long startChar) {
+        entry.keyChar = startChar;
+        keys.add(entry);
+    }
+
+    /**
+     * Collects the characters of keys that are about to pass through,
+     * and sets the key of an entry when its closing quote does.
+     */
+    private void captureKeys(char[] chars, int offset, int length) {
+        final int end = offset + length;
+        int i = offset;
+        while (!keys.isEmpty()) {
+            final Entry entry = keys.peek();
+            final long start = offset + entry.keyChar - charCount;
+            if (start >= end) return;
+
+            if (start > i) i = (int) start;
+            while (i < end && chars[i] != '"') key.append(chars[i++]);
+            if (i == end) return;
+
+            entry.key = unescape(key.toString());
+            key.setLength(0);
+            keys.poll();
+        }
+    }
+
+    /**
+     * Undoes the escaping of <code>XMLUtil.escape</code>.
+     */
+    private static String unescape(String text) {
+        if (text.indexOf('&') == -1) return text;
+
+        return text.replace("&lt;", "<").replace("&gt;", ">")
+            .replace("&apos;", "'").replace("&quot;", "\"")
+            .replace("&#xA;", "\n").replace("&#x9;", "\t")
+            .replace("&amp;", "&");
+    }
+
+    /**
+     * @return the character position of the next start or end
+     *         to be converted to a byte offset
+     */
+    private long nextMark() {
+        final Entry entry = entries.peek();
+        if (entry == null) return Long.MAX_VALUE;
+        return entry.startByte == -1 ? entry.startChar : entry.endChar;
+    }
+
+    /**
+     * Converts the starts and ends at the current position.
+     */
+    private void markReached() throws IOException {
+        while (nextMark() == charCount) {
+            final Entry entry = entries.peek();
+            final long offset = encoder.getByteCount();
+            if (entry.startByte == -1) {
+                entry.startByte = offset;
+            } else {
+                WAXIndex.writeEntry(index, previousEnd,
+                    entry.startByte, offset - entry.startByte, entry.key);
+                previousEnd = offset;
+                entries.poll();
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(new char[] { (char) c }, 0, 1);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length)
+        throws IOException {
+        if (!keys.isEmpty()) captureKeys(chars, offset, length);
+
+        final int end = offset + length;
+        markReached();
+        while (offset < end) {
+            // Elements start and end between surrogate pairs,
+            // so the pieces never split one.
+            final int count = (int) Math.min(
+                end - offset, nextMark() - charCount);
+            encoder.write(chars, offset, count);
+            offset += count;
+            charCount += count;
+            markReached();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encoder.flush();
+        index.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            markReached();
+            encoder.close();
+        } finally {
+            index.close();
+        }
+    }
+}
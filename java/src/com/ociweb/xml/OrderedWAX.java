@@ -0,0 +1,198 @@
+package com.ociweb.xml;
+
+import java.io.Writer;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+/**
+ * A WAX in which slots for child elements can be reserved and filled
+ * later, when a value they are written from becomes available.
+ * Each slot is written on the thread that completes its value,
+ * in parallel with the rest of the document, and the document is
+ * passed to the Writer in order as soon as every slot before a part of
+ * it has been filled.  Only the output after the first unfilled slot
+ * is held in memory.
+ *
+ * <pre>
+ * OrderedWAX wax = new OrderedWAX(writer);
+ * wax.start("page");
+ * for (Section section : sections) {
+ *     wax.slot(fetch(section), (child, content) -&gt;
+ *         child.start("section").text(content).end());
+ * }
+ * wax.close(); // waits for the last slot
+ * </pre>
+ *
+ * <p>
+ * The element in a slot is written with a WAX of its own that has the
+ * settings this WAX has when the slot is reserved, and can use the
+ * namespace prefixes in scope there.  It is written, and the output
+ * that was waiting for it passed to the Writer, on the thread that
+ * completes the value while that thread holds the lock of the Writer,
+ * so a value completed by a thread that mustn't block on I/O should
+ * be passed through an asynchronous stage such as
+ * <code>thenApplyAsync</code> first.
+ * </p>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class OrderedWAX extends WAX {
+
+    private final OrderedWriter writer;
+
+    /**
+     * The first exception thrown while filling a slot.
+     * It is guarded by this object.
+     */
+    private Throwable failure;
+
+    /**
+     * Creates an OrderedWAX that uses the default configuration.
+     * The writer will be closed by the close method of this class.
+     * @param writer the Writer
+     */
+    public OrderedWAX(Writer writer) {
+        this(writer, WAXConfig.DEFAULT);
+    }
+
+    /**
+     * Creates an OrderedWAX that uses a given configuration.
+     * The writer will be closed by the close method of this class.
+     * @param writer the Writer
+     * @param config the configuration
+     * @throws IllegalArgumentException if <code>config</code> is null
+     */
+    public OrderedWAX(Writer writer, WAXConfig config) {
+        this(checkConfig(config), new OrderedWriter(writer));
+    }
+
+    private OrderedWAX(WAXConfig config, OrderedWriter writer) {
+        super(config, writer, null);
+        this.writer = writer;
+    }
+
+    private static WAXConfig checkConfig(WAXConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        return config;
+    }
+
+    /**
+     * Reserves a slot for a child element of the current element,
+     * written when a value is available.
+     * @param value the value
+     * @param childWriter writes exactly one element from the value
+     * @param <T> the type of the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing
+     *             the root element
+     */
+    public <T> OrderedWAX slot(CompletionStage<? extends T> value,
+        final BiConsumer<? super ElementWAX, ? super T> childWriter) {
+        startExternalChild("slot");
+        final OrderedWriter.Segment slot = writer.reserve();
+
+        // The fragment has the settings and scope of this WAX now.
+        final XMLWriter out = new XMLWriter(getXMLWriter(), new char[256]);
+        final WAX child = newDetachedChild(out);
+
+        value.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T result, Throwable throwable) {
+                if (throwable != null) {
+                    failed(slot, throwable);
+                    return;
+                }
+
+                try {
+                    childWriter.accept(child, result);
+                    child.endSibling();
+                    writer.fill(slot, out.getBuffer(), out.getBufferCount());
+                } catch (RuntimeException | Error e) {
+                    failed(slot, e);
+                }
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * @return the number of slots that haven't been filled
+     */
+    public int getPendingSlots() {
+        return writer.getPendingCount();
+    }
+
+    /**
+     * Leaves a slot empty because its value or element couldn't be
+     * written, and keeps the exception for close to throw.
+     */
+    private void failed(OrderedWriter.Segment slot, Throwable throwable) {
+        synchronized (this) {
+            if (failure == null) failure = throwable;
+        }
+        writer.fill(slot, new char[0], 0);
+    }
+
+    /**
+     * Terminates all unterminated elements, waits for every slot
+     * to be filled, and closes the Writer.
+     * @throws IllegalStateException if already closed
+     * @throws CompletionException
+     *             if the value of a slot completed exceptionally, or its
+     *             element couldn't be written; the slot is left empty
+     * @throws WAXIOException if an I/O error occurs
+     */
+    @Override
+    public void close() {
+        super.close();
+
+        synchronized (this) {
+            if (failure != null) {
+                throw failure instanceof CompletionException ?
+                    (CompletionException) failure :
+                    new CompletionException(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A Writer that passes its output to another Writer, except that slots
+ * can be reserved in it and filled later, in any order and from any
+ * thread.  Output after a slot that hasn't been filled is held back,
+ * and passed on as soon as every slot before it has been filled.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class OrderedWriter extends Writer {
+
+    /**
+     * A reserved slot, or output held back after one.
+     */
+    /* package */ static final class Segment {
+        private char[] chars;
+        private int count;
+        private boolean pending;
+
+        private Segment(boolean pending, int capacity) {
+            this.pending = pending;
+            this.chars = new char[capacity];
+        }
+
+        private void append(char[] source, int offset, int length) {
+            if (chars.length - count < length) {
+                chars = Arrays.copyOf(chars,
+                    Math.max(chars.length * 2, count + length));
+            }
+            System.arraycopy(source, offset, chars, count, length);
+            count += length;
+        }
+    }
+
+    private final Writer writer;
+
+    /**
+     * The slots and held back output, in document order, starting with
+     * the first slot that hasn't been filled.  It and the fields after it
+     * are guarded by the lock.
+     */
+    private final ArrayDeque<Segment> held = new ArrayDeque<Segment>();
+    private IOException error;
+
+    /**
+     * @param writer the Writer that output is passed to
+     */
+    /* package */ OrderedWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Reserves a slot after everything written so far.
+     * @return the slot
+     */
+    /* package */ Segment reserve() {
+        synchronized (lock) {
+            final Segment slot = new Segment(true, 0);
+            held.add(slot);
+            return slot;
+        }
+    }
+
+    /**
+     * Fills a slot, and passes on the output that was waiting for it.
+     * The output is written to the Writer by the calling thread
+     * while it holds the lock.
+     * @param slot the slot
+     * @param chars the characters that go in it
+     * @param count the number of characters
+     */
+    /* package */ void fill(Segment slot, char[] chars, int count) {
+        synchronized (lock) {
+            slot.chars = chars;
+            slot.count = count;
+            slot.pending = false;
+            release();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of slots that haven't been filled
+     */
+    /* package */ int getPendingCount() {
+        synchronized (lock) {
+            int count = 0;
+            for (Segment segment : held) {
+                if (segment.pending) ++count;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Passes on the segments at the start that are no longer waiting.
+     * An error is kept to be thrown to the thread writing the document.
+     */
+    private void release() {
+        while (!held.isEmpty() && !held.peek().pending) {
+            final Segment segment = held.poll();
+            if (error == null) {
+                try {
+                    writer.write(segment.chars, 0, segment.count);
+                } catch (IOException ioException) {
+                    error = ioException;
+                }
+            }
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) throw error;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        synchronized (lock) {
+            checkError();
+            if (held.isEmpty()) {
+                writer.write(chars, offset, length);
+                return;
+            }
+
+            Segment tail = held.peekLast();
+            if (tail.pending) {
+                tail = new Segment(false, Math.max(length, 1024));
+                held.add(tail);
+            }
+            tail.append(chars, offset, length);
+        }
+    }
+
+    /**
+     * Flushes the output that isn't held back.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            checkError();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Waits for every slot to be filled, then closes the Writer.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            try {
+                while (!held.isEmpty() && error == null) lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                    "interrupted while waiting for slots to be filled");
+            }
+
+            checkError();
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.ociweb.xml;
+
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Writes the child elements for the items of a parallel Stream.
+ * Items are taken from the Stream in batches on the calling thread,
+ * and each batch is written by a fork/join task into a fragment buffer
+ * of its own.  The calling thread passes the fragments on in order
+ * while the tasks for the later batches run, with a limited number of
+ * batches in progress.  The buffers are reused by later tasks.
+ * See <code>WAX.children</code>.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class ParallelChildren<T> {
+
+    /**
+     * The number of items written by each task.
+     */
+    /* package */ static final int BATCH_SIZE = 256;
+
+    /**
+     * The number of batches in progress per thread of the pool.
+     */
+    private static final int BATCHES_PER_THREAD = 4;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final WAX parent;
+    private final XMLWriter out;
+    private final String prefix;
+    private final String name;
+    private final BiConsumer<? super StartTagWAX, ? super T> childWriter;
+    private final ConcurrentLinkedQueue<char[]> freeBuffers =
+        new ConcurrentLinkedQueue<char[]>();
+
+    /**
+     * A batch of items, filled by the Spliterator.
+     */
+    private final class Batch implements Consumer<T> {
+        final Object[] items = new Object[BATCH_SIZE];
+        int count;
+
+        public void accept(T item) {
+            items[count++] = item;
+        }
+    }
+
+    /**
+     * @param parent the WAX whose current element the children are in
+     * @param out the XMLWriter of that WAX
+     * @param prefix the namespace prefix of the children
+     * @param name the name of the children
+     * @param childWriter writes the attributes and content of a child
+     */
+    /* package */ ParallelChildren(WAX parent, XMLWriter out,
+        String prefix, String name,
+        BiConsumer<? super StartTagWAX, ? super T> childWriter) {
+        this.parent = parent;
+        this.out = out;
+        this.prefix = prefix;
+        this.name = name;
+        this.childWriter = childWriter;
+    }
+
+    /**
+     * Writes a child for each item, in encounter order.
+     * @param items the items
+     */
+    /* package */ void write(Spliterator<T> items) {
+        final ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ?
+            ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        final int maxBatches = pool.getParallelism() * BATCHES_PER_THREAD;
+        final ArrayDeque<ForkJoinTask<XMLWriter>> batches =
+            new ArrayDeque<ForkJoinTask<XMLWriter>>(maxBatches);
+
+        try {
+            while (true) {
+                final Batch batch = new Batch();
+                while (batch.count < BATCH_SIZE && items.tryAdvance(batch)) {
+                    // The batch is filled by the Spliterator.
+                }
+                if (batch.count == 0) break;
+
+                batches.add(pool.submit(task(batch)));
+                if (batches.size() == maxBatches) append(batches.poll());
+            }
+
+            while (!batches.isEmpty()) append(batches.poll());
+        } finally {
+            for (ForkJoinTask<XMLWriter> task : batches) task.cancel(false);
+        }
+    }
+
+    /**
+     * Waits for a batch and passes its fragment on.
+     */
+    private void append(ForkJoinTask<XMLWriter> task) {
+        final XMLWriter fragment = task.join();
+        out.write(fragment.getBuffer(), 0, fragment.getBufferCount());
+        out.childWritten();
+        freeBuffers.add(fragment.getBuffer());
+    }
+
+    private ForkJoinTask<XMLWriter> task(final Batch batch) {
+        return ForkJoinTask.adapt(new Callable<XMLWriter>() {
+            @SuppressWarnings("unchecked")
+            public XMLWriter call() {
+                char[] buffer = freeBuffers.poll();
+                if (buffer == null) buffer = new char[INITIAL_BUFFER_SIZE];
+
+                final XMLWriter fragment = new XMLWriter(out, buffer);
+                final WAX siblings = new WAX(parent, fragment);
+                for (int i = 0; i < batch.count; ++i) {
+                    siblings.start(prefix, name);
+                    childWriter.accept(siblings, (T) batch.items[i]);
+                    siblings.endSibling();
+                }
+                return fragment;
+            }
+        });
+    }
+}
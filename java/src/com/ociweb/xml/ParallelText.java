@@ -0,0 +1,186 @@
+package com.ociweb.xml;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Writes very long text, escaped or as the content of a CDATA section,
+ * in chunks that are written by fork/join tasks into fragment buffers
+ * of their own.  The calling thread passes the fragments on in order
+ * while the tasks for the later chunks run, with a limited number of
+ * chunks in progress, like <code>ParallelChildren</code>.
+ * Chunks never end between the two halves of a surrogate pair, or
+ * inside a "]]&gt;" when writing a CDATA section.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class ParallelText {
+
+    /**
+     * Shorter text is written by the calling thread alone.
+     */
+    /* package */ static final int MIN_PARALLEL_LENGTH = 1 << 20;
+
+    /**
+     * The number of characters of the text in each chunk, less a few
+     * at the boundaries that can't be split.
+     */
+    /* package */ static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The number of chunks in progress per thread of the pool.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final XMLWriter out;
+    private final String text;
+    private final boolean cdata;
+    private final ConcurrentLinkedQueue<char[]> freeBuffers =
+        new ConcurrentLinkedQueue<char[]>();
+
+    /**
+     * @param out the XMLWriter that the text is written to
+     * @param text the text
+     * @param cdata true to write the content of a CDATA section,
+     *              false to escape the text
+     */
+    /* package */ ParallelText(XMLWriter out, String text, boolean cdata) {
+        this.out = out;
+        this.text = text;
+        this.cdata = cdata;
+    }
+
+    /**
+     * @return the pool of the current fork/join task, if any,
+     *         otherwise the common pool
+     */
+    private static ForkJoinPool pool() {
+        return ForkJoinTask.inForkJoinPool() ?
+            ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * @param length the length of the text
+     * @return true if text of that length is worth writing in parallel
+     */
+    /* package */ static boolean isWorthwhile(int length) {
+        return length >= MIN_PARALLEL_LENGTH && pool().getParallelism() > 1;
+    }
+
+    /**
+     * Gets the end of a chunk, as near as possible to a given index.
+     * @param text the text
+     * @param end the index the chunk would end at
+     * @param cdata true if a "]]&gt;" must not be split either
+     * @return the index that the chunk ends at
+     */
+    /* package */ static int chunkEnd(String text, int end, boolean cdata) {
+        if (end >= text.length()) return text.length();
+
+        if (Character.isHighSurrogate(text.charAt(end - 1))
+            && Character.isLowSurrogate(text.charAt(end))) {
+            --end;
+        }
+        if (cdata) {
+            // Then text.charAt(end) is ']', so no pair is split.
+            if (text.startsWith("]]>", end - 1)) {
+                --end;
+            } else if (end > 1 && text.startsWith("]]>", end - 2)) {
+                end -= 2;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Writes the text.
+     */
+    /* package */ void write() {
+        final ForkJoinPool pool = pool();
+        final int maxChunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        final ArrayDeque<ForkJoinTask<XMLWriter>> chunks =
+            new ArrayDeque<ForkJoinTask<XMLWriter>>(maxChunks);
+
+        try {
+            int start = 0;
+            while (start < text.length()) {
+                final int end = chunkEnd(text, start + CHUNK_SIZE, cdata);
+                chunks.add(pool.submit(task(start, end)));
+                if (chunks.size() == maxChunks) append(chunks.poll());
+                start = end;
+            }
+
+            while (!chunks.isEmpty()) append(chunks.poll());
+        } finally {
+            for (ForkJoinTask<XMLWriter> task : chunks) task.cancel(false);
+        }
+    }
+
+    /**
+     * Waits for a chunk and passes its fragment on.
+     */
+    private void append(ForkJoinTask<XMLWriter> task) {
+        final XMLWriter fragment = task.join();
+        out.write(fragment.getBuffer(), 0, fragment.getBufferCount());
+        freeBuffers.add(fragment.getBuffer());
+    }
+
+    private ForkJoinTask<XMLWriter> task(final int start, final int end) {
+        return ForkJoinTask.adapt(new Callable<XMLWriter>() {
+            public XMLWriter call() {
+                char[] buffer = freeBuffers.poll();
+                if (buffer == null) {
+                    buffer = new char[CHUNK_SIZE + CHUNK_SIZE / 8];
+                }
+
+                final XMLWriter fragment = new XMLWriter(out, buffer);
+                if (cdata) {
+                    fragment.writeCDataContent(text, start, end);
+                } else {
+                    fragment.writeEscaped(text, start, end);
+                }
+                return fragment;
+            }
+        });
+    }
+}
@@ -0,0 +1,383 @@
+package com.ociweb.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Writes records to many documents at once, one per key, such as
+ * a statement file for each customer written from one stream of
+ * transactions.  Each record is written as one or more children of the
+ * root element of the document for its key.  The first record for a key
+ * creates its file and writes its prolog and root start tag.
+ *
+ * <p>
+ * Only a limited number of documents are open at once, limited both by
+ * a number of files and by the memory used for their buffers.  When
+ * another must be opened, the one used least recently is suspended: its
+ * output is passed on and its file closed, with its root element still
+ * unended.  The next record for it reopens the file and appends to it.
+ * <code>close</code> ends the root element of every document.
+ * This class is not thread-safe.
+ * </p>
+ *
+ * <pre>
+ * PartitionedWAX&lt;String&gt; statements = new PartitionedWAX&lt;String&gt;(
+ *     customer -&gt; dir.resolve(customer + ".xml"),
+ *     (wax, customer) -&gt; wax.start("statement").attr("customer", customer));
+ * for (Transaction t : transactions) {
+ *     statements.write(t.getCustomer(), wax -&gt;
+ *         wax.start("transaction").attr("amount", t.getAmount()).end());
+ * }
+ * statements.close();
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class PartitionedWAX<K> implements Closeable {
+
+    /**
+     * The most documents open at once unless another limit is given.
+     */
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+    /**
+     * The most memory used for the buffers of open documents,
+     * in bytes, unless another limit is given.
+     */
+    public static final long DEFAULT_MAX_BUFFER_BYTES = 64L << 20;
+
+    /**
+     * The size of the buffer of each open document, in characters.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The bytes used by each open document, two per character of its
+     * buffer and those of its encoder.
+     */
+    private static final int BYTES_PER_DOCUMENT = 2 * BUFFER_SIZE + 8192;
+
+    /**
+     * A document, which is open when <code>records</code> isn't null.
+     */
+    private static final class Partition {
+        final Path path;
+        String rootPrefix;
+        String rootName;
+        Map<String, String> namespaces;
+        WAX records;
+        boolean finished;
+
+        Partition(Path path) {
+            this.path = path;
+        }
+    }
+
+    private final Function<? super K, Path> paths;
+    private final BiConsumer<? super PrologWAX, ? super K> rootWriter;
+    private final WAXConfig config;
+    private final int maxOpen;
+    private final Map<K, Partition> partitions = new HashMap<K, Partition>();
+
+    /**
+     * The open documents, the least recently written first.
+     */
+    private final LinkedHashMap<K, Partition> open =
+        new LinkedHashMap<K, Partition>(16, 0.75f, true);
+    private long suspendCount;
+    private boolean closed;
+
+    /**
+     * Creates a PartitionedWAX that uses the default configuration
+     * and limits.
+     * @param paths gives the path of the file for a key
+     * @param rootWriter writes the prolog of the document for a key,
+     *                   if any, and the start tag of its root element
+     */
+    public PartitionedWAX(Function<? super K, Path> paths,
+        BiConsumer<? super PrologWAX, ? super K> rootWriter) {
+        this(paths, rootWriter, WAXConfig.DEFAULT,
+            DEFAULT_MAX_OPEN_FILES, DEFAULT_MAX_BUFFER_BYTES);
+    }
+
+    /**
+     * Creates a PartitionedWAX.
+     * @param paths gives the path of the file for a key
+     * @param rootWriter writes the prolog of the document for a key,
+     *                   if any, and the start tag of its root element
+     * @param config the configuration of every document
+     * @param maxOpenFiles the most documents open at once
+     * @param maxBufferBytes the most memory used for the buffers of open
+     *                       documents; at least one is always open
+     * @throws IllegalArgumentException
+     *             if <code>paths</code>, <code>rootWriter</code> or
+     *             <code>config</code> is null, or <code>maxOpenFiles</code>
+     *             or <code>maxBufferBytes</code> is less than 1
+     */
+    public PartitionedWAX(Function<? super K, Path> paths,
+        BiConsumer<? super PrologWAX, ? super K> rootWriter,
+        WAXConfig config, int maxOpenFiles, long maxBufferBytes) {
+        if (paths == null || rootWriter == null || config == null) {
+            throw new IllegalArgumentException(
+                "paths, rootWriter and config must not be null");
+        }
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException(
+                maxOpenFiles + " is an invalid number of files");
+        }
+        if (maxBufferBytes < 1) {
+            throw new IllegalArgumentException(
+                maxBufferBytes + " is an invalid number of bytes");
+        }
+
+        this.paths = paths;
+        this.rootWriter = rootWriter;
+        this.config = config;
+        this.maxOpen = (int) Math.max(1,
+            Math.min(maxOpenFiles, maxBufferBytes / BYTES_PER_DOCUMENT));
+    }
+
+    /**
+     * Writes a record to the document for a key, which is created or
+     * reopened as needed.  Any elements left unended by the record
+     * writer are ended.
+     * @param key the key
+     * @param recordWriter writes the record, starting each of its
+     *                     elements like a root element
+     * @throws IllegalStateException
+     *             if this is closed, or if the root writer doesn't leave
+     *             the root element as the current element
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void write(K key, Consumer<? super ElementWAX> recordWriter) {
+        if (closed) throw new IllegalStateException("already closed");
+
+        Partition partition = open.get(key);
+        if (partition == null) {
+            // Room is made first, so that no more than maxOpen files
+            // are open at once.
+            if (open.size() >= maxOpen) suspendEldest();
+
+            partition = partitions.get(key);
+            if (partition == null) {
+                partition = new Partition(paths.apply(key));
+                create(partition, key);
+                partitions.put(key, partition);
+            } else {
+                resume(partition);
+            }
+            open.put(key, partition);
+        }
+
+        final WAX records = partition.records;
+        try {
+            recordWriter.accept(records);
+        } finally {
+            records.endSibling();
+        }
+    }
+
+    /**
+     * Creates the file of a document and writes its root start tag.
+     * If that fails, the file is closed and deleted.
+     */
+    private void create(Partition partition, K key) {
+        final XMLWriter out = newXMLWriter(partition.path, false);
+        boolean created = false;
+        try {
+            final WAX root = new WAX(config, out, null);
+            rootWriter.accept(root, key);
+
+            final ElementMetadata rootMetadata =
+                root.getCurrentElementMetadata();
+            if (rootMetadata == null || rootMetadata.getParent() != null) {
+                throw new IllegalStateException(
+                    "the root writer must leave the root element started");
+            }
+            root.startExternalChild("write");
+
+            partition.rootPrefix = rootMetadata.getPrefix();
+            partition.rootName = rootMetadata.getName();
+            partition.namespaces = rootMetadata.getNamespaces().isEmpty() ?
+                Collections.<String, String>emptyMap() :
+                new HashMap<String, String>(rootMetadata.getNamespaces());
+            partition.records =
+                new WAX(rootMetadata, out, !config.isTrustMe());
+            created = true;
+        } finally {
+            if (!created) abandon(out, partition.path);
+        }
+    }
+
+    /**
+     * Closes and deletes the file of a document that couldn't be created.
+     */
+    private static void abandon(XMLWriter out, Path path) {
+        try {
+            out.close();
+        } catch (WAXIOException e) {
+            // The exception that stopped the document is thrown.
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // The exception that stopped the document is thrown.
+        }
+    }
+
+    /**
+     * Reopens the file of a suspended document to append to it.
+     */
+    private void resume(Partition partition) {
+        final XMLWriter out = newXMLWriter(partition.path, true);
+        out.setIndentionLevel(1);
+        out.childWritten();
+
+        // The root element, whose start tag is in the file already.
+        final ElementMetadata scope = new ElementMetadata(out,
+            !config.isTrustMe(), null, null,
+            partition.rootPrefix, partition.rootName, false);
+        for (Map.Entry<String, String> entry :
+            partition.namespaces.entrySet()) {
+            scope.declareNamespace(entry.getKey(), entry.getValue());
+        }
+        partition.records = new WAX(scope, out, !config.isTrustMe());
+    }
+
+    /**
+     * Suspends the least recently written open document.
+     * It is no longer open even if its file can't be closed,
+     * so that no closed writer is left among the open documents.
+     */
+    private void suspendEldest() {
+        final Iterator<Partition> eldest = open.values().iterator();
+        final Partition partition = eldest.next();
+        eldest.remove();
+
+        final XMLWriter out = partition.records.getXMLWriter();
+        partition.records = null;
+        out.close();
+        ++suspendCount;
+    }
+
+    private XMLWriter newXMLWriter(Path path, boolean append) {
+        try {
+            return new XMLWriter(new OutputStreamWriter(append ?
+                Files.newOutputStream(path, StandardOpenOption.APPEND) :
+                Files.newOutputStream(path), StandardCharsets.UTF_8),
+                config, BUFFER_SIZE);
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * @return the number of documents, open or suspended
+     */
+    public int getDocumentCount() {
+        return partitions.size();
+    }
+
+    /**
+     * @return the number of documents open now
+     */
+    public int getOpenCount() {
+        return open.size();
+    }
+
+    /**
+     * @return the number of times a document has been suspended
+     */
+    public long getSuspendCount() {
+        return suspendCount;
+    }
+
+    /**
+     * Ends the root element of every document, reopening those that are
+     * suspended, and closes them.  If any can't be finished, the rest are
+     * still finished and the first exception is thrown.
+     * @throws IllegalStateException if already closed
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void close() {
+        if (closed) throw new IllegalStateException("already closed");
+        closed = true;
+
+        RuntimeException failure = null;
+        for (Partition partition : partitions.values()) {
+            try {
+                finish(partition);
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        open.clear();
+        if (failure != null) throw failure;
+    }
+
+    private void finish(Partition partition) {
+        if (partition.finished) return;
+        partition.finished = true;
+
+        if (partition.records == null) resume(partition);
+        final XMLWriter out = partition.records.getXMLWriter();
+        partition.records = null;
+        try {
+            out.writeEndTag(partition.rootPrefix, partition.rootName,
+                false, false);
+            if (config.isFinalNewline()) out.writeln();
+        } finally {
+            out.close();
+        }
+    }
+}
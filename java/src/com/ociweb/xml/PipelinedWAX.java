@@ -0,0 +1,564 @@
+package com.ociweb.xml;
+
+import java.io.Closeable;
+import java.io.Writer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes XML on another thread, so the thread that makes the calls
+ * only records them.  Each call puts a small event in a ring buffer that
+ * is allocated once; a consumer task takes the events in order and
+ * makes the same calls on a WAX, which does the usage checks, escaping,
+ * indentation and output.  Recording an event allocates nothing and
+ * takes no locks; the calling thread only waits when the ring buffer
+ * is full, or in <code>flush</code> and <code>close</code>.
+ * The consumer task runs on an Executor, by default one whose threads
+ * are shared by all PipelinedWAXes, and gives its thread back when
+ * no events have been recorded for a while.
+ *
+ * <pre>
+ * PipelinedWAX wax = new PipelinedWAX(writer);
+ * wax.start("trades");
+ * wax.start("trade").attr("id", id).text(symbol).end();
+ * wax.close();
+ * </pre>
+ *
+ * <p>
+ * Since the checks are made on the consumer thread, a usage error is
+ * thrown by a later call than the one that caused it, and by every call
+ * after that.  Strings and values must not be changed after they are
+ * passed in.  Like a WAX, a PipelinedWAX must only be used by one thread
+ * at a time.  <code>close</code> must always be called: until it is,
+ * the recorded calls aren't all written and the Writer stays open.
+ * </p>
+ *
+ * <p>
+ * Only the calls that most records are written with can be recorded:
+ * <code>start</code>, <code>attr</code> with an Object or long value,
+ * <code>text</code> with a String or long, <code>child</code>,
+ * <code>comment</code>, <code>namespace</code> and <code>end</code>.
+ * Each other kind of call would need its own kind of event and,
+ * for the other primitive types, its own array in every slot of the
+ * ring buffer.  Other primitive values can be passed as Objects, and
+ * documents that need <code>cdata</code> or <code>pi</code> can be
+ * written with a WAX.
+ * </p>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class PipelinedWAX implements Closeable {
+
+    /**
+     * The number of events in the ring buffer unless another is given.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private static final byte START = 0;
+    private static final byte ATTR = 1;
+    private static final byte ATTR_LONG = 2;
+    private static final byte TEXT = 3;
+    private static final byte TEXT_LONG = 4;
+    private static final byte END = 5;
+    private static final byte CHILD = 6;
+    private static final byte COMMENT = 7;
+    private static final byte NAMESPACE = 8;
+    private static final byte FLUSH = 9;
+    private static final byte CLOSE = 10;
+
+    /**
+     * A waiting thread spins this many times, then yields this many
+     * times, then parks between checks, for longer each time up to
+     * a limit.  The producer waits for a short time at most, and the
+     * consumer waits longer when no events are being recorded.
+     */
+    private static final int SPINS = 100;
+    private static final long MIN_PARK_NANOS = 10000;
+    private static final long MAX_PRODUCER_PARK_NANOS = 50000;
+    private static final long MAX_CONSUMER_PARK_NANOS = 1000000;
+
+    /**
+     * The consumer task ends after parking this long without
+     * an event being recorded.
+     */
+    private static final long MAX_CONSUMER_IDLE_NANOS = 10000000;
+
+    /**
+     * Runs the consumer tasks unless another Executor is given, on daemon
+     * threads that are created as needed and end after a minute without
+     * work.
+     */
+    private static final Executor CONSUMERS =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "PipelinedWAX");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private final WAX wax;
+    private final int mask;
+    private final byte[] kinds;
+    private final String[] prefixes;
+    private final String[] names;
+    private final Object[] values;
+    private final long[] longs;
+
+    /**
+     * The sequence number of the last event recorded,
+     * and of the last one the consumer has finished with.
+     */
+    private final AtomicLong published = new AtomicLong(-1);
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    /**
+     * The value of <code>consumed</code> the last time the producer
+     * read it, so it is only read again when the buffer looks full.
+     */
+    private long cachedConsumed = -1;
+    private long next;
+    private boolean closed;
+
+    private final Executor executor;
+
+    /**
+     * Whether the consumer task is scheduled or running.
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Runnable consumer = new Runnable() {
+        public void run() {
+            consume();
+        }
+    };
+
+    private volatile RuntimeException error;
+
+    /**
+     * Creates a PipelinedWAX that uses the default configuration.
+     * The writer will be closed by the close method of this class.
+     * @param writer the Writer
+     */
+    public PipelinedWAX(Writer writer) {
+        this(writer, WAXConfig.DEFAULT, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a PipelinedWAX that uses a given configuration.
+     * The writer will be closed by the close method of this class.
+     * @param writer the Writer
+     * @param config the configuration
+     * @param capacity the number of events in the ring buffer,
+     *                 rounded up to a power of two
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null
+     *             or <code>capacity</code> is less than 2
+     */
+    public PipelinedWAX(Writer writer, WAXConfig config, int capacity) {
+        this(writer, config, capacity, CONSUMERS);
+    }
+
+    /**
+     * Creates a PipelinedWAX whose consumer task runs on a given Executor.
+     * The writer will be closed by the close method of this class.
+     * @param writer the Writer
+     * @param config the configuration
+     * @param capacity the number of events in the ring buffer,
+     *                 rounded up to a power of two
+     * @param executor the Executor that runs the consumer task
+     * @throws IllegalArgumentException
+     *             if <code>config</code> or <code>executor</code> is null
+     *             or <code>capacity</code> is less than 2
+     */
+    public PipelinedWAX(
+        Writer writer, WAXConfig config, int capacity, Executor executor) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException(
+                capacity + " is an invalid capacity");
+        }
+
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        kinds = new byte[size];
+        prefixes = new String[size];
+        names = new String[size];
+        values = new Object[size];
+        longs = new long[size];
+
+        wax = new WAX(config, writer);
+        this.executor = executor;
+    }
+
+    /**
+     * @see WAX#attr(String, Object)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX attr(String name, Object value) {
+        return attr(null, name, value);
+    }
+
+    /**
+     * @see WAX#attr(String, String, Object)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX attr(String prefix, String name, Object value) {
+        final int slot = claim(ATTR);
+        prefixes[slot] = prefix;
+        names[slot] = name;
+        values[slot] = value;
+        return publish();
+    }
+
+    /**
+     * @see WAX#attr(String, long)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX attr(String name, long value) {
+        return attr(null, name, value);
+    }
+
+    /**
+     * @see WAX#attr(String, String, long)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX attr(String prefix, String name, long value) {
+        final int slot = claim(ATTR_LONG);
+        prefixes[slot] = prefix;
+        names[slot] = name;
+        longs[slot] = value;
+        return publish();
+    }
+
+    /**
+     * @see WAX#child(String, String)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX child(String name, String text) {
+        return child(null, name, text);
+    }
+
+    /**
+     * @see WAX#child(String, String, String)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX child(String prefix, String name, String text) {
+        final int slot = claim(CHILD);
+        prefixes[slot] = prefix;
+        names[slot] = name;
+        values[slot] = text;
+        return publish();
+    }
+
+    /**
+     * @see WAX#comment(String)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX comment(String text) {
+        final int slot = claim(COMMENT);
+        values[slot] = text;
+        return publish();
+    }
+
+    /**
+     * @see WAX#end()
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX end() {
+        claim(END);
+        return publish();
+    }
+
+    /**
+     * @see WAX#namespace(String, String)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX namespace(String prefix, String uri) {
+        final int slot = claim(NAMESPACE);
+        prefixes[slot] = prefix;
+        values[slot] = uri;
+        return publish();
+    }
+
+    /**
+     * @see WAX#start(String)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX start(String name) {
+        return start(null, name);
+    }
+
+    /**
+     * @see WAX#start(String, String)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX start(String prefix, String name) {
+        final int slot = claim(START);
+        prefixes[slot] = prefix;
+        names[slot] = name;
+        return publish();
+    }
+
+    /**
+     * @see WAX#text(String)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX text(String text) {
+        final int slot = claim(TEXT);
+        values[slot] = text;
+        return publish();
+    }
+
+    /**
+     * @see WAX#text(long)
+     * @return the calling object to support chaining
+     */
+    public PipelinedWAX text(long value) {
+        final int slot = claim(TEXT_LONG);
+        longs[slot] = value;
+        return publish();
+    }
+
+    /**
+     * Waits for every call so far to be written, then flushes the Writer.
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void flush() {
+        claim(FLUSH);
+        publish();
+        await(consumed, next - 1, MAX_PRODUCER_PARK_NANOS, Long.MAX_VALUE);
+        checkError();
+    }
+
+    /**
+     * Waits for every call so far to be written, then terminates all
+     * unterminated elements and closes the Writer.
+     * @throws IllegalStateException if already closed
+     * @throws RejectedExecutionException
+     *             if the Executor rejects the consumer task
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void close() {
+        if (closed) throw new IllegalStateException("already closed");
+        closed = true;
+
+        // The close event is recorded even after an error, so that
+        // this waits until the consumer task is done with every event.
+        reserve(CLOSE);
+        publish();
+        await(consumed, next - 1, MAX_PRODUCER_PARK_NANOS, Long.MAX_VALUE);
+        checkError();
+    }
+
+    /**
+     * Claims the slot for the next event, waiting for the consumer
+     * if the ring buffer is full.
+     * @param kind the kind of event
+     * @return the index of the slot
+     */
+    private int claim(byte kind) {
+        if (closed) throw new IllegalStateException("already closed");
+        checkError();
+        return reserve(kind);
+    }
+
+    /**
+     * Claims the slot for the next event without checking for errors.
+     * @param kind the kind of event
+     * @return the index of the slot
+     */
+    private int reserve(byte kind) {
+        final long wrapPoint = next - kinds.length;
+        if (wrapPoint > cachedConsumed) {
+            cachedConsumed = await(
+                consumed, wrapPoint, MAX_PRODUCER_PARK_NANOS, Long.MAX_VALUE);
+        }
+
+        final int slot = (int) next & mask;
+        kinds[slot] = kind;
+        return slot;
+    }
+
+    /**
+     * Makes the event in the claimed slot visible to the consumer,
+     * and schedules the consumer task if it isn't running.
+     * @throws RejectedExecutionException
+     *             if the Executor rejects the consumer task
+     */
+    private PipelinedWAX publish() {
+        // A volatile write, so that either this thread sees that the
+        // consumer task has stopped or the task sees this event.
+        published.set(next++);
+        if (!running.get() && running.compareAndSet(false, true)) {
+            try {
+                executor.execute(consumer);
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                throw e;
+            }
+        }
+        return this;
+    }
+
+    private void checkError() {
+        final RuntimeException e = error;
+        if (e != null) throw e;
+    }
+
+    /**
+     * Waits for a sequence to reach a value, spinning briefly first.
+     * @param sequence the sequence
+     * @param value the value
+     * @param maxParkNanos the longest time to park between checks
+     * @param maxIdleNanos the longest time to park in all
+     * @return the value of the sequence, which is less than
+     *         <code>value</code> if it took too long
+     */
+    private static long await(AtomicLong sequence, long value,
+        long maxParkNanos, long maxIdleNanos) {
+        long current;
+        long parkNanos = MIN_PARK_NANOS;
+        long idleNanos = 0;
+        for (int i = 0; (current = sequence.get()) < value; ++i) {
+            if (i < SPINS) {
+                Thread.onSpinWait();
+            } else if (i < SPINS * 2) {
+                Thread.yield();
+            } else if (idleNanos >= maxIdleNanos) {
+                break;
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                idleNanos += parkNanos;
+                parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Makes the calls recorded in the ring buffer on the WAX, in order,
+     * until the close event or until no events are recorded for a while.
+     * After an error, events are only skipped.
+     */
+    private void consume() {
+        long sequence = consumed.get() + 1;
+        while (true) {
+            final long available = await(published, sequence,
+                MAX_CONSUMER_PARK_NANOS, MAX_CONSUMER_IDLE_NANOS);
+            if (available < sequence) {
+                // Give the thread back, unless an event was recorded
+                // before the producer could see that.
+                running.set(false);
+                if (published.get() < sequence
+                    || !running.compareAndSet(false, true)) return;
+                continue;
+            }
+
+            for (; sequence <= available; ++sequence) {
+                final int slot = (int) sequence & mask;
+                final byte kind = kinds[slot];
+                if (error == null) {
+                    try {
+                        apply(slot, kind);
+                    } catch (RuntimeException e) {
+                        error = e;
+                    }
+                }
+                prefixes[slot] = names[slot] = null;
+                values[slot] = null;
+
+                if (kind == CLOSE) {
+                    consumed.lazySet(sequence);
+                    return;
+                }
+            }
+            consumed.lazySet(available);
+        }
+    }
+
+    private void apply(int slot, byte kind) {
+        switch (kind) {
+            case START:
+                wax.start(prefixes[slot], names[slot]);
+                break;
+            case ATTR:
+                wax.attr(prefixes[slot], names[slot], values[slot]);
+                break;
+            case ATTR_LONG:
+                wax.attr(prefixes[slot], names[slot], longs[slot]);
+                break;
+            case TEXT:
+                wax.text((String) values[slot]);
+                break;
+            case TEXT_LONG:
+                wax.text(longs[slot]);
+                break;
+            case END:
+                wax.end();
+                break;
+            case CHILD:
+                wax.child(prefixes[slot], names[slot], (String) values[slot]);
+                break;
+            case COMMENT:
+                wax.comment((String) values[slot]);
+                break;
+            case NAMESPACE:
+                wax.namespace(prefixes[slot], (String) values[slot]);
+                break;
+            case FLUSH:
+                wax.flush();
+                break;
+            default:
+                wax.close();
+                break;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.ociweb.xml;
+
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A WAX that is returned to the <code>WAXPool</code> it came from
+ * when it is closed.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class PooledWAX extends WAX {
+
+    private final WAXPool pool;
+
+    /**
+     * Encodes the document when the sink is an OutputStream;
+     * created the first time one is, and kept after that.
+     */
+    private UTF8Writer utf8Writer;
+
+    /**
+     * @param pool the pool it is returned to
+     * @param config the configuration
+     * @param out the XMLWriter
+     * @param utf8Writer the Writer of <code>out</code> if it encodes
+     *                   into an OutputStream, otherwise null
+     */
+    /* package */ PooledWAX(WAXPool pool, WAXConfig config, XMLWriter out,
+        UTF8Writer utf8Writer) {
+        super(config, out, null);
+        this.pool = pool;
+        this.utf8Writer = utf8Writer;
+    }
+
+    /**
+     * @param os the OutputStream
+     * @return a Writer that encodes into it in UTF-8
+     */
+    /* package */ Writer encodeTo(OutputStream os) {
+        if (utf8Writer == null) utf8Writer = new UTF8Writer();
+        utf8Writer.setOutputStream(os);
+        return utf8Writer;
+    }
+
+    /**
+     * Closes this WAX and returns it to its pool.  It must not be used
+     * again, since it may already be writing someone else's document.
+     * If closing it fails, it isn't returned.
+     */
+    @Override
+    public void close() {
+        super.close();
+        pool.release(this);
+    }
+}
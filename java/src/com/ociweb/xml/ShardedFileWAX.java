@@ -0,0 +1,320 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A WAX that writes a file in UTF-8 whose top-level children can be
+ * written by several threads at once.  The prolog and the start of the
+ * root element are written with this WAX.  Then the children of the
+ * current element are written by shards, each a WAX that writes a
+ * temporary file of its own in the same directory.  When this WAX is
+ * closed, the temporary files are appended to the file in order with
+ * <code>FileChannel.transferTo</code>, so that the operating system
+ * copies them without passing them through the JVM, and the unended
+ * elements are ended.  The children of each shard stay in the order
+ * they were written, and the shards are in order of their indexes.
+ *
+ * <pre>
+ * ShardedFileWAX wax = new ShardedFileWAX(path, 8);
+ * wax.start("export").attr("month", month);
+ * wax.writeShards((shard, index) -&gt; {
+ *     for (Account account : accounts.partition(index, 8)) {
+ *         shard.start("account").attr("id", account.getId()).end();
+ *     }
+ * });
+ * wax.close();
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class ShardedFileWAX extends WAX {
+
+    /**
+     * The size of the buffer of each shard, in characters.
+     */
+    private static final int SHARD_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int shardCount;
+    private final List<Path> shardPaths = new ArrayList<Path>();
+    private final List<WAX> shards = new ArrayList<WAX>();
+
+    /**
+     * Creates a ShardedFileWAX that uses the default configuration.
+     * The file is created, or truncated if it exists.
+     * @param path the path of the file
+     * @param shardCount the number of shards
+     * @throws IllegalArgumentException if <code>shardCount</code> is less than 1
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public ShardedFileWAX(Path path, int shardCount) {
+        this(path, WAXConfig.DEFAULT, shardCount);
+    }
+
+    /**
+     * Creates a ShardedFileWAX that uses a given configuration.
+     * The file is created, or truncated if it exists.
+     * @param path the path of the file
+     * @param config the configuration
+     * @param shardCount the number of shards
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null
+     *             or <code>shardCount</code> is less than 1
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public ShardedFileWAX(Path path, WAXConfig config, int shardCount) {
+        this(path, config, open(path, config, shardCount), shardCount);
+    }
+
+    private ShardedFileWAX(
+        Path path, WAXConfig config, FileChannel channel, int shardCount) {
+        super(config, new OutputStreamWriter(
+            Channels.newOutputStream(channel), StandardCharsets.UTF_8), null);
+        this.path = path;
+        this.channel = channel;
+        this.shardCount = shardCount;
+    }
+
+    private static FileChannel open(
+        Path path, WAXConfig config, int shardCount) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException(
+                shardCount + " is an invalid number of shards");
+        }
+
+        try {
+            return FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Creates the shards, which write children of the current element.
+     * Each shard may be used by a different thread, but only by one at
+     * a time.  Once this is called, this WAX must not be used again
+     * until the shards are finished, and then only to be closed.
+     * A shard may also be left with unended elements,
+     * which are ended when this WAX is closed.
+     * @return the shards, in the order their output is assembled
+     * @throws IllegalStateException
+     *             if the shards have already been created,
+     *             or if there is no current element
+     * @throws WAXIOException if a temporary file cannot be created
+     */
+    public List<ElementWAX> openShards() {
+        if (!shards.isEmpty()) {
+            throw new IllegalStateException("shards already opened");
+        }
+        startExternalChild("openShards");
+
+        final Path dir = path.toAbsolutePath().getParent();
+        final String prefix = path.getFileName() + ".";
+        try {
+            for (int i = 0; i < shardCount; ++i) {
+                final Path shardPath =
+                    Files.createTempFile(dir, prefix, ".shard");
+                shardPaths.add(shardPath);
+                final XMLWriter shardOut = new XMLWriter(getXMLWriter(),
+                    new OutputStreamWriter(Files.newOutputStream(shardPath),
+                        StandardCharsets.UTF_8),
+                    new char[SHARD_BUFFER_SIZE]);
+                shards.add(new WAX(this, shardOut));
+            }
+        } catch (IOException ioException) {
+            closeShards();
+            deleteShards();
+            shards.clear();
+            shardPaths.clear();
+            throw new WAXIOException(ioException);
+        }
+
+        return Collections.<ElementWAX>unmodifiableList(shards);
+    }
+
+    /**
+     * Creates the shards and writes each on a thread of its own,
+     * waiting for all of them.
+     * @param shardWriter writes the children of a shard,
+     *                    given the shard and its index
+     * @throws IllegalStateException
+     *             if the shards have already been created,
+     *             or if there is no current element
+     * @throws WAXIOException if a temporary file cannot be written
+     */
+    public void writeShards(
+        final ObjIntConsumer<? super ElementWAX> shardWriter) {
+        final List<ElementWAX> opened = openShards();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+            shardCount);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < shardCount; ++i) {
+                final int index = i;
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        shardWriter.accept(opened.get(index), index);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new WAXIOException(new InterruptedIOException());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Ends the elements left unended by the shards, appends their
+     * temporary files to the file and deletes them, ends all unended
+     * elements, and closes the file.
+     * @throws IllegalStateException if already closed
+     * @throws WAXIOException if an I/O error occurs
+     */
+    @Override
+    public void close() {
+        if (getXMLWriter().isClosed()) {
+            throw new IllegalStateException("already closed");
+        }
+
+        try {
+            if (!shards.isEmpty()) {
+                for (WAX shard : shards) shard.endSibling();
+                closeShards();
+                getXMLWriter().flush();
+                for (Path shardPath : shardPaths) transfer(shardPath, channel);
+            }
+            super.close();
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ioException) {
+                // The file was closed by super.close unless it failed.
+            }
+            deleteShards();
+        }
+    }
+
+    /**
+     * Appends a file to a channel, at its position,
+     * with <code>FileChannel.transferTo</code>.
+     * @param from the path of the file
+     * @param to the channel
+     * @return the number of bytes appended
+     */
+    /* package */ static long transfer(Path from, FileChannel to)
+        throws IOException {
+        try (FileChannel fromChannel =
+            FileChannel.open(from, StandardOpenOption.READ)) {
+            final long size = fromChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += fromChannel.transferTo(
+                    position, size - position, to);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Closes the temporary files of the shards.
+     */
+    private void closeShards() {
+        for (WAX shard : shards) {
+            final XMLWriter shardOut = shard.getXMLWriter();
+            if (!shardOut.isClosed()) shardOut.close();
+        }
+    }
+
+    private void deleteShards() {
+        for (Path shardPath : shardPaths) {
+            try {
+                Files.deleteIfExists(shardPath);
+            } catch (IOException ioException) {
+                // It is left behind.
+            }
+        }
+    }
+}
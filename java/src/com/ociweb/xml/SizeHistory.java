@@ -0,0 +1,138 @@
+package com.ociweb.xml;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the sizes of the most recent documents written by the WAX objects
+ * of one <code>WAXFactory</code>, and estimates a percentile of them.
+ * New WAX objects size their buffers from the estimate so that a typical
+ * document fits without being passed to its Writer in pieces.
+ * Sizes can be recorded from any number of threads at once.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class SizeHistory {
+
+    /**
+     * The number of recent document sizes that are kept.
+     */
+    private static final int SAMPLES = 128;
+
+    /**
+     * The estimate is recomputed after this many documents,
+     * once the first few have been recorded.
+     */
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    /**
+     * Buffers are never made smaller or larger than these sizes.
+     */
+    /* package */ static final int MIN_BUFFER_SIZE = 1024;
+    /* package */ static final int MAX_BUFFER_SIZE = 1 << 20;
+
+    private final double percentile;
+    private final AtomicLongArray sizes = new AtomicLongArray(SAMPLES);
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The current estimate, or 0 before any sizes are recorded.
+     */
+    private volatile long estimate;
+
+    /**
+     * @param percentile the percentile of document sizes to estimate,
+     *                   from 0 to 100
+     * @throws IllegalArgumentException
+     *             if <code>percentile</code> isn't between 0 and 100
+     */
+    /* package */ SizeHistory(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException(
+                percentile + " is an invalid percentile");
+        }
+
+        this.percentile = percentile;
+    }
+
+    /**
+     * @return the buffer size for a new document, in characters
+     */
+    /* package */ int getBufferSize() {
+        final long size = estimate;
+        if (size == 0) return XMLWriter.DEFAULT_BUFFER_SIZE;
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(size, MAX_BUFFER_SIZE));
+    }
+
+    /**
+     * @return the estimated document size, in characters,
+     *         or 0 if no sizes have been recorded
+     */
+    /* package */ long getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * Records the size of a finished document.
+     * @param size the number of characters in the document
+     */
+    /* package */ void record(long size) {
+        final long n = count.getAndIncrement();
+        sizes.set((int) (n % SAMPLES), size);
+        if (n < RECOMPUTE_INTERVAL || n % RECOMPUTE_INTERVAL == 0) {
+            recompute((int) Math.min(n + 1, SAMPLES));
+        }
+    }
+
+    /**
+     * Computes the percentile of the recorded sizes.  Threads that record
+     * sizes at the same time may see a mix of old and new samples, which
+     * is fine for an estimate.
+     */
+    private void recompute(int available) {
+        final long[] sorted = new long[available];
+        for (int i = 0; i < available; ++i) sorted[i] = sizes.get(i);
+        Arrays.sort(sorted);
+
+        final int index = (int) Math.ceil(percentile / 100 * available) - 1;
+        estimate = sorted[Math.max(0, index)];
+    }
+}
@@ -1,5 +1,13 @@
 package com.ociweb.xml;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+
 /**
  * This interface defines the methods that can be called
  * after the beginning of a start tag has been output, but it
@@ -51,11 +59,123 @@ public interface StartTagWAX extends ElementWAX {
      */
     StartTagWAX attr(String name, Object value);
 
+    /**
+     * @see WAX#attr(String, long)
+     */
+    StartTagWAX attr(String name, long value);
+
     /**
      * @see WAX#attr(String, String, Object)
      */
     StartTagWAX attr(String prefix, String name, Object value);
 
+    /**
+     * @see WAX#attr(String, String, long)
+     */
+    StartTagWAX attr(String prefix, String name, long value);
+
+    /**
+     * @see WAX#attr(String, char)
+     */
+    StartTagWAX attr(String name, char value);
+
+    /**
+     * @see WAX#attr(String, String, char)
+     */
+    StartTagWAX attr(String prefix, String name, char value);
+
+    /**
+     * @see WAX#attr(String, double)
+     */
+    StartTagWAX attr(String name, double value);
+
+    /**
+     * @see WAX#attr(String, String, double)
+     */
+    StartTagWAX attr(String prefix, String name, double value);
+
+    /**
+     * @see WAX#attr(String, float)
+     */
+    StartTagWAX attr(String name, float value);
+
+    /**
+     * @see WAX#attr(String, String, float)
+     */
+    StartTagWAX attr(String prefix, String name, float value);
+
+    /**
+     * @see WAX#decimalAttr(String, BigDecimal)
+     */
+    StartTagWAX decimalAttr(String name, BigDecimal value);
+
+    /**
+     * @see WAX#decimalAttr(String, String, BigDecimal)
+     */
+    StartTagWAX decimalAttr(String prefix, String name, BigDecimal value);
+
+    /**
+     * @see WAX#integerAttr(String, BigInteger)
+     */
+    StartTagWAX integerAttr(String name, BigInteger value);
+
+    /**
+     * @see WAX#integerAttr(String, String, BigInteger)
+     */
+    StartTagWAX integerAttr(String prefix, String name, BigInteger value);
+
+    /**
+     * @see WAX#dateAttr(String, LocalDate)
+     */
+    StartTagWAX dateAttr(String name, LocalDate value);
+
+    /**
+     * @see WAX#dateAttr(String, String, LocalDate)
+     */
+    StartTagWAX dateAttr(String prefix, String name, LocalDate value);
+
+    /**
+     * @see WAX#instantAttr(String, Instant)
+     */
+    StartTagWAX instantAttr(String name, Instant value);
+
+    /**
+     * @see WAX#instantAttr(String, String, Instant)
+     */
+    StartTagWAX instantAttr(String prefix, String name, Instant value);
+
+    /**
+     * @see WAX#dateTimeAttr(String, LocalDateTime)
+     */
+    StartTagWAX dateTimeAttr(String name, LocalDateTime value);
+
+    /**
+     * @see WAX#dateTimeAttr(String, String, LocalDateTime)
+     */
+    StartTagWAX dateTimeAttr(
+        String prefix, String name, LocalDateTime value);
+
+    /**
+     * @see WAX#dateTimeAttr(String, OffsetDateTime)
+     */
+    StartTagWAX dateTimeAttr(String name, OffsetDateTime value);
+
+    /**
+     * @see WAX#dateTimeAttr(String, String, OffsetDateTime)
+     */
+    StartTagWAX dateTimeAttr(
+        String prefix, String name, OffsetDateTime value);
+
+    /**
+     * @see WAX#durationAttr(String, Duration)
+     */
+    StartTagWAX durationAttr(String name, Duration value);
+
+    /**
+     * @see WAX#durationAttr(String, String, Duration)
+     */
+    StartTagWAX durationAttr(String prefix, String name, Duration value);
+
     /**
      * @see WAX#attr(String, String, Object, boolean)
      */
@@ -0,0 +1,153 @@
+package com.ociweb.xml;
+
+/**
+ * This class encodes characters in UTF-8 directly from and to arrays,
+ * without the intermediate buffers of a CharsetEncoder.
+ * Like <code>String.getBytes</code>, it encodes a surrogate character
+ * that isn't part of a pair as a question mark.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class UTF8 {
+
+    /**
+     * The most bytes that one character is encoded as.
+     * A surrogate pair is encoded as four bytes, two per character.
+     */
+    public static final int MAX_BYTES_PER_CHAR = 3;
+
+    /**
+     * Creating instances of this class is not allowed
+     * since all methods are static.
+     */
+    private UTF8() {
+    }
+
+    /**
+     * Encodes characters.  The byte array must have room for
+     * <code>length(chars, offset, length)</code> more bytes,
+     * or for <code>MAX_BYTES_PER_CHAR</code> bytes per character.
+     *
+     * @param chars the characters
+     * @param offset the index of the first character to encode
+     * @param length the number of characters to encode
+     * @param bytes the array the bytes are put in
+     * @param byteOffset the index where the first byte is put
+     * @return the number of bytes put in the array
+     */
+    public static int encode(char[] chars, int offset, int length,
+        byte[] bytes, int byteOffset) {
+        final int end = offset + length;
+        int b = byteOffset;
+        for (int i = offset; i < end; ++i) {
+            final char c = chars[i];
+            if (c < 0x80) {
+                bytes[b++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[b++] = (byte) (0xc0 | c >> 6);
+                bytes[b++] = (byte) (0x80 | c & 0x3f);
+            } else if (!Character.isSurrogate(c)) {
+                bytes[b++] = (byte) (0xe0 | c >> 12);
+                bytes[b++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[b++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                && Character.isLowSurrogate(chars[i + 1])) {
+                final int cp = Character.toCodePoint(c, chars[++i]);
+                bytes[b++] = (byte) (0xf0 | cp >> 18);
+                bytes[b++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                bytes[b++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                bytes[b++] = (byte) (0x80 | cp & 0x3f);
+            } else {
+                bytes[b++] = '?';
+            }
+        }
+        return b - byteOffset;
+    }
+
+    /**
+     * Gets the number of bytes that characters are encoded as.
+     *
+     * @param chars the characters
+     * @param offset the index of the first character
+     * @param length the number of characters
+     * @return the number of bytes
+     */
+    public static int length(char[] chars, int offset, int length) {
+        final int end = offset + length;
+        int bytes = length;
+        for (int i = offset; i < end; ++i) {
+            final char c = chars[i];
+            if (c < 0x80) continue;
+
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                && Character.isLowSurrogate(chars[i + 1])) {
+                // Four bytes for the two characters.
+                bytes += 2;
+                ++i;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the number of characters, at most <code>length</code>,
+     * that can be encoded without splitting a surrogate pair.
+     *
+     * @param chars the characters
+     * @param offset the index of the first character
+     * @param length the number of characters available
+     * @param end the index just past the last character that exists
+     * @return <code>length</code>, or one less if the last character
+     *         is the first half of a pair that continues after it
+     */
+    public static int wholeChars(char[] chars, int offset, int length, int end) {
+        final int last = offset + length - 1;
+        if (length > 1 && last + 1 < end
+            && Character.isHighSurrogate(chars[last])
+            && Character.isLowSurrogate(chars[last + 1])) {
+            return length - 1;
+        }
+        return length;
+    }
+}
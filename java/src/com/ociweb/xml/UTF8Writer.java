@@ -0,0 +1,152 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A Writer that encodes characters in UTF-8 into an OutputStream,
+ * like an <code>OutputStreamWriter</code>, but that can be given another
+ * OutputStream and used again once it is closed.  Its buffer is only
+ * allocated once.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class UTF8Writer extends Writer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+
+    /**
+     * The OutputStream, or null when closed.
+     */
+    private OutputStream os;
+
+    /**
+     * The first half of a surrogate pair that ended the last write,
+     * or 0 if it didn't end with one.
+     */
+    private char highSurrogate;
+
+    /**
+     * The number of bytes written to OutputStreams so far.
+     */
+    private long byteCount;
+
+    /**
+     * Sets the OutputStream that the next characters are written to.
+     * @param os the OutputStream
+     */
+    public void setOutputStream(OutputStream os) {
+        this.os = os;
+        highSurrogate = 0;
+    }
+
+    /**
+     * @return the number of bytes written so far, not counting the first
+     *         half of a surrogate pair that ended the last write
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(new char[] { (char) c }, 0, 1);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length)
+        throws IOException {
+        if (os == null) throw new IOException("closed");
+        if (length == 0) return;
+
+        final int end = offset + length;
+        if (highSurrogate != 0) {
+            final char[] pair = { highSurrogate, chars[offset] };
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(pair[1])) {
+                final int encoded = UTF8.encode(pair, 0, 2, bytes, 0);
+                os.write(bytes, 0, encoded);
+                byteCount += encoded;
+                ++offset;
+            } else {
+                os.write('?');
+                ++byteCount;
+            }
+        }
+
+        // A pair may continue in the next write.
+        int last = end;
+        if (offset < end && Character.isHighSurrogate(chars[end - 1])) {
+            highSurrogate = chars[--last];
+        }
+
+        while (offset < last) {
+            final int count = UTF8.wholeChars(chars, offset, Math.min(
+                last - offset, BUFFER_SIZE / UTF8.MAX_BYTES_PER_CHAR), last);
+            final int encoded = UTF8.encode(chars, offset, count, bytes, 0);
+            os.write(bytes, 0, encoded);
+            byteCount += encoded;
+            offset += count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (os != null) os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (os == null) return;
+
+        try {
+            if (highSurrogate != 0) {
+                os.write('?');
+                ++byteCount;
+            }
+            os.close();
+        } finally {
+            os = null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.ociweb.xml;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A verification mode that sits between full checking and "trust me" mode.
+ * Only a sample of documents or calls are checked, and violations are
+ * reported to a <code>ViolationListener</code> instead of being thrown.
+ * A single instance can be shared by any number of WAX objects
+ * on any number of threads.
+ * See <code>WAX.setVerificationSampler</code>.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public final class VerificationSampler {
+
+    /**
+     * Check one out of this many documents; 1 when sampling calls.
+     */
+    private final long documentInterval;
+
+    /**
+     * The fraction of calls to check; 1.0 when sampling documents.
+     */
+    private final double callFraction;
+
+    private final ViolationListener listener;
+
+    private final AtomicLong documentCount = new AtomicLong();
+
+    private VerificationSampler(
+        long documentInterval, double callFraction,
+        ViolationListener listener) {
+
+        if (listener == null) {
+            throw new IllegalArgumentException(
+                "a ViolationListener must be supplied");
+        }
+
+        this.documentInterval = documentInterval;
+        this.callFraction = callFraction;
+        this.listener = listener;
+    }
+
+    /**
+     * Creates a sampler that fully checks one out of every n documents
+     * and doesn't check the others at all.
+     * @param n the sampling interval; 1 checks every document
+     * @param listener the listener that is told about violations
+     * @return the sampler
+     * @throws IllegalArgumentException if <code>n</code> is less than one
+     */
+    public static VerificationSampler everyNthDocument(
+        int n, ViolationListener listener) {
+
+        if (n < 1) {
+            throw new IllegalArgumentException(
+                n + " is an invalid document sampling interval");
+        }
+
+        return new VerificationSampler(n, 1.0, listener);
+    }
+
+    /**
+     * Creates a sampler that checks a random percentage of the calls
+     * made on every document.
+     * @param percent the percentage of calls to check, from 0 to 100
+     * @param listener the listener that is told about violations
+     * @return the sampler
+     * @throws IllegalArgumentException
+     *             if <code>percent</code> isn't between 0 and 100
+     */
+    public static VerificationSampler percentOfCalls(
+        double percent, ViolationListener listener) {
+
+        if (!(percent >= 0 && percent <= 100)) {
+            throw new IllegalArgumentException(
+                percent + " is an invalid call sampling percentage");
+        }
+
+        return new VerificationSampler(1, percent / 100, listener);
+    }
+
+    /**
+     * Determines whether the next usage check should be made.
+     * @param verifyUsage false in "trust me" mode or for a document
+     *                    that wasn't chosen to be checked
+     * @param sampler the sampler, or null if every check is made
+     * @return true to check; false to skip it
+     */
+    /* package */ static boolean verifying(
+        boolean verifyUsage, VerificationSampler sampler) {
+        return verifyUsage && (sampler == null || sampler.sampleCall());
+    }
+
+    /**
+     * Throws a violation, or passes it to the listener of a sampler.
+     * @param sampler the sampler, or null if violations are thrown
+     * @param violation the violation
+     */
+    /* package */ static void report(
+        VerificationSampler sampler, IllegalArgumentException violation) {
+        if (sampler == null) throw violation;
+        sampler.listener.violation(violation);
+    }
+
+    /**
+     * Decides whether a single call should be checked.
+     * @return true to check it; false to skip it
+     */
+    /* package */ boolean sampleCall() {
+        return callFraction >= 1.0
+            || ThreadLocalRandom.current().nextDouble() < callFraction;
+    }
+
+    /**
+     * Decides whether a new document should be checked.
+     * @return true to check it; false to skip all of its checks
+     */
+    /* package */ boolean sampleDocument() {
+        return documentCount.getAndIncrement() % documentInterval == 0;
+    }
+}
@@ -1,7 +1,16 @@
 package com.ociweb.xml;
 
 import java.io.*;
-import java.util.regex.Pattern;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * <p>
@@ -10,6 +19,18 @@ import java.util.regex.Pattern;
  * </p>
  * <p>A WAX object should not be used from multiple threads!</p>
  *
+ * <p>
+ *   A WAX created by one of its constructors passes its output to the
+ *   Writer as it is written.  One created by a <code>WAXFactory</code>
+ *   collects it in a buffer and passes it to the Writer in large blocks,
+ *   so it only appears there after {@link #flush()} or {@link #close()}
+ *   is called, or once the buffer fills.
+ *   In "trust me" mode, once a document has reached its deepest nesting,
+ *   the start, attr, text and end methods don't allocate any objects
+ *   as long as the names and values passed to them are Strings or
+ *   <code>long</code> values.
+ * </p>
+ *
  * <p>For more information, see <a href="http://www.ociweb.com/wax/"
  *   target="_blank">http://www.ociweb.com/wax/</a>.</p>
  * <p>
@@ -92,13 +113,52 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
      */
     private boolean xsltSpecified;
 
+    /**
+     * Whether usage is verified, which it is unless "trust me" mode is
+     * enabled or a verification sampler didn't choose this document.
+     */
     private boolean verifyUsage = true;
 
+    private boolean trustMe;
+
+    /**
+     * Whether the verification sampler, if any, chose this document
+     * to be checked.
+     */
+    private boolean documentSampled = true;
+
+    /**
+     * When not <code>null</code>, only a sample of the usage checks are made
+     * and the violations they find are reported to it instead of thrown.
+     */
+    private VerificationSampler sampler;
+
     /**
      * Indicates whether to add a final newline to the output when closing.
      */
     private boolean addFinalNewline;
 
+    /**
+     * When this was created by a <code>WAXFactory</code>, the history
+     * that the size of the document is recorded in when it is closed.
+     */
+    private SizeHistory sizeHistory;
+
+    /**
+     * When this WAX writes a run of sibling elements for another WAX,
+     * the element they are children of, whose namespace prefixes are in
+     * scope for them; otherwise null.  Each sibling is written like
+     * a root element.
+     */
+    private final ElementMetadata scope;
+
+    /**
+     * The metadata of the root element, which is reused for each sibling
+     * when <code>scope</code> isn't null, and for the root element of
+     * the next document when a pooled WAX is recycled.
+     */
+    private ElementMetadata rootMetadata;
+
     /**
      * Creates a WAX that writes to stdout.
      */
@@ -140,9 +200,162 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
     public WAX(Writer writer) { this(writer, Version.UNSPECIFIED); }
     public WAX(Writer writer, Version version) {
         out = new XMLWriter(writer, verifyUsage);
+        scope = null;
         writeXMLDeclaration(version);
     }
 
+    /**
+     * Creates a WAX that writes to a given Writer using the settings
+     * in a shared configuration.  Nothing in the configuration is
+     * verified or computed again.
+     * The writer will be closed by the close method of this class.
+     * It is used by <code>WAXFactory</code>; the parameters are in
+     * this order so that <code>new WAX(writer, null)</code> still
+     * refers to the Version constructor.
+     * @see WAXFactory
+     * @param config the configuration
+     * @param writer the Writer
+     */
+    /* package */ WAX(WAXConfig config, Writer writer) {
+        this(config, writer, null);
+    }
+
+    /**
+     * Creates a WAX for a <code>WAXFactory</code>, with a buffer sized
+     * from the documents that its other WAX objects have written.
+     * @param config the configuration
+     * @param writer the Writer
+     * @param sizeHistory the document sizes, or null
+     */
+    /* package */ WAX(
+        WAXConfig config, Writer writer, SizeHistory sizeHistory) {
+        this(config, sizeHistory == null ? new XMLWriter(writer, config) :
+            new XMLWriter(writer, config, sizeHistory.getBufferSize()),
+            sizeHistory);
+    }
+
+    /**
+     * Creates a WAX that writes with a given XMLWriter,
+     * for subclasses that keep their output somewhere other than a Writer.
+     * @param config the configuration
+     * @param out the XMLWriter, which was created with the configuration
+     * @param sizeHistory the document sizes, or null
+     */
+    /* package */ WAX(
+        WAXConfig config, XMLWriter out, SizeHistory sizeHistory) {
+        this.out = out;
+        this.sizeHistory = sizeHistory;
+        this.scope = null;
+        configure(config);
+    }
+
+    /**
+     * Takes the settings kept by this class from a configuration
+     * and writes its XML declaration, if any.
+     * @param config the configuration
+     */
+    private void configure(WAXConfig config) {
+        trustMe = config.isTrustMe();
+        verifyUsage = !trustMe && documentSampled;
+        addFinalNewline = config.isFinalNewline();
+
+        String xmlDeclaration = config.getXMLDeclaration();
+        if (xmlDeclaration != null) out.write(xmlDeclaration);
+    }
+
+    /**
+     * Makes this WAX, which has been closed, ready to write another
+     * document to a different Writer, keeping its buffer and the element
+     * metadata it has allocated.  Everything set on it is forgotten.
+     * @param writer the Writer
+     * @param config the configuration that this WAX was created with
+     */
+    /* package */ void recycle(Writer writer, WAXConfig config) {
+        out.recycle(writer, config);
+        currentElementMetadata = null;
+        docType = null;
+        state = State.IN_PROLOG;
+        xsltSpecified = false;
+        if (sampler != null) {
+            sampler = null;
+            rootMetadata = null;
+        }
+        documentSampled = true;
+        configure(config);
+    }
+
+    /**
+     * @return the number of levels of elements, below the root,
+     *         whose metadata is kept for reuse
+     */
+    /* package */ int getReusedDepth() {
+        return rootMetadata == null ? 0 : rootMetadata.getReusedDepth();
+    }
+
+    /**
+     * @return the most entries that the collections of the element
+     *         metadata kept for reuse have held
+     */
+    /* package */ int getRetainedEntries() {
+        return rootMetadata == null ? 0 : rootMetadata.getRetainedEntries();
+    }
+
+    /**
+     * Creates a WAX that writes a run of sibling elements, each as if it
+     * were the root, into a fragment of the document of another WAX.
+     * The elements are children of the current element of the other WAX,
+     * which must not change while this WAX is used.
+     * @param parent the WAX whose document the fragment is part of
+     * @param out the XMLWriter that keeps the fragment
+     */
+    /* package */ WAX(WAX parent, XMLWriter out) {
+        this(parent.currentElementMetadata, out, parent);
+    }
+
+    /**
+     * Creates a WAX that writes a child of the current element of this WAX
+     * into a fragment later, possibly on another thread after the element
+     * has ended.  It uses a copy of the namespace prefixes in scope now.
+     * @param out the XMLWriter that keeps the fragment
+     * @return the WAX
+     */
+    /* package */ WAX newDetachedChild(XMLWriter out) {
+        return new WAX(currentElementMetadata.copyScope(out), out, this);
+    }
+
+    /**
+     * Creates a WAX that writes siblings in a scope and checks usage
+     * the way another WAX does: with its "trust me" mode, its
+     * verification sampler and its choice of whether to check the document.
+     * @param scope the metadata of the element the siblings are children of
+     * @param out the XMLWriter that the siblings are written with
+     * @param parent the WAX whose checking this WAX shares
+     */
+    private WAX(ElementMetadata scope, XMLWriter out, WAX parent) {
+        this.out = out;
+        this.scope = scope;
+        this.trustMe = parent.trustMe;
+        this.sampler = parent.sampler;
+        this.documentSampled = parent.documentSampled;
+        this.verifyUsage = parent.verifyUsage;
+    }
+
+    /**
+     * Creates a WAX that writes a run of sibling elements, each as if it
+     * were the root, as children of an element whose start tag is written
+     * elsewhere, possibly by another process.
+     * @param scope the metadata of that element
+     * @param out the XMLWriter that the siblings are written with
+     * @param verifyUsage true to verify usage; false for "trust me" mode
+     */
+    /* package */ WAX(ElementMetadata scope, XMLWriter out,
+        boolean verifyUsage) {
+        this.out = out;
+        this.scope = scope;
+        this.verifyUsage = verifyUsage;
+        this.trustMe = !verifyUsage;
+    }
+
     /**
      * Indicate that WAX should add a final newline when closing this WAX.
      * @return this WAX object.
@@ -165,6 +378,340 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         return attr(null, name, value);
     }
 
+    /**
+     * Writes an attribute with a <code>long</code> value
+     * for the currently open element start tag,
+     * without creating a String for the value.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX attr(String name, long value) {
+        return attr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with a <code>long</code> value
+     * for the currently open element start tag,
+     * without creating a String for the value.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX attr(String prefix, String name, long value) {
+        startAttr(prefix, name);
+        out.writeLong(value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is a single character
+     * for the currently open element start tag.
+     * Without this overload a <code>char</code> would be widened
+     * to a <code>long</code> and written as a number.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX attr(String name, char value) {
+        return attr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute whose value is a single character
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX attr(String prefix, String name, char value) {
+        return attr(prefix, name, (Object) Character.valueOf(value));
+    }
+
+    /**
+     * Writes an attribute with an xsd:double value
+     * for the currently open element start tag.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX attr(String name, double value) {
+        return attr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:double value
+     * for the currently open element start tag, using the fewest
+     * digits that read back as exactly the same value.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX attr(String prefix, String name, double value) {
+        startAttr(prefix, name);
+        XSDFormat.writeDouble(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:float value
+     * for the currently open element start tag.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX attr(String name, float value) {
+        return attr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:float value
+     * for the currently open element start tag, using the fewest
+     * digits that read back as exactly the same value.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX attr(String prefix, String name, float value) {
+        startAttr(prefix, name);
+        XSDFormat.writeFloat(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:decimal value
+     * for the currently open element start tag, never in exponent form.
+     * It has its own name, rather than being an attr overload,
+     * so that attr calls with a null value aren't ambiguous.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX decimalAttr(String name, BigDecimal value) {
+        return decimalAttr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:decimal value
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX decimalAttr(
+        String prefix, String name, BigDecimal value) {
+        startAttr(prefix, name);
+        XSDFormat.writeDecimal(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:integer value
+     * for the currently open element start tag.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX integerAttr(String name, BigInteger value) {
+        return integerAttr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:integer value
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX integerAttr(
+        String prefix, String name, BigInteger value) {
+        startAttr(prefix, name);
+        XSDFormat.writeInteger(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:date value
+     * for the currently open element start tag,
+     * directly into the output buffer.
+     * It has its own name, rather than being an attr overload,
+     * so that attr calls with a null value aren't ambiguous.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX dateAttr(String name, LocalDate value) {
+        return dateAttr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:date value
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX dateAttr(
+        String prefix, String name, LocalDate value) {
+        startAttr(prefix, name);
+        XSDFormat.writeDate(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:dateTime value in UTC
+     * for the currently open element start tag,
+     * directly into the output buffer.
+     * It has its own name, rather than being an attr overload,
+     * so that attr calls with a null value aren't ambiguous.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX instantAttr(String name, Instant value) {
+        return instantAttr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:dateTime value in UTC
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX instantAttr(
+        String prefix, String name, Instant value) {
+        startAttr(prefix, name);
+        XSDFormat.writeDateTime(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:dateTime value without a time zone
+     * for the currently open element start tag,
+     * directly into the output buffer.
+     * It has its own name, rather than being an attr overload,
+     * so that attr calls with a null value aren't ambiguous,
+     * but a null value must be cast to LocalDateTime or OffsetDateTime.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX dateTimeAttr(String name, LocalDateTime value) {
+        return dateTimeAttr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:dateTime value without a time zone
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX dateTimeAttr(
+        String prefix, String name, LocalDateTime value) {
+        startAttr(prefix, name);
+        XSDFormat.writeDateTime(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:dateTime value with its offset
+     * for the currently open element start tag,
+     * directly into the output buffer.
+     * It has its own name, rather than being an attr overload,
+     * so that attr calls with a null value aren't ambiguous,
+     * but a null value must be cast to LocalDateTime or OffsetDateTime.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX dateTimeAttr(String name, OffsetDateTime value) {
+        return dateTimeAttr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:dateTime value with its offset
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX dateTimeAttr(
+        String prefix, String name, OffsetDateTime value) {
+        startAttr(prefix, name);
+        XSDFormat.writeDateTime(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an xsd:duration value
+     * for the currently open element start tag.
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     */
+    public StartTagWAX durationAttr(String name, Duration value) {
+        return durationAttr(null, name, value);
+    }
+
+    /**
+     * Writes an attribute with an xsd:duration value
+     * for the currently open element start tag.
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param value the attribute value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    public StartTagWAX durationAttr(
+        String prefix, String name, Duration value) {
+        startAttr(prefix, name);
+        XSDFormat.writeDuration(out, value);
+        out.writeAttributeEnd();
+        return this;
+    }
+
     /**
      * Writes an attribute for the currently open element start tag.
      * @param prefix the namespace prefix for the attribute
@@ -197,10 +744,9 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         String prefix, String name, Object value,
         boolean newLine, boolean escape) {
 
-        if (state != State.IN_START_TAG) badState("attr");
-
-        currentElementMetadata.writeAttributeEqualsValue(prefix, name, value,
-                newLine, escape);
+        startAttr(prefix, name, newLine);
+        out.writeAttributeValue(value, escape);
+        out.writeAttributeEnd();
     }
 
     /**
@@ -249,11 +795,8 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
             badState("cdata");
         }
 
-        final String start = "<![CDATA[";
-        final String end = "]]>";
-        final String middle = text.replaceAll(
-            Pattern.quote(end), "]]" + end + start + ">");
-        text(start + middle + end, newLine, false);
+        closeStartTag();
+        out.writeCData(text, newLine);
         return this;
     }
 
@@ -294,6 +837,89 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         return start(prefix, name).text(text).end();
     }
 
+    /**
+     * Writes a child element of the current element for each item
+     * in a Stream, in encounter order.
+     * @see #children(String, String, Stream, BiConsumer)
+     * @param name the child element name
+     * @param items the items
+     * @param childWriter writes the attributes and content of the child
+     *                    element for an item
+     * @param <T> the type of the items
+     * @return the calling object to support chaining
+     */
+    public <T> ElementWAX children(String name, Stream<T> items,
+        BiConsumer<? super StartTagWAX, ? super T> childWriter) {
+        return children(null, name, items, childWriter);
+    }
+
+    /**
+     * Writes a child element of the current element for each item
+     * in a Stream, in encounter order.  For each item, the start tag
+     * of the child is written, then the child writer is called to write
+     * its attributes and content, then any elements it left unended
+     * are ended.
+     * When the Stream is parallel, the children are written by the tasks
+     * of a fork/join pool into buffers of their own, a batch of items
+     * per task, and the buffers are passed to the Writer in order.
+     * Only a limited number of batches are taken from the Stream at a
+     * time, so memory stays bounded however many items there are.
+     * The child writer must then be safe to call from several threads
+     * at once, and the children can only use namespace prefixes
+     * declared in them or in the elements they are in.
+     *
+     * @param prefix the namespace prefix of the child elements
+     * @param name the child element name
+     * @param items the items
+     * @param childWriter writes the attributes and content of the child
+     *                    element for an item
+     * @param <T> the type of the items
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing
+     *             the root element, or if the child writer ends
+     *             the current element
+     */
+    public <T> ElementWAX children(String prefix, final String name,
+        Stream<T> items,
+        final BiConsumer<? super StartTagWAX, ? super T> childWriter) {
+        if (state == State.IN_PROLOG || state == State.AFTER_ROOT) {
+            badState("children");
+        }
+
+        closeStartTag();
+        if (items.isParallel()) {
+            new ParallelChildren<T>(this, out, prefix, name, childWriter)
+                .write(items.spliterator());
+            return this;
+        }
+
+        final String childPrefix = prefix;
+        final ElementMetadata parent = currentElementMetadata;
+        items.forEachOrdered(new Consumer<T>() {
+            public void accept(T item) {
+                start(childPrefix, name);
+                childWriter.accept(WAX.this, item);
+                endChildrenOf(parent);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Ends elements until a given one is the current element again.
+     * @param parent the element
+     * @throws IllegalStateException if the element was already ended
+     */
+    private void endChildrenOf(ElementMetadata parent) {
+        for (ElementMetadata element = currentElementMetadata;
+            element != parent; element = element.getParent()) {
+            if (element == null) badState("children");
+        }
+
+        while (currentElementMetadata != parent) end();
+    }
+
     /**
      * Terminates all unterminated elements, closes the Writer that is being
      * used to output XML, and insures that nothing else can be written.
@@ -317,6 +943,7 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         if ( addFinalNewline ) { out.writeln(); }
 
         out.close();
+        if (sizeHistory != null) sizeHistory.record(out.getCharCount());
     }
 
     /**
@@ -324,9 +951,9 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
      * waiting for more namespace declarations and attributes.
      */
     private void closeStartTag() {
-        verifyOutstandingNamespacePrefixes();
         if (state != State.IN_START_TAG) return;
 
+        verifyOutstandingNamespacePrefixes();
         currentElementMetadata.closeStartTag();
         state = State.IN_ELEMENT;
     }
@@ -352,7 +979,13 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
      */
     public PrologOrElementWAX comment(String text, boolean newLine) {
         // Comments can be output in any state.
-        if (verifyUsage) XMLUtil.verifyComment(text);
+        if (VerificationSampler.verifying(verifyUsage, sampler)) {
+            try {
+                XMLUtil.verifyComment(text);
+            } catch (IllegalArgumentException e) {
+                VerificationSampler.report(sampler, e);
+            }
+        }
 
         closeStartTag();
         out.writeComment(text, newLine);
@@ -456,7 +1089,13 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
                     "DTD 'system identifier' parameter must not be null.");
         }
 
-        if (verifyUsage) XMLUtil.verifyURI(systemId);
+        if (VerificationSampler.verifying(verifyUsage, sampler)) {
+            try {
+                XMLUtil.verifyURI(systemId);
+            } catch (IllegalArgumentException e) {
+                VerificationSampler.report(sampler, e);
+            }
+        }
 
         docType = new DocType(publicId, systemId);
         return this;
@@ -499,6 +1138,7 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         currentElementMetadata.writeEndTag(verbose);
 
         currentElementMetadata = currentElementMetadata.getParent();
+        if (currentElementMetadata == scope) currentElementMetadata = null;
         state = currentElementMetadata == null ?
             State.AFTER_ROOT : State.IN_ELEMENT;
         return this;
@@ -531,6 +1171,26 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         return entityDef(name + " SYSTEM", filePath);
     }
 
+    /**
+     * Passes all the XML written so far to the Writer and flushes it.
+     * A WAX created by a constructor passes its output to the Writer as
+     * it is written; one created by a WAXFactory collects it in a buffer
+     * until this is called, the buffer is full or the WAX is closed.
+     *
+     * @throws WAXIOException if an I/O error occurs.
+     */
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * @see #setEscapeCache(EscapeCache)
+     * @return the escape cache, or null if there isn't one
+     */
+    public EscapeCache getEscapeCache() {
+        return out.getEscapeCache();
+    }
+
     /**
      * Gets the indentation characters being used.
      * Note that there is a distinction between null and "".
@@ -568,13 +1228,22 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         return out.isSpaceInEmptyElements();
     }
 
+    /**
+     * Gets the verification sampler being used.
+     * @see #setVerificationSampler(VerificationSampler)
+     * @return the sampler, or null if every check is being made
+     */
+    public VerificationSampler getVerificationSampler() {
+        return sampler;
+    }
+
     /**
      * Gets whether "trust me" mode is enabled.
      * @see #setTrustMe
      * @return true if error checking is disabled; false if enabled
      */
     public boolean isTrustMe() {
-        return !verifyUsage;
+        return trustMe;
     }
 
     /**
@@ -687,8 +1356,13 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         // Provide special handling for the
         // "xml-stylesheet" processing instruction
         // since starting with "xml" is reserved.
-        if (verifyUsage && !("xml-stylesheet").equals(target)) {
-            XMLUtil.verifyName(target);
+        if (!("xml-stylesheet").equals(target)
+            && VerificationSampler.verifying(verifyUsage, sampler)) {
+            try {
+                XMLUtil.verifyName(target);
+            } catch (IllegalArgumentException e) {
+                VerificationSampler.report(sampler, e);
+            }
         }
 
         closeStartTag();
@@ -750,6 +1424,17 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         out.setLineSeparator(lineSeparator);
     }
 
+    /**
+     * Sets a cache of escaped values that short attribute values
+     * and text are escaped through.  The output is the same with or
+     * without it.  It helps documents that repeat a small set of values
+     * containing special characters many times.
+     * @param escapeCache the cache, or null to escape every value again
+     */
+    public void setEscapeCache(EscapeCache escapeCache) {
+        out.setEscapeCache(escapeCache);
+    }
+
     /**
      * Sets the part of the xsi namespace URI that specifies
      * the version of XML Schema being used.
@@ -782,16 +1467,151 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
      *    are to use valid URI syntax
      * 5) only sensible indent values (none, two spaces, four spaces or one tab)
      *    are allowed (can use other values if trustMe = true)
+     * 6) attributes are verified to not be defined twice in the same element
      * The main reason to enable "trust me" mode is for performance
      * which is typically good even when disabled.
      * @see #isTrustMe
      * @param trustMe true to disable error checking; false to enable it
      */
     public void setTrustMe(boolean trustMe) {
-        this.verifyUsage = !trustMe;
+        this.trustMe = trustMe;
+        this.verifyUsage = !trustMe && documentSampled;
         out.setTrustMe(trustMe);
         if (currentElementMetadata != null)
-            currentElementMetadata.setTrustMe(trustMe);
+            currentElementMetadata.setTrustMe(!verifyUsage);
+    }
+
+    /**
+     * Sets a verification sampler which makes only a sample of the
+     * checks described in {@link #setTrustMe(boolean)} and reports
+     * the violations it finds to a listener instead of throwing them.
+     * When the sampler checks one in N documents,
+     * this document is either fully checked or not checked at all.
+     * When it checks a percentage of calls, each check is made
+     * or skipped on its own.
+     * Calling {@link #setTrustMe(boolean)} with true still disables
+     * all checking.
+     *
+     * @param sampler the sampler, or null to make every check again
+     * @throws IllegalStateException
+     *             if the root element has already been started.
+     */
+    public void setVerificationSampler(VerificationSampler sampler) {
+        if (state != State.IN_PROLOG) badState("setVerificationSampler");
+
+        // The root metadata, if reused, would keep the old sampler.
+        if (sampler != this.sampler) rootMetadata = null;
+        this.sampler = sampler;
+        this.documentSampled = sampler == null || sampler.sampleDocument();
+        this.verifyUsage = !trustMe && documentSampled;
+    }
+
+    /**
+     * Writes the beginning of an attribute, up to the opening quote
+     * of its value, for attr methods that write the value themselves.
+     *
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    private void startAttr(String prefix, String name) {
+        startAttr(prefix, name, out.isAttrOnNewLine());
+    }
+
+    /**
+     * Writes the beginning of an attribute, up to the opening quote
+     * of its value.  Every attr method starts its attribute here.
+     *
+     * @param prefix the namespace prefix for the attribute
+     * @param name the attribute name
+     * @param newLine true to write on a new line; false otherwise
+     * @throws IllegalStateException
+     *             unless we have a start tag open, for writing XML attributes.
+     */
+    private void startAttr(String prefix, String name, boolean newLine) {
+        if (state != State.IN_START_TAG) badState("attr");
+
+        currentElementMetadata.writeAttributeStart(prefix, name, newLine);
+        attributeStarted(prefix, name);
+    }
+
+    /**
+     * Called after any attr method has written the beginning of an
+     * attribute, so that a subclass can find its value in the output,
+     * which follows.
+     *
+     * @param prefix the namespace prefix for the attribute, or null
+     * @param name the attribute name
+     */
+    /* package */ void attributeStarted(String prefix, String name) {
+    }
+
+    /**
+     * Prepares to write a value inside the content of the current element,
+     * for text methods that write the value themselves.
+     *
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    private void startText() {
+        if (state == State.IN_PROLOG || state == State.AFTER_ROOT) {
+            badState("text");
+        }
+
+        closeStartTag();
+    }
+
+    /**
+     * @return the XMLWriter that this WAX writes with
+     */
+    /* package */ XMLWriter getXMLWriter() {
+        return out;
+    }
+
+    /**
+     * @return the metadata of the current element,
+     *         or null if there is no current element
+     */
+    /* package */ ElementMetadata getCurrentElementMetadata() {
+        return currentElementMetadata;
+    }
+
+    /**
+     * @param prefix a namespace prefix
+     * @return the URI that the prefix is bound to in the current element,
+     *         or null if it isn't in scope or there is no current element
+     */
+    /* package */ String getNamespaceURI(String prefix) {
+        return currentElementMetadata == null ?
+            null : currentElementMetadata.getNamespaceUrl(prefix);
+    }
+
+    /**
+     * Ends the elements left unended by the writer of a sibling
+     * when this WAX writes a run of siblings for another WAX.
+     */
+    /* package */ void endSibling() {
+        while (currentElementMetadata != null) end();
+    }
+
+    /**
+     * Makes room for a child element of the current element that is
+     * written somewhere else and passed to the Writer later, and passes
+     * everything before it to the Writer.
+     * @param methodName the name of the public method, for errors
+     * @return the indention level of the child
+     */
+    /* package */ int startExternalChild(String methodName) {
+        if (state == State.IN_PROLOG || state == State.AFTER_ROOT) {
+            badState(methodName);
+        }
+
+        closeStartTag();
+        out.childWritten();
+        out.passBuffer();
+        return out.getIndentionLevel();
     }
 
     /**
@@ -821,14 +1641,23 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         closeStartTag();
         out.resetContentFlags();
 
-        if (state == State.AFTER_ROOT) badState("start");
+        if (state == State.AFTER_ROOT && scope == null) badState("start");
 
         final boolean isTheRootElement = (currentElementMetadata == null);
         if (isTheRootElement) writeDocType(name);
 
-        currentElementMetadata = new ElementMetadata(
-            out, verifyUsage, currentElementMetadata,
-            prefix, name, inCommentedStart);
+        if (!isTheRootElement) {
+            currentElementMetadata = currentElementMetadata.newChild(
+                verifyUsage, prefix, name, inCommentedStart);
+        } else if (rootMetadata == null) {
+            currentElementMetadata = rootMetadata = new ElementMetadata(
+                out, verifyUsage, sampler, scope,
+                prefix, name, inCommentedStart);
+        } else {
+            rootMetadata.reset(
+                verifyUsage, prefix, name, inCommentedStart);
+            currentElementMetadata = rootMetadata;
+        }
         currentElementMetadata.writeStartTagOpen(inCommentedStart);
 
         state = State.IN_START_TAG;
@@ -858,6 +1687,183 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
         return this;
     }
 
+    /**
+     * Writes a single character inside the content of the current element.
+     * Without this overload a <code>char</code> would be widened
+     * to a <code>long</code> and written as a number.
+     * @param value the character
+     * @return the calling object to support chaining
+     */
+    public ElementWAX text(char value) {
+        return text(String.valueOf(value), false);
+    }
+
+    /**
+     * Writes a <code>long</code> value inside the content of the
+     * current element, without creating a String for it.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX text(long value) {
+        startText();
+        out.writeLong(value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:double value inside the content of the current element,
+     * using the fewest digits that read back as exactly the same value.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX text(double value) {
+        startText();
+        XSDFormat.writeDouble(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:float value inside the content of the current element,
+     * using the fewest digits that read back as exactly the same value.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX text(float value) {
+        startText();
+        XSDFormat.writeFloat(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:decimal value inside the content of the current element.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX decimalText(BigDecimal value) {
+        startText();
+        XSDFormat.writeDecimal(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:integer value inside the content of the current element.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX integerText(BigInteger value) {
+        startText();
+        XSDFormat.writeInteger(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:date value inside the content of the current element.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX dateText(LocalDate value) {
+        startText();
+        XSDFormat.writeDate(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:dateTime value in UTC
+     * inside the content of the current element.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX instantText(Instant value) {
+        startText();
+        XSDFormat.writeDateTime(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:dateTime value without a time zone
+     * inside the content of the current element.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX dateTimeText(LocalDateTime value) {
+        startText();
+        XSDFormat.writeDateTime(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:dateTime value with its time zone offset
+     * inside the content of the current element.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX dateTimeText(OffsetDateTime value) {
+        startText();
+        XSDFormat.writeDateTime(out, value);
+        out.textWritten();
+        return this;
+    }
+
+    /**
+     * Writes an xsd:duration value inside the content of the current element.
+     *
+     * @param value the value
+     * @return the calling object to support chaining
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing the root
+     *             <code>Element</code>.
+     */
+    public ElementWAX durationText(Duration value) {
+        startText();
+        XSDFormat.writeDuration(out, value);
+        out.textWritten();
+        return this;
+    }
+
     private void text(String text, boolean newLine, boolean escape) {
         if (state == State.IN_PROLOG || state == State.AFTER_ROOT) {
             badState("text");
@@ -933,8 +1939,13 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
     }
 
     private void verifyOutstandingNamespacePrefixes() {
-        if (verifyUsage && currentElementMetadata != null) {
-            currentElementMetadata.verifyOutstandingNamespacePrefixes();
+        if (currentElementMetadata != null
+            && VerificationSampler.verifying(verifyUsage, sampler)) {
+            try {
+                currentElementMetadata.verifyOutstandingNamespacePrefixes();
+            } catch (IllegalArgumentException e) {
+                VerificationSampler.report(sampler, e);
+            }
         }
     }
 
@@ -986,7 +1997,13 @@ public class WAX implements Closeable, PrologOrElementWAX, StartTagWAX {
 
         if (state != State.IN_PROLOG) badState("xslt");
 
-        if (verifyUsage) XMLUtil.verifyURI(filePath);
+        if (VerificationSampler.verifying(verifyUsage, sampler)) {
+            try {
+                XMLUtil.verifyURI(filePath);
+            } catch (IllegalArgumentException e) {
+                VerificationSampler.report(sampler, e);
+            }
+        }
 
         xsltSpecified = true;
         return processingInstruction(
@@ -0,0 +1,188 @@
+package com.ociweb.xml;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Lets any number of threads add child elements to the current element
+ * of a WAX at once, such as the root element of a long-lived log.
+ * Each thread writes its elements into a buffer of its own, with no
+ * locking, and passes the buffer on through a lock-free queue.
+ * Whichever thread finds no other thread writing to the WAX then
+ * appends every buffer in the queue, whole, in the order they were
+ * queued.
+ *
+ * <pre>
+ * WAX wax = new WAX(writer);
+ * wax.start("audit").namespace("a", "http://example.com/audit");
+ * WAXAppender appender = new WAXAppender(wax);
+ * // on any thread:
+ * appender.append(child -&gt;
+ *     child.start("a", "event").attr("user", user).text(action));
+ * // when done:
+ * appender.close();
+ * </pre>
+ *
+ * Once an appender has been created, the WAX must only be used through it.
+ * The elements written by each call to append can use the namespace
+ * prefixes that are in scope in the current element of the WAX.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXAppender implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    /**
+     * Buffers that grew larger than this for an unusually large fragment
+     * aren't reused.
+     */
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+
+    private final WAX wax;
+    private final XMLWriter out;
+    private final ConcurrentLinkedQueue<XMLWriter> fragments =
+        new ConcurrentLinkedQueue<XMLWriter>();
+    private final ConcurrentLinkedQueue<char[]> freeBuffers =
+        new ConcurrentLinkedQueue<char[]>();
+
+    /**
+     * Held by the one thread appending fragments to the WAX.
+     */
+    private final ReentrantLock writing = new ReentrantLock();
+    private volatile boolean closed;
+
+    /**
+     * Creates an appender that adds child elements
+     * to the current element of a WAX.
+     * @param wax the WAX
+     * @throws IllegalStateException
+     *             if before the beginning or after end of writing
+     *             the root element
+     */
+    public WAXAppender(WAX wax) {
+        wax.startExternalChild("WAXAppender");
+        this.wax = wax;
+        this.out = wax.getXMLWriter();
+    }
+
+    /**
+     * Writes elements and appends them to the current element of the WAX.
+     * The elements are written on the calling thread and appended
+     * by it or by another thread that is appending at the same time.
+     * @param fragmentWriter writes the elements; elements it leaves
+     *                       unended are ended
+     * @throws IllegalStateException if the appender is closed
+     * @throws WAXIOException if an I/O error occurs while this thread
+     *                        is appending
+     */
+    public void append(Consumer<? super ElementWAX> fragmentWriter) {
+        if (closed) throw new IllegalStateException("already closed");
+
+        char[] buffer = freeBuffers.poll();
+        if (buffer == null) buffer = new char[INITIAL_BUFFER_SIZE];
+
+        final XMLWriter fragment = new XMLWriter(out, buffer);
+        final WAX siblings = new WAX(wax, fragment);
+        fragmentWriter.accept(siblings);
+        siblings.endSibling();
+
+        fragments.add(fragment);
+        do {
+            // If another thread is appending, it will see the fragment;
+            // if it finished before seeing it, the loop tries again.
+            if (!writing.tryLock()) return;
+            try {
+                appendQueued();
+            } finally {
+                writing.unlock();
+            }
+        } while (!fragments.isEmpty());
+    }
+
+    /**
+     * Appends every queued fragment and flushes the Writer.
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void flush() {
+        writing.lock();
+        try {
+            appendQueued();
+            wax.flush();
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    /**
+     * Appends every queued fragment and closes the WAX, ending
+     * all its unended elements.  It must only be called after every
+     * call to append has returned.
+     * @throws IllegalStateException if already closed
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void close() {
+        writing.lock();
+        try {
+            if (closed) throw new IllegalStateException("already closed");
+            closed = true;
+            appendQueued();
+            wax.close();
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    /**
+     * Appends the queued fragments while holding the lock.
+     */
+    private void appendQueued() {
+        XMLWriter fragment;
+        while ((fragment = fragments.poll()) != null) {
+            out.write(fragment.getBuffer(), 0, fragment.getBufferCount());
+            out.childWritten();
+
+            final char[] buffer = fragment.getBuffer();
+            if (buffer.length <= MAX_REUSED_BUFFER_SIZE) freeBuffers.add(buffer);
+        }
+    }
+}
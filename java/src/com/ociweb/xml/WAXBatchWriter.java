@@ -0,0 +1,280 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes many files at once, each with a WAX of its own on a thread
+ * of its own.  On a Java runtime with virtual threads, each file is
+ * written on a virtual thread; otherwise a pool of platform threads
+ * is used.  The number of files open at once and the memory used for
+ * buffers are limited: <code>submit</code> waits until both allow
+ * another file.  Buffers are sized from the files written so far, like
+ * those of a <code>WAXFactory</code>.
+ *
+ * <pre>
+ * try (WAXBatchWriter batch = new WAXBatchWriter()) {
+ *     for (Partner partner : partners) {
+ *         batch.submit(dir.resolve(partner.getId() + ".xml"),
+ *             wax -&gt; writeFeed(wax, partner))
+ *             .whenComplete((size, error) -&gt; report(partner, size, error));
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXBatchWriter implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+    public static final long DEFAULT_MAX_BUFFER_BYTES = 64L << 20;
+
+    /**
+     * Memory is counted in units of this many bytes.
+     */
+    private static final int MEMORY_UNIT = 1024;
+
+    /**
+     * The bytes used by the encoder of each file,
+     * besides two bytes per character of the WAX buffer.
+     */
+    private static final int ENCODER_BYTES = 8192;
+
+    private final WAXConfig config;
+    private final SizeHistory sizeHistory =
+        new SizeHistory(WAXFactory.DEFAULT_SIZE_PERCENTILE);
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Semaphore openFiles;
+    private final Semaphore memory;
+    private final int memoryUnits;
+
+    /**
+     * Creates a batch writer that uses the default configuration
+     * and limits.
+     */
+    public WAXBatchWriter() {
+        this(WAXConfig.DEFAULT, DEFAULT_MAX_OPEN_FILES,
+            DEFAULT_MAX_BUFFER_BYTES);
+    }
+
+    /**
+     * Creates a batch writer.
+     * @param config the configuration of every WAX
+     * @param maxOpenFiles the most files open at once
+     * @param maxBufferBytes the most memory used for buffers at once;
+     *                       a file whose buffers need more than this
+     *                       is written alone
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null, or
+     *             <code>maxOpenFiles</code> or <code>maxBufferBytes</code>
+     *             is less than 1
+     */
+    public WAXBatchWriter(
+        WAXConfig config, int maxOpenFiles, long maxBufferBytes) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException(
+                maxOpenFiles + " is an invalid number of files");
+        }
+        if (maxBufferBytes < 1) {
+            throw new IllegalArgumentException(
+                maxBufferBytes + " is an invalid number of bytes");
+        }
+
+        this.config = config;
+        this.openFiles = new Semaphore(maxOpenFiles);
+        this.memoryUnits = (int) Math.min(Integer.MAX_VALUE,
+            (maxBufferBytes + MEMORY_UNIT - 1) / MEMORY_UNIT);
+        this.memory = new Semaphore(memoryUnits);
+
+        ExecutorService virtual = newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtualThreads ? virtual :
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                        new Thread(runnable, "WAXBatchWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task,
+     * when the Java runtime has them.  It is found by reflection
+     * so that this class can be compiled for earlier runtimes.
+     * @return the executor, or null if virtual threads aren't available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method method =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available, or only as a preview that isn't enabled.
+            return null;
+        }
+    }
+
+    /**
+     * @return true if files are written on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Writes a file on another thread, waiting first until the limits
+     * allow another file to be open.  The file is created, or truncated
+     * if it exists.  Unless the generator closes the WAX, it is closed
+     * after the generator returns, ending any unended elements.
+     * If the file can't be written, whatever was written of it is deleted.
+     * @param path the path of the file
+     * @param generator writes the document
+     * @return a future that completes with the size of the file in bytes,
+     *         or with the exception that stopped it from being written
+     * @throws IllegalStateException if the batch writer is closed
+     * @throws WAXIOException
+     *             if interrupted while waiting for the limits
+     */
+    public CompletableFuture<Long> submit(
+        final Path path, final Consumer<? super WAX> generator) {
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("already closed");
+        }
+
+        final int bufferSize = sizeHistory.getBufferSize();
+        final int units = Math.min(memoryUnits,
+            (2 * bufferSize + ENCODER_BYTES + MEMORY_UNIT - 1) / MEMORY_UNIT);
+        try {
+            openFiles.acquire();
+            try {
+                memory.acquire(units);
+            } catch (InterruptedException e) {
+                openFiles.release();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WAXIOException(new InterruptedIOException());
+        }
+
+        final CompletableFuture<Long> future = new CompletableFuture<Long>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete(write(path, generator, bufferSize));
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    } finally {
+                        memory.release(units);
+                        openFiles.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            memory.release(units);
+            openFiles.release();
+            throw e;
+        }
+        return future;
+    }
+
+    private long write(Path path, Consumer<? super WAX> generator,
+        int bufferSize) throws IOException {
+        boolean written = false;
+        final Writer writer = new OutputStreamWriter(
+            Files.newOutputStream(path), StandardCharsets.UTF_8);
+        try {
+            final WAX wax = new WAX(config,
+                new XMLWriter(writer, config, bufferSize), sizeHistory);
+            generator.accept(wax);
+
+            // A generator may close the WAX itself, as usual.
+            if (!wax.getXMLWriter().isClosed()) wax.close();
+            written = true;
+            return Files.size(path);
+        } finally {
+            if (!written) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // The exception that stopped the writing is thrown.
+                }
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Waits for every submitted file to be written
+     * and stops the threads.
+     */
+    public void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.DAYS)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,296 @@
+package com.ociweb.xml;
+
+/**
+ * An immutable set of output settings that can be shared by any number of
+ * WAX objects on any number of threads.  The settings are verified and
+ * everything derived from them (the XML declaration and the indention
+ * table) is computed once, when the configuration is created, instead of
+ * every time a WAX object is created.
+ * Each "with" method returns a new configuration that differs from this one
+ * in a single setting.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public final class WAXConfig {
+
+    /**
+     * The number of indention levels computed ahead of time.
+     * Deeper documents extend the table on demand.
+     */
+    private static final int PRECOMPUTED_INDENT_LEVELS = 16;
+
+    /**
+     * The same settings that a WAX object has when it is created
+     * without a configuration, except that it doesn't write an XML
+     * declaration unless <code>withVersion</code> is used.
+     */
+    public static final WAXConfig DEFAULT = new WAXConfig(
+        "  ", System.getProperty("line.separator"), Version.UNSPECIFIED,
+        false, false, "1999", false, null);
+
+    private final String indent;
+    private final String lineSeparator;
+    private final Version version;
+    private final boolean trustMe;
+    private final boolean spaceInEmptyElements;
+    private final String schemaVersion;
+    private final boolean finalNewline;
+    private final EscapeCache escapeCache;
+
+    private final char[] indentChars;
+    private final String xmlDeclaration;
+
+    private WAXConfig(
+        String indent, String lineSeparator, Version version,
+        boolean trustMe, boolean spaceInEmptyElements,
+        String schemaVersion, boolean finalNewline, EscapeCache escapeCache) {
+
+        if (version == null) {
+            throw new IllegalArgumentException("unsupported XML version");
+        }
+
+        if (!trustMe) {
+            XMLWriter.verifyIndent(indent);
+            XMLWriter.verifyLineSeparator(lineSeparator);
+        }
+
+        this.indent = indent;
+        this.lineSeparator = lineSeparator;
+        this.version = version;
+        this.trustMe = trustMe;
+        this.spaceInEmptyElements = spaceInEmptyElements;
+        this.schemaVersion = schemaVersion;
+        this.finalNewline = finalNewline;
+        this.escapeCache = escapeCache;
+
+        indentChars = indent == null ? new char[0] :
+            XMLWriter.repeatIndent(indent, PRECOMPUTED_INDENT_LEVELS);
+        xmlDeclaration = version == Version.UNSPECIFIED ? null :
+            XMLWriter.makeXMLDeclaration(version.getVersionNumberString())
+            + lineSeparator;
+    }
+
+    /**
+     * @see WAX#getEscapeCache()
+     * @return the escape cache, or null if there isn't one
+     */
+    public EscapeCache getEscapeCache() {
+        return escapeCache;
+    }
+
+    /**
+     * @see WAX#getIndent()
+     * @return the indentation characters
+     */
+    public String getIndent() {
+        return indent;
+    }
+
+    /**
+     * Gets the indention table shared by every WAX object using this
+     * configuration. It must not be modified.
+     * @return the indent string repeated for the precomputed levels
+     */
+    /* package */ char[] getIndentChars() {
+        return indentChars;
+    }
+
+    /**
+     * @see WAX#getLineSeparator()
+     * @return the line separator characters
+     */
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    /**
+     * @see WAX#getSchemaVersion()
+     * @return the XML Schema version
+     */
+    public String getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    /**
+     * @return the XML version written in the XML declaration
+     */
+    public Version getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the XML declaration followed by the line separator,
+     *         or null if the version is unspecified
+     */
+    /* package */ String getXMLDeclaration() {
+        return xmlDeclaration;
+    }
+
+    /**
+     * @see WAX#includeFinalNewline()
+     * @return true if a final newline is written when closing
+     */
+    public boolean isFinalNewline() {
+        return finalNewline;
+    }
+
+    /**
+     * @see WAX#isSpaceInEmptyElements()
+     * @return true if a space is added; false otherwise
+     */
+    public boolean isSpaceInEmptyElements() {
+        return spaceInEmptyElements;
+    }
+
+    /**
+     * @see WAX#isTrustMe()
+     * @return true if error checking is disabled; false if enabled
+     */
+    public boolean isTrustMe() {
+        return trustMe;
+    }
+
+    /**
+     * The cache is shared by every WAX object using the configuration.
+     * @see WAX#setEscapeCache(EscapeCache)
+     * @param escapeCache the cache, or null for none
+     * @return the new configuration
+     */
+    public WAXConfig withEscapeCache(EscapeCache escapeCache) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+
+    /**
+     * @see WAX#includeFinalNewline()
+     * @param finalNewline true to write a final newline when closing
+     * @return the new configuration
+     */
+    public WAXConfig withFinalNewline(boolean finalNewline) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+
+    /**
+     * @see WAX#setIndent(String)
+     * @param indent the indentation characters
+     * @return the new configuration
+     * @throws IllegalArgumentException
+     *             if the indent isn't valid and "trust me" isn't enabled
+     */
+    public WAXConfig withIndent(String indent) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+
+    /**
+     * @see WAX#setIndent(int)
+     * @param numSpaces the number of spaces
+     * @return the new configuration
+     * @throws IllegalArgumentException
+     *             if <code>numSpaces</code> is negative, or more than four
+     *             and "trust me" isn't enabled
+     */
+    public WAXConfig withIndent(int numSpaces) {
+        return withIndent(XMLWriter.makeIndent(numSpaces, !trustMe));
+    }
+
+    /**
+     * @see WAX#setLineSeparator(String)
+     * @param lineSeparator the line separator characters
+     * @return the new configuration
+     * @throws IllegalArgumentException
+     *             if the line separator isn't recognized
+     *             and "trust me" isn't enabled
+     */
+    public WAXConfig withLineSeparator(String lineSeparator) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+
+    /**
+     * @see WAX#setSchemaVersion(String)
+     * @param schemaVersion typically "1999" or "2001"
+     * @return the new configuration
+     */
+    public WAXConfig withSchemaVersion(String schemaVersion) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+
+    /**
+     * @see WAX#setSpaceInEmptyElements(boolean)
+     * @param spaceInEmptyElements true to include a space; false otherwise
+     * @return the new configuration
+     */
+    public WAXConfig withSpaceInEmptyElements(boolean spaceInEmptyElements) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+
+    /**
+     * @see WAX#setTrustMe(boolean)
+     * @param trustMe true to disable error checking; false to enable it
+     * @return the new configuration
+     */
+    public WAXConfig withTrustMe(boolean trustMe) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+
+    /**
+     * @param version the XML version to write in the XML declaration;
+     *                <code>Version.UNSPECIFIED</code> to omit it
+     * @return the new configuration
+     * @throws IllegalArgumentException if <code>version</code> is null
+     */
+    public WAXConfig withVersion(Version version) {
+        return new WAXConfig(indent, lineSeparator, version,
+            trustMe, spaceInEmptyElements, schemaVersion, finalNewline,
+            escapeCache);
+    }
+}
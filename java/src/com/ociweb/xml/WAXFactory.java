@@ -0,0 +1,158 @@
+package com.ociweb.xml;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class creates WAX objects that all use the same
+ * <code>WAXConfig</code>.  A single factory can be shared by all the
+ * threads of an application, and creating a WAX object from it doesn't
+ * repeat any of the work of verifying and preparing its settings.
+ * The factory also records the size of each document its WAX objects
+ * write, and sizes the buffers of new WAX objects so that a document
+ * at a given percentile of the recent sizes fits in one without being
+ * passed to the Writer in pieces.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public final class WAXFactory {
+
+    /**
+     * The percentile of recent document sizes that buffers are sized for
+     * unless another one is given.
+     */
+    public static final double DEFAULT_SIZE_PERCENTILE = 90;
+
+    private final WAXConfig config;
+    private final SizeHistory sizeHistory;
+
+    /**
+     * Creates a factory that uses the default configuration.
+     */
+    public WAXFactory() { this(WAXConfig.DEFAULT); }
+
+    /**
+     * Creates a factory that uses a given configuration.
+     * @param config the configuration
+     */
+    public WAXFactory(WAXConfig config) {
+        this(config, DEFAULT_SIZE_PERCENTILE);
+    }
+
+    /**
+     * Creates a factory that uses a given configuration and sizes buffers
+     * for a given percentile of the recent document sizes.
+     * @param config the configuration
+     * @param sizePercentile the percentile, from 0 to 100
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null or
+     *             <code>sizePercentile</code> isn't between 0 and 100
+     */
+    public WAXFactory(WAXConfig config, double sizePercentile) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+
+        this.config = config;
+        this.sizeHistory = new SizeHistory(sizePercentile);
+    }
+
+    /**
+     * Gets the document size that new WAX objects are prepared for.
+     * It is 0 until a WAX object from this factory has been closed.
+     * @return the estimated size, in characters
+     */
+    public long getExpectedSize() {
+        return sizeHistory.getEstimate();
+    }
+
+    /**
+     * @return the configuration used by every WAX object this creates
+     */
+    public WAXConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Creates a WAX that writes to a given OutputStream using UTF-8,
+     * the encoding named in the XML declaration.
+     * The stream will be closed by the close method of the WAX.
+     * @param os the OutputStream
+     * @return the WAX
+     */
+    public WAX newWAX(OutputStream os) {
+        return newWAX(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a WAX that writes to a given file path.
+     * @param filePath the file path
+     * @return the WAX
+     * @throws WAXIOException if the file cannot be opened for writing
+     */
+    public WAX newWAX(String filePath) {
+        try {
+            return newWAX(new FileOutputStream(filePath));
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Creates a WAX that writes to a given Writer.
+     * The writer will be closed by the close method of the WAX.
+     * @param writer the Writer
+     * @return the WAX
+     */
+    public WAX newWAX(Writer writer) {
+        return new WAX(config, writer, sizeHistory);
+    }
+
+    /**
+     * Creates a WAX that keeps the document in memory, with a buffer
+     * sized from the documents that this factory's WAX objects have
+     * written.
+     * @return the InMemoryWAX
+     */
+    public InMemoryWAX newInMemoryWAX() {
+        return new InMemoryWAX(config, InMemoryWAX.newXMLWriter(
+            config, sizeHistory.getBufferSize()), sizeHistory);
+    }
+}
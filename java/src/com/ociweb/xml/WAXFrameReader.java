@@ -0,0 +1,247 @@
+package com.ociweb.xml;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Splits a stream written by a <code>WAXFrameWriter</code> into its
+ * documents, without parsing them.  It must be created with the same
+ * framing and checksum setting as the WAXFrameWriter.
+ *
+ * <pre>
+ * WAXFrameReader frames = new WAXFrameReader(socket.getInputStream());
+ * byte[] document;
+ * while ((document = frames.next()) != null) {
+ *     handle(document);
+ * }
+ * frames.close();
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXFrameReader implements Closeable {
+
+    /**
+     * The most bytes a document may have unless another limit is given,
+     * so that a corrupt length or a missing delimiter
+     * doesn't make the reader allocate without bound.
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private final InputStream in;
+    private final WAXFrameWriter.Framing framing;
+    private final CRC32 crc;
+    private final int maxFrameLength;
+
+    /**
+     * Holds a delimited document while its end is looked for.
+     */
+    private byte[] buffer;
+
+    /**
+     * Creates a WAXFrameReader for length prefixes without checksums.
+     * @param in the InputStream
+     */
+    public WAXFrameReader(InputStream in) {
+        this(in, WAXFrameWriter.Framing.LENGTH_PREFIX, false);
+    }
+
+    /**
+     * Creates a WAXFrameReader that allows documents of up to
+     * {@link #DEFAULT_MAX_FRAME_LENGTH} bytes.
+     * @param in the InputStream
+     * @param framing how the end of each document is found
+     * @param checksum true if each document is followed by its CRC-32
+     * @throws IllegalArgumentException
+     *             if <code>in</code> or <code>framing</code> is null
+     */
+    public WAXFrameReader(InputStream in, WAXFrameWriter.Framing framing,
+        boolean checksum) {
+        this(in, framing, checksum, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * Creates a WAXFrameReader.
+     * @param in the InputStream
+     * @param framing how the end of each document is found
+     * @param checksum true if each document is followed by its CRC-32
+     * @param maxFrameLength the most bytes a document may have
+     * @throws IllegalArgumentException
+     *             if <code>in</code> or <code>framing</code> is null,
+     *             or <code>maxFrameLength</code> is less than 1
+     */
+    public WAXFrameReader(InputStream in, WAXFrameWriter.Framing framing,
+        boolean checksum, int maxFrameLength) {
+        if (in == null) {
+            throw new IllegalArgumentException("in must not be null");
+        }
+        if (framing == null) {
+            throw new IllegalArgumentException("framing must not be null");
+        }
+        if (maxFrameLength < 1) {
+            throw new IllegalArgumentException(
+                maxFrameLength + " is an invalid maximum frame length");
+        }
+
+        this.framing = framing;
+        this.crc = checksum ? new CRC32() : null;
+        this.maxFrameLength = maxFrameLength;
+        if (framing == WAXFrameWriter.Framing.DELIMITER) {
+            // Delimited documents are read a byte at a time.
+            this.in = new BufferedInputStream(in);
+            buffer = new byte[
+                Math.min(XMLWriter.DEFAULT_BUFFER_SIZE, maxFrameLength)];
+        } else {
+            this.in = in;
+        }
+    }
+
+    /**
+     * Reads the next document.
+     * @return the UTF-8 bytes of the document,
+     *         or null if the stream ends before another one
+     * @throws WAXIOException
+     *             if an I/O error occurs, the stream ends within a frame,
+     *             a document is longer than the maximum frame length,
+     *             or a document doesn't match its checksum
+     */
+    public byte[] next() {
+        try {
+            final byte[] document =
+                framing == WAXFrameWriter.Framing.LENGTH_PREFIX ?
+                readLengthPrefixed() : readDelimited();
+            if (document != null && crc != null) {
+                crc.reset();
+                crc.update(document, 0, document.length);
+                final int checksum = readInt(WAXFrameWriter.INT_SIZE);
+                if (checksum != (int) crc.getValue()) {
+                    throw new StreamCorruptedException(
+                        "a document doesn't match its checksum");
+                }
+            }
+            return document;
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    private byte[] readLengthPrefixed() throws IOException {
+        final int first = in.read();
+        if (first == -1) return null;
+
+        final int length =
+            first << 24 | readInt(WAXFrameWriter.INT_SIZE - 1);
+        if (length < 0) {
+            throw new StreamCorruptedException(
+                length + " is an invalid document length");
+        }
+        if (length > maxFrameLength) throw tooLong();
+
+        final byte[] document = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int count = in.read(document, offset, length - offset);
+            if (count == -1) throw truncated();
+            offset += count;
+        }
+        return document;
+    }
+
+    private byte[] readDelimited() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) > 0) {
+            if (length == buffer.length) {
+                if (length == maxFrameLength) throw tooLong();
+                buffer = Arrays.copyOf(buffer,
+                    (int) Math.min(length * 2L, maxFrameLength));
+            }
+            buffer[length++] = (byte) b;
+        }
+        if (b == -1) {
+            if (length == 0) return null;
+            throw truncated();
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Reads a big-endian integer.
+     * @param byteCount the number of bytes in it
+     * @return the integer
+     * @throws IOException
+     *             if an I/O error occurs or the stream ends within it
+     */
+    private int readInt(int byteCount) throws IOException {
+        int value = 0;
+        for (int i = 0; i < byteCount; ++i) {
+            final int b = in.read();
+            if (b == -1) throw truncated();
+            value = value << 8 | b;
+        }
+        return value;
+    }
+
+    private static IOException truncated() {
+        return new StreamCorruptedException("the stream ends within a frame");
+    }
+
+    private IOException tooLong() {
+        return new StreamCorruptedException("a document is longer than the "
+            + "maximum frame length of " + maxFrameLength + " bytes");
+    }
+
+    /**
+     * Closes the InputStream.
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+}
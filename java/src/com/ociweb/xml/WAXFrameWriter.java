@@ -0,0 +1,286 @@
+package com.ociweb.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes any number of independent documents to one OutputStream,
+ * each in a frame that a receiver can find without parsing the XML.
+ * Every document is written by the same WAX, which <code>next</code>
+ * makes ready again along with its buffer and element metadata, and is
+ * passed on in UTF-8, in a single write, when that WAX is closed.
+ *
+ * <p>
+ * With <code>Framing.LENGTH_PREFIX</code> a frame is the number of bytes
+ * in the document as a four byte big-endian integer, then the document.
+ * With <code>Framing.DELIMITER</code> it is the document followed by a
+ * zero byte, which only a NUL character is encoded as, and no XML
+ * document may contain one.  When checksums are on, the CRC-32 of the
+ * document follows as a four byte big-endian integer.
+ * <code>WAXFrameReader</code> splits the stream into documents again.
+ * </p>
+ *
+ * <pre>
+ * WAXFrameWriter frames = new WAXFrameWriter(socket.getOutputStream());
+ * for (Quote quote : quotes) {
+ *     frames.next().start("quote").attr("symbol", quote.getSymbol())
+ *         .text(quote.getPrice()).close();
+ * }
+ * frames.close();
+ * </pre>
+ *
+ * Frames aren't flushed as they are written.  Like a WAX, a WAXFrameWriter
+ * must only be used by one thread at a time.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXFrameWriter implements Closeable {
+
+    /**
+     * How the end of each document is found.
+     */
+    public enum Framing {
+        /**
+         * Each document is preceded by its length in bytes.
+         */
+        LENGTH_PREFIX,
+
+        /**
+         * Each document is followed by a zero byte.
+         */
+        DELIMITER
+    }
+
+    /**
+     * The number of bytes in a length or a checksum.
+     */
+    /* package */ static final int INT_SIZE = 4;
+
+    /**
+     * The WAX that writes each document into its buffer,
+     * and frames the document when it is closed.
+     */
+    private final class FramedWAX extends WAX {
+
+        private FramedWAX(XMLWriter out) {
+            super(config, out, null);
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            writeFrame(getXMLWriter());
+        }
+    }
+
+    private final OutputStream os;
+    private final WAXConfig config;
+    private final Framing framing;
+    private final CRC32 crc;
+
+    private FramedWAX wax;
+
+    /**
+     * The frame being written, kept for the next one.
+     */
+    private byte[] bytes = new byte[0];
+
+    private long documentCount;
+    private boolean closed;
+
+    /**
+     * Creates a WAXFrameWriter that uses the default configuration
+     * and length prefixes, without checksums.
+     * @param os the OutputStream
+     */
+    public WAXFrameWriter(OutputStream os) {
+        this(os, WAXConfig.DEFAULT, Framing.LENGTH_PREFIX, false);
+    }
+
+    /**
+     * Creates a WAXFrameWriter.
+     * @param os the OutputStream
+     * @param config the configuration of every document
+     * @param framing how the end of each document is found
+     * @param checksum true to follow each document with its CRC-32
+     * @throws IllegalArgumentException
+     *             if <code>os</code>, <code>config</code>
+     *             or <code>framing</code> is null
+     */
+    public WAXFrameWriter(OutputStream os, WAXConfig config, Framing framing,
+        boolean checksum) {
+        if (os == null) {
+            throw new IllegalArgumentException("os must not be null");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (framing == null) {
+            throw new IllegalArgumentException("framing must not be null");
+        }
+
+        this.os = os;
+        this.config = config;
+        this.framing = framing;
+        this.crc = checksum ? new CRC32() : null;
+    }
+
+    /**
+     * Gets the WAX that writes the next document, which is framed and
+     * written to the stream when the WAX is closed.  The same WAX is
+     * returned every time, so it must not be used after it is closed
+     * except by calling this method again.
+     * @return the WAX
+     * @throws IllegalStateException
+     *             if the previous document hasn't been closed
+     *             or this WAXFrameWriter has been closed
+     */
+    public WAX next() {
+        if (closed) throw new IllegalStateException("already closed");
+
+        if (wax == null) {
+            wax = new FramedWAX(InMemoryWAX.newXMLWriter(
+                config, XMLWriter.DEFAULT_BUFFER_SIZE));
+        } else if (!wax.getXMLWriter().isClosed()) {
+            throw new IllegalStateException(
+                "the previous document hasn't been closed");
+        } else {
+            wax.recycle(null, config);
+        }
+        return wax;
+    }
+
+    /**
+     * @return the number of documents written
+     */
+    public long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Encodes a document and writes it in a frame.
+     * @param out the XMLWriter whose buffer holds the document
+     * @throws IllegalArgumentException
+     *             if a delimited document contains a NUL character
+     * @throws WAXIOException if an I/O error occurs
+     */
+    private void writeFrame(XMLWriter out) {
+        final char[] chars = out.getBuffer();
+        final int count = (int) out.getCharCount();
+        final int length = UTF8.length(chars, 0, count);
+        final int start = framing == Framing.LENGTH_PREFIX ? INT_SIZE : 0;
+        final int end = start + length;
+        final int frameLength = end
+            + (framing == Framing.DELIMITER ? 1 : 0)
+            + (crc != null ? INT_SIZE : 0);
+        if (bytes.length < frameLength) {
+            bytes = new byte[Math.max(frameLength, bytes.length * 2)];
+        }
+
+        UTF8.encode(chars, 0, count, bytes, start);
+        if (framing == Framing.LENGTH_PREFIX) {
+            putInt(bytes, 0, length);
+        } else {
+            for (int i = start; i < end; ++i) {
+                if (bytes[i] == 0) {
+                    throw new IllegalArgumentException(
+                        "a delimited document can't contain a NUL character");
+                }
+            }
+            bytes[end] = 0;
+        }
+        if (crc != null) {
+            crc.reset();
+            crc.update(bytes, start, length);
+            putInt(bytes, frameLength - INT_SIZE, (int) crc.getValue());
+        }
+
+        try {
+            os.write(bytes, 0, frameLength);
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+        ++documentCount;
+    }
+
+    /**
+     * Puts an int in an array, most significant byte first.
+     * @param bytes the array
+     * @param offset the index of the first byte
+     * @param value the int
+     */
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Flushes the OutputStream.
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void flush() {
+        try {
+            os.flush();
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Closes the OutputStream.  A document whose WAX hasn't been closed
+     * isn't written.
+     * @throws IllegalStateException if already closed
+     * @throws WAXIOException if an I/O error occurs
+     */
+    public void close() {
+        if (closed) throw new IllegalStateException("already closed");
+        closed = true;
+
+        try {
+            os.close();
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+}
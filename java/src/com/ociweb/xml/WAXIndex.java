@@ -0,0 +1,272 @@
+package com.ociweb.xml;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The index of a document written by an <code>IndexedFileWAX</code>:
+ * the byte offset and length of each element at one depth, and the value
+ * of its key attribute, if it has one.  Readers can seek directly to an
+ * element, or split the document between elements, without parsing it.
+ *
+ * <p>
+ * The index file is compact.  It starts with the four bytes "WAXI",
+ * a version byte of 1 and the depth.  Then there are three numbers for each
+ * element: the number of bytes between the end of the previous element,
+ * or the start of the document, and the start of this one; the length of
+ * the element in bytes; and the length of the UTF-8 bytes of its key plus
+ * one, or zero if it has none, followed by those bytes.  Each number is
+ * an unsigned variable-length integer, seven bits per byte with the low
+ * bits first and the high bit set on every byte but the last.
+ * </p>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public final class WAXIndex {
+
+    /**
+     * The suffix added to the name of a document for the name of its index.
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final byte[] MAGIC = { 'W', 'A', 'X', 'I' };
+    private static final int VERSION = 1;
+
+    private final int depth;
+    private final int size;
+    private final long[] offsets;
+    private final long[] lengths;
+    private final String[] keys;
+
+    private WAXIndex(int depth, int size,
+        long[] offsets, long[] lengths, String[] keys) {
+        this.depth = depth;
+        this.size = size;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.keys = keys;
+    }
+
+    /**
+     * @param documentPath the path of a document
+     * @return the path of its index
+     */
+    public static Path indexPath(Path documentPath) {
+        return documentPath.resolveSibling(
+            documentPath.getFileName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Reads an index.
+     * @param path the path of the index file
+     * @return the index
+     * @throws IllegalArgumentException if the file isn't an index
+     * @throws WAXIOException if it can't be read
+     */
+    public static WAXIndex read(Path path) {
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(path)))) {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.read() != VERSION) {
+                throw new IllegalArgumentException(
+                    path + " isn't a WAX index");
+            }
+            final int depth = (int) readRequiredNumber(in);
+
+            int size = 0;
+            long[] offsets = new long[64];
+            long[] lengths = new long[64];
+            String[] keys = new String[64];
+            long end = 0;
+            long gap;
+            while ((gap = readNumber(in)) != -1) {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    lengths = Arrays.copyOf(lengths, size * 2);
+                    keys = Arrays.copyOf(keys, size * 2);
+                }
+                offsets[size] = end + gap;
+                lengths[size] = readRequiredNumber(in);
+                end = offsets[size] + lengths[size];
+                final int keyLength = (int) readRequiredNumber(in);
+                if (keyLength > 0) {
+                    final byte[] key = new byte[keyLength - 1];
+                    in.readFully(key);
+                    keys[size] = new String(key, StandardCharsets.UTF_8);
+                }
+                ++size;
+            }
+            return new WAXIndex(depth, size, offsets, lengths, keys);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException(path + " is truncated");
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * @return the depth of the elements, 0 for the root element,
+     *         1 for its children and so on
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of elements
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the index of an element
+     * @return the byte offset of its start tag in the document
+     * @throws IndexOutOfBoundsException if there is no such element
+     */
+    public long getOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    /**
+     * @param index the index of an element
+     * @return the number of bytes from the start of its start tag
+     *         to the end of its end tag
+     * @throws IndexOutOfBoundsException if there is no such element
+     */
+    public long getLength(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    /**
+     * @param index the index of an element
+     * @return the value of its key attribute, or null if it has none
+     * @throws IndexOutOfBoundsException if there is no such element
+     */
+    public String getKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                index + " isn't from 0 to " + (size - 1));
+        }
+    }
+
+    /**
+     * Writes the start of an index file.
+     * @param os the stream
+     * @param depth the depth of the elements
+     */
+    /* package */ static void writeHeader(OutputStream os, int depth)
+        throws IOException {
+        os.write(MAGIC);
+        os.write(VERSION);
+        writeNumber(os, depth);
+    }
+
+    /**
+     * Writes the entry for an element.
+     * @param os the stream
+     * @param previousEnd the byte offset just past the previous element,
+     *                    or 0 if this is the first
+     * @param offset the byte offset of the element
+     * @param length its length in bytes
+     * @param key its key, or null
+     */
+    /* package */ static void writeEntry(OutputStream os, long previousEnd,
+        long offset, long length, String key) throws IOException {
+        writeNumber(os, offset - previousEnd);
+        writeNumber(os, length);
+        if (key == null) {
+            os.write(0);
+        } else {
+            final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            writeNumber(os, bytes.length + 1);
+            os.write(bytes);
+        }
+    }
+
+    private static void writeNumber(OutputStream os, long value)
+        throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            os.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        os.write((int) value);
+    }
+
+    private static long readRequiredNumber(InputStream in)
+        throws IOException {
+        final long value = readNumber(in);
+        if (value == -1) throw new EOFException();
+        return value;
+    }
+
+    /**
+     * @return the number, or -1 at the end of the stream
+     *         before its first byte
+     */
+    private static long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = in.read();
+            if (b == -1) {
+                if (shift == 0) return -1;
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+/**
+ * An InputStream of a document in UTF-8 that is written as it is read.
+ * Each time more bytes are needed, the next piece of the document is
+ * written by a <code>WAXSource</code> on the reading thread,
+ * so the whole document is never in memory and no other thread
+ * or pipe is needed.  This suits libraries that want a request body
+ * as an InputStream.
+ *
+ * <pre>
+ * InputStream in = WAXInputStream.forRecords(WAXConfig.DEFAULT, "cars",
+ *     cars.iterator(), (wax, car) -&gt;
+ *         wax.start("car").attr("year", car.getYear())
+ *            .text(car.getModel()).end());
+ * </pre>
+ *
+ * Exceptions thrown by the source, including WAXException,
+ * are thrown by the read methods.
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXInputStream extends InputStream {
+
+    /**
+     * The number of characters encoded at a time.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final WAXSource source;
+    private final XMLWriter out;
+    private final WAX wax;
+    private final byte[] bytes = new byte[CHUNK_SIZE * UTF8.MAX_BYTES_PER_CHAR];
+    private int charPosition;
+    private int position;
+    private int limit;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Creates an InputStream of a document that uses the default
+     * configuration.
+     * @param source writes the document
+     */
+    public WAXInputStream(WAXSource source) {
+        this(WAXConfig.DEFAULT, source);
+    }
+
+    /**
+     * Creates an InputStream of a document that uses a given configuration.
+     * @param config the configuration
+     * @param source writes the document
+     * @throws IllegalArgumentException
+     *             if <code>config</code> or <code>source</code> is null
+     */
+    public WAXInputStream(WAXConfig config, WAXSource source) {
+        if (source == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+
+        this.source = source;
+        this.out = InMemoryWAX.newXMLWriter(config, CHUNK_SIZE);
+        this.wax = new WAX(config, out, null);
+    }
+
+    /**
+     * Creates an InputStream of a document whose root element
+     * holds one piece of content for each record.
+     * @param config the configuration
+     * @param rootName the name of the root element
+     * @param records the records, which are iterated as the stream is read
+     * @param recordWriter writes the content for one record
+     * @param <T> the type of the records
+     * @return the InputStream
+     * @throws IllegalArgumentException
+     *             if any of the parameters is null
+     */
+    public static <T> WAXInputStream forRecords(
+        WAXConfig config, final String rootName,
+        final Iterator<? extends T> records,
+        final BiConsumer<? super ElementWAX, ? super T> recordWriter) {
+        if (rootName == null || records == null || recordWriter == null) {
+            throw new IllegalArgumentException(
+                "the root name, records and record writer must not be null");
+        }
+
+        return new WAXInputStream(config, new WAXSource() {
+            private boolean started;
+
+            public boolean writeNext(WAX wax) {
+                if (!started) {
+                    wax.start(rootName);
+                    started = true;
+                } else {
+                    recordWriter.accept(wax, records.next());
+                }
+                return records.hasNext();
+            }
+        });
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * Closes this stream.  If the document isn't finished,
+     * the rest of it is never written.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        finished = true;
+        position = limit = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) return -1;
+        return bytes[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) return 0;
+        if (position == limit && !fill()) return -1;
+
+        final int count = Math.min(len, limit - position);
+        System.arraycopy(bytes, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Encodes more of the document, writing the next pieces of it
+     * until there are characters to encode.
+     * @return true if there are more bytes, or false at the end
+     * @throws IOException if the stream was closed
+     */
+    private boolean fill() throws IOException {
+        if (closed) throw new IOException("stream closed");
+
+        while (true) {
+            final char[] chars = out.getBuffer();
+            final int end = out.getBufferCount();
+            final int available = end - charPosition;
+            int length = UTF8.wholeChars(chars, charPosition,
+                Math.min(available, CHUNK_SIZE), end);
+
+            // The second half of a surrogate pair that ends the buffer
+            // hasn't been written yet, unless the document is finished.
+            if (length > 0 && length == available && !finished
+                && Character.isHighSurrogate(chars[end - 1])) {
+                --length;
+            }
+
+            if (length > 0) {
+                position = 0;
+                limit = UTF8.encode(chars, charPosition, length, bytes, 0);
+                charPosition += length;
+                return true;
+            }
+
+            if (finished) return false;
+
+            // Everything encoded so far is dropped before more is written.
+            out.discard(charPosition);
+            charPosition = 0;
+            if (!source.writeNext(wax)) {
+                wax.close();
+                finished = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Filter;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * A java.util.logging Handler that writes each LogRecord as a
+ * <code>record</code> child of the <code>log</code> root element of one
+ * long-lived document, using the element names of
+ * <code>java.util.logging.XMLFormatter</code>.
+ * Publishing a record only puts it in a bounded queue; a thread of the
+ * handler writes the records in batches and flushes the Writer
+ * periodically and whenever the queue is empty.  When the queue is full,
+ * records are either dropped and counted, or the publishing thread waits
+ * for room, depending on the overflow policy.
+ * Flushing the handler waits until the records queued before it have
+ * been written and the Writer flushed.
+ * Closing the handler, which the LogManager does at shutdown for the
+ * handlers it knows about, writes the queued records and ends the
+ * root element.  Records published after that are ignored.
+ *
+ * <p>
+ * The message of a record is formatted by the handler's thread, with
+ * the <code>formatMessage</code> method of the handler's Formatter,
+ * so its parameters must not be changed after it is logged.
+ * </p>
+ *
+ * <p>
+ * Like FileHandler, the handler can be named in the <code>handlers</code>
+ * property of a logging.properties file.  It is then created with the
+ * no-arg constructor, which reads these LogManager properties:
+ * </p>
+ * <ul>
+ *   <li><code>com.ociweb.xml.WAXLogHandler.pattern</code>
+ *     the name of the file, written in UTF-8, in which <code>%t</code>
+ *     is the temporary directory, <code>%h</code> the user's home
+ *     directory and <code>%%</code> a percent sign
+ *     (default <code>%h/java.log.xml</code>)</li>
+ *   <li><code>com.ociweb.xml.WAXLogHandler.capacity</code>
+ *     the number of records the queue holds
+ *     (default {@link #DEFAULT_CAPACITY})</li>
+ *   <li><code>com.ociweb.xml.WAXLogHandler.overflow</code>
+ *     <code>DROP</code> or <code>BLOCK</code> (default <code>DROP</code>)</li>
+ *   <li><code>com.ociweb.xml.WAXLogHandler.flushMillis</code>
+ *     the longest time between flushes
+ *     (default {@link #DEFAULT_FLUSH_MILLIS})</li>
+ *   <li><code>com.ociweb.xml.WAXLogHandler.level</code>
+ *     the level of the handler (default <code>ALL</code>)</li>
+ *   <li><code>com.ociweb.xml.WAXLogHandler.filter</code>
+ *     the class name of a Filter (default none)</li>
+ *   <li><code>com.ociweb.xml.WAXLogHandler.formatter</code>
+ *     the class name of a Formatter (default SimpleFormatter)</li>
+ * </ul>
+ * <p>
+ * A property with an invalid value is ignored, as FileHandler does.
+ * </p>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXLogHandler extends Handler {
+
+    /**
+     * What <code>publish</code> does when the queue is full.
+     */
+    public enum Overflow {
+        /** Drop the record and count it. */
+        DROP,
+        /** Wait until there is room for the record. */
+        BLOCK
+    }
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final long DEFAULT_FLUSH_MILLIS = 1000;
+
+    /**
+     * The name of the file that the no-arg constructor writes
+     * unless the <code>pattern</code> property gives another.
+     */
+    public static final String DEFAULT_PATTERN = "%h/java.log.xml";
+
+    /**
+     * The most records written between checks for a periodic flush.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Queued to ask the handler's thread to close.
+     */
+    private static final LogRecord CLOSE = new LogRecord(Level.OFF, "close");
+
+    /**
+     * Queued to ask the handler's thread to flush the Writer,
+     * which counts it down when it has.
+     */
+    private static final class FlushRequest extends LogRecord {
+        private static final long serialVersionUID = 1L;
+
+        final transient CountDownLatch done = new CountDownLatch(1);
+
+        FlushRequest() {
+            super(Level.OFF, "flush");
+        }
+    }
+
+    private final WAX wax;
+    private final XMLWriter out;
+
+    /**
+     * Each record is written here first, so that a record that can't be
+     * written is left out whole.  It is only used by the handler's thread.
+     */
+    private char[] recordBuffer = new char[1024];
+
+    private final BlockingQueue<LogRecord> queue;
+    private final Overflow overflow;
+    private final long flushNanos;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+
+    /**
+     * Held for reading while a record is queued and for writing while
+     * the handler is closed, so that no record is queued after the
+     * close request, where it would never be written.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Creates a handler that writes a file, configured by the
+     * LogManager properties described above.
+     * @throws IOException if the file can't be opened
+     */
+    public WAXLogHandler() throws IOException {
+        this(openFile(), WAXConfig.DEFAULT,
+            (int) longProperty("capacity", DEFAULT_CAPACITY, Integer.MAX_VALUE),
+            overflowProperty(),
+            longProperty("flushMillis", DEFAULT_FLUSH_MILLIS, Long.MAX_VALUE));
+
+        final String level = property("level");
+        if (level != null) {
+            try {
+                setLevel(Level.parse(level.trim()));
+            } catch (IllegalArgumentException e) {
+                // The default level is used.
+            }
+        }
+        final Filter filter = newInstance("filter", Filter.class);
+        if (filter != null) setFilter(filter);
+        final Formatter formatter = newInstance("formatter", Formatter.class);
+        if (formatter != null) setFormatter(formatter);
+    }
+
+    /**
+     * Creates a handler that uses the default configuration, queue
+     * capacity and flush interval, and drops records when the queue
+     * is full.  The writer will be closed when the handler is closed.
+     * @param writer the Writer
+     */
+    public WAXLogHandler(Writer writer) {
+        this(writer, WAXConfig.DEFAULT, DEFAULT_CAPACITY, Overflow.DROP,
+            DEFAULT_FLUSH_MILLIS);
+    }
+
+    /**
+     * Creates a handler.  The writer will be closed when the handler
+     * is closed.
+     * @param writer the Writer
+     * @param config the configuration
+     * @param capacity the number of records the queue holds
+     * @param overflow what to do when the queue is full
+     * @param flushMillis the longest time between flushes
+     *                    while records are being written
+     * @throws IllegalArgumentException
+     *             if <code>config</code> or <code>overflow</code> is null,
+     *             or <code>capacity</code> or <code>flushMillis</code>
+     *             is less than 1
+     */
+    public WAXLogHandler(Writer writer, WAXConfig config, int capacity,
+        Overflow overflow, long flushMillis) {
+        if (config == null || overflow == null) {
+            throw new IllegalArgumentException(
+                "config and overflow must not be null");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                capacity + " is an invalid capacity");
+        }
+        if (flushMillis < 1) {
+            throw new IllegalArgumentException(
+                flushMillis + " is an invalid flush interval");
+        }
+
+        this.queue = new ArrayBlockingQueue<LogRecord>(capacity);
+        this.overflow = overflow;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        setFormatter(new SimpleFormatter());
+
+        wax = new WAX(config, writer);
+        wax.start("log");
+        wax.startExternalChild("WAXLogHandler");
+        out = wax.getXMLWriter();
+
+        thread = new Thread(new Runnable() {
+            public void run() {
+                writeRecords();
+            }
+        }, "WAXLogHandler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param name the name of a property, without the class name
+     * @return the value of the LogManager property, or null if not set
+     */
+    private static String property(String name) {
+        return LogManager.getLogManager().getProperty(
+            WAXLogHandler.class.getName() + '.' + name);
+    }
+
+    /**
+     * @param name the name of a property, without the class name
+     * @param defaultValue the value used if the property isn't set
+     *                     or isn't a number from 1 to <code>max</code>
+     * @param max the largest value allowed
+     * @return the value of the property
+     */
+    private static long longProperty(String name, long defaultValue, long max) {
+        final String value = property(name);
+        if (value == null) return defaultValue;
+        try {
+            final long number = Long.parseLong(value.trim());
+            return number >= 1 && number <= max ? number : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the value of the overflow property, or DROP
+     *         if it isn't set or isn't the name of an Overflow
+     */
+    private static Overflow overflowProperty() {
+        final String value = property("overflow");
+        if (value == null) return Overflow.DROP;
+        try {
+            return Overflow.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            return Overflow.DROP;
+        }
+    }
+
+    /**
+     * @param name the name of a property, without the class name,
+     *             whose value is the name of a class
+     * @param type the type the class must be
+     * @return a new instance of the class, or null if the property
+     *         isn't set or the class can't be instantiated
+     */
+    private static <T> T newInstance(String name, Class<T> type) {
+        final String className = property(name);
+        if (className == null) return null;
+        try {
+            return type.cast(ClassLoader.getSystemClassLoader()
+                .loadClass(className.trim())
+                .getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the file named by the pattern property.
+     * @return a Writer that writes the file in UTF-8
+     * @throws IOException if the file can't be opened
+     */
+    private static Writer openFile() throws IOException {
+        String pattern = property("pattern");
+        if (pattern == null) pattern = DEFAULT_PATTERN;
+
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < pattern.length(); ++i) {
+            final char c = pattern.charAt(i);
+            final char next =
+                i + 1 < pattern.length() ? pattern.charAt(i + 1) : 0;
+            if (c == '%' && next == 't') {
+                name.append(System.getProperty("java.io.tmpdir"));
+                ++i;
+            } else if (c == '%' && next == 'h') {
+                name.append(System.getProperty("user.home"));
+                ++i;
+            } else if (c == '%' && next == '%') {
+                name.append('%');
+                ++i;
+            } else {
+                name.append(c);
+            }
+        }
+
+        return new OutputStreamWriter(
+            Files.newOutputStream(Paths.get(name.toString())),
+            StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Queues a record to be written.
+     * @param record the record
+     */
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) return;
+
+        // The caller is found from the stack of the publishing thread.
+        record.getSourceClassName();
+
+        closeLock.readLock().lock();
+        try {
+            if (closed) return;
+
+            if (overflow == Overflow.DROP) {
+                if (!queue.offer(record)) dropped.incrementAndGet();
+            } else {
+                put(record);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until the records queued so far have been written
+     * and the Writer has been flushed.
+     */
+    @Override
+    public void flush() {
+        final FlushRequest request = new FlushRequest();
+        closeLock.readLock().lock();
+        try {
+            if (closed || !put(request)) return;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        try {
+            request.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued records, ends the root element
+     * and closes the Writer.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) return;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        put(CLOSE);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return true if the record was queued; false if interrupted
+     */
+    private boolean put(LogRecord record) {
+        try {
+            queue.put(record);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reportError("interrupted while waiting to queue a record", e,
+                ErrorManager.GENERIC_FAILURE);
+            return false;
+        }
+    }
+
+    /**
+     * Runs on the handler's thread, writing batches of records
+     * until the close request.
+     */
+    private void writeRecords() {
+        final List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+        final List<FlushRequest> flushes = new ArrayList<FlushRequest>();
+        long lastFlush = System.nanoTime();
+        boolean unflushed = false;
+
+        while (true) {
+            try {
+                final LogRecord first = unflushed ?
+                    queue.poll(flushNanos, TimeUnit.NANOSECONDS) : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                }
+            } catch (InterruptedException e) {
+                // Only close ends this thread.
+                continue;
+            }
+
+            boolean flush = batch.isEmpty();
+            for (LogRecord record : batch) {
+                if (record == CLOSE) {
+                    closeWAX();
+                    for (FlushRequest request : flushes) {
+                        request.done.countDown();
+                    }
+                    return;
+                } else if (record instanceof FlushRequest) {
+                    flushes.add((FlushRequest) record);
+                    flush = true;
+                } else {
+                    write(record);
+                    unflushed = true;
+                }
+            }
+            batch.clear();
+
+            if (unflushed && (flush || queue.isEmpty()
+                || System.nanoTime() - lastFlush >= flushNanos)) {
+                try {
+                    wax.flush();
+                } catch (RuntimeException e) {
+                    reportError(null, e, ErrorManager.FLUSH_FAILURE);
+                }
+                lastFlush = System.nanoTime();
+                unflushed = false;
+            }
+
+            for (FlushRequest request : flushes) request.done.countDown();
+            flushes.clear();
+        }
+    }
+
+    private void closeWAX() {
+        try {
+            wax.close();
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    /**
+     * Writes one record.
+     * @param record the record
+     */
+    private void write(LogRecord record) {
+        try {
+            final XMLWriter fragment = new XMLWriter(out, recordBuffer);
+            final WAX wax = new WAX(this.wax, fragment);
+            final Instant instant = record.getInstant();
+            wax.start("record")
+                .child("date", instant.toString())
+                .start("millis").text(record.getMillis()).end()
+                .start("sequence").text(record.getSequenceNumber()).end();
+            if (record.getLoggerName() != null) {
+                wax.child("logger", record.getLoggerName());
+            }
+            wax.child("level", record.getLevel().toString());
+            if (record.getSourceClassName() != null) {
+                wax.child("class", record.getSourceClassName());
+            }
+            if (record.getSourceMethodName() != null) {
+                wax.child("method", record.getSourceMethodName());
+            }
+            wax.start("thread").text(record.getLongThreadID()).end();
+            if (record.getMessage() != null) {
+                wax.child("message", getFormatter().formatMessage(record));
+            }
+
+            final Throwable thrown = record.getThrown();
+            if (thrown != null) {
+                wax.start("exception").child("message", thrown.toString());
+                for (StackTraceElement frame : thrown.getStackTrace()) {
+                    wax.start("frame").child("class", frame.getClassName())
+                        .child("method", frame.getMethodName());
+                    if (frame.getLineNumber() >= 0) {
+                        wax.start("line").text(frame.getLineNumber()).end();
+                    }
+                    wax.end();
+                }
+                wax.end();
+            }
+            wax.end();
+
+            recordBuffer = fragment.getBuffer();
+            out.write(recordBuffer, 0, fragment.getBufferCount());
+            out.childWritten();
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.ociweb.xml;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps WAX objects that have been closed so that they can write more
+ * documents without allocating their buffers and element metadata again,
+ * for servers that write many short documents.  A WAX is borrowed for
+ * a new Writer or OutputStream and returned to the pool by its
+ * <code>close</code> method, after which it must not be used.
+ *
+ * <p>
+ * The pool is striped: each thread borrows from and returns to a few
+ * slots chosen by its id, with no locking.  A WAX whose slots are full
+ * when it is returned is left to the garbage collector, as is one
+ * that has kept metadata for more levels of elements than the pool
+ * allows, so that one unusual document doesn't keep a large WAX alive.
+ * </p>
+ *
+ * <pre>
+ * WAX wax = pool.borrow(response.getOutputStream());
+ * wax.start("order").attr("id", id);
+ * ...
+ * wax.close();
+ * </pre>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXPool {
+
+    /**
+     * The default for the most levels of elements below the root
+     * that a pooled WAX keeps metadata for.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 64;
+
+    /**
+     * The most entries that the attribute or namespace collections of
+     * a pooled WAX may have held.  Their tables stay that large after
+     * they are cleared, so a WAX that wrote an element with many more
+     * is dropped rather than kept.
+     */
+    /* package */ static final int MAX_RETAINED_ENTRIES = 64;
+
+    /**
+     * The number of slots that a thread tries, from the one for its id.
+     */
+    private static final int PROBES = 4;
+
+    private final WAXConfig config;
+    private final int bufferSize;
+    private final int maxDepth;
+    private final AtomicReferenceArray<PooledWAX> slots;
+    private final int mask;
+
+    /**
+     * Creates a pool of WAX objects that use the default configuration.
+     */
+    public WAXPool() { this(WAXConfig.DEFAULT); }
+
+    /**
+     * Creates a pool of WAX objects that use a given configuration, with
+     * the default buffer size and depth and two slots per processor.
+     * @param config the configuration
+     */
+    public WAXPool(WAXConfig config) {
+        this(config, XMLWriter.DEFAULT_BUFFER_SIZE, DEFAULT_MAX_DEPTH,
+            2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a pool of WAX objects.
+     * @param config the configuration
+     * @param bufferSize the size of the buffer of each WAX, in characters
+     * @param maxDepth the most levels of elements below the root that
+     *                 a WAX may have written and still be pooled
+     * @param capacity the most WAX objects kept, which is rounded
+     *                 up to a power of two
+     * @throws IllegalArgumentException
+     *             if <code>config</code> is null, <code>bufferSize</code>
+     *             is less than 64, <code>maxDepth</code> is negative, or
+     *             <code>capacity</code> is less than 1
+     */
+    public WAXPool(
+        WAXConfig config, int bufferSize, int maxDepth, int capacity) {
+        if (config == null) {
+            throw new IllegalArgumentException("config must not be null");
+        }
+        if (bufferSize < 64) {
+            throw new IllegalArgumentException(
+                bufferSize + " is an invalid buffer size");
+        }
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException(
+                maxDepth + " is an invalid depth");
+        }
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException(
+                capacity + " is an invalid capacity");
+        }
+
+        this.config = config;
+        this.bufferSize = bufferSize;
+        this.maxDepth = maxDepth;
+        this.slots = new AtomicReferenceArray<PooledWAX>(
+            capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = slots.length() - 1;
+    }
+
+    /**
+     * Gets a WAX that writes a new document to a given Writer,
+     * which it closes when it is closed.
+     * @param writer the Writer
+     * @return the WAX
+     * @throws IllegalArgumentException if <code>writer</code> is null
+     */
+    public WAX borrow(Writer writer) {
+        if (writer == null) {
+            throw new IllegalArgumentException("writer must not be null");
+        }
+
+        final PooledWAX wax = take();
+        if (wax == null) {
+            return new PooledWAX(this, config,
+                new XMLWriter(writer, config, bufferSize), null);
+        }
+        wax.recycle(writer, config);
+        return wax;
+    }
+
+    /**
+     * Gets a WAX that writes a new document in UTF-8 to a given
+     * OutputStream, which it closes when it is closed.  The encoder
+     * is pooled with the WAX.
+     * @param os the OutputStream
+     * @return the WAX
+     * @throws IllegalArgumentException if <code>os</code> is null
+     */
+    public WAX borrow(OutputStream os) {
+        if (os == null) {
+            throw new IllegalArgumentException("os must not be null");
+        }
+
+        final PooledWAX wax = take();
+        if (wax == null) {
+            final UTF8Writer writer = new UTF8Writer();
+            writer.setOutputStream(os);
+            return new PooledWAX(this, config,
+                new XMLWriter(writer, config, bufferSize), writer);
+        }
+        wax.recycle(wax.encodeTo(os), config);
+        return wax;
+    }
+
+    /**
+     * @return the number of WAX objects in the pool;
+     *         it may change as soon as it is returned
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < slots.length(); ++i) {
+            if (slots.get(i) != null) ++size;
+        }
+        return size;
+    }
+
+    /**
+     * @return the index of the first slot tried by the current thread
+     */
+    private int firstSlot() {
+        final long id = Thread.currentThread().getId();
+        return Long.hashCode(id * 0x9E3779B97F4A7C15L) & mask;
+    }
+
+    private PooledWAX take() {
+        final int first = firstSlot();
+        for (int i = 0; i < PROBES; ++i) {
+            final int slot = (first + i) & mask;
+            if (slots.get(slot) != null) {
+                final PooledWAX wax = slots.getAndSet(slot, null);
+                if (wax != null) return wax;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts a WAX that has been closed back in the pool,
+     * unless it has grown too large or its slots are full.
+     * Its indention table is bounded by its depth, and is replaced
+     * when it is reused anyway.
+     * @param wax the WAX
+     */
+    /* package */ void release(PooledWAX wax) {
+        if (wax.getReusedDepth() > maxDepth
+            || wax.getRetainedEntries() > MAX_RETAINED_ENTRIES
+            || wax.getXMLWriter().getBufferCapacity() > bufferSize) {
+            return;
+        }
+
+        final int first = firstSlot();
+        for (int i = 0; i < PROBES; ++i) {
+            final int slot = (first + i) & mask;
+            if (slots.get(slot) == null
+                && slots.compareAndSet(slot, null, wax)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.ociweb.xml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A <code>Flow.Publisher</code> of a document in UTF-8 for non-blocking
+ * code that can't call a Writer.  The document is written by a
+ * <code>WAXSource</code> a piece at a time, only while the subscriber
+ * has requested more buffers, so at most one piece of it is in memory
+ * however slow the subscriber is.
+ * Each buffer is passed to <code>onNext</code> once and isn't used
+ * again by the publisher.
+ *
+ * <p>
+ * The pieces are written on the thread that calls <code>request</code>,
+ * or by an Executor if one is given; either way, only one thread writes
+ * at a time.  A document can be published to only one subscriber.
+ * Exceptions thrown by the source, and a RejectedExecutionException
+ * thrown by the Executor, are passed to <code>onError</code>.
+ * </p>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+public class WAXPublisher implements Flow.Publisher<ByteBuffer> {
+
+    /**
+     * The largest number of bytes passed in one buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    private final WAXInputStream in;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Creates a Publisher of a document that uses a given configuration,
+     * written on the threads that request buffers.
+     * @param config the configuration
+     * @param source writes the document
+     * @throws IllegalArgumentException
+     *             if <code>config</code> or <code>source</code> is null
+     */
+    public WAXPublisher(WAXConfig config, WAXSource source) {
+        this(config, source, null);
+    }
+
+    /**
+     * Creates a Publisher of a document that uses a given configuration,
+     * written by an Executor.
+     * @param config the configuration
+     * @param source writes the document
+     * @param executor runs the writing and the calls to the subscriber,
+     *                 or null to use the threads that request buffers
+     * @throws IllegalArgumentException
+     *             if <code>config</code> or <code>source</code> is null
+     */
+    public WAXPublisher(WAXConfig config, WAXSource source, Executor executor) {
+        this.in = new WAXInputStream(config, source);
+        this.executor = executor;
+    }
+
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {}
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException(
+                "a document can only be published to one subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Subscription(subscriber));
+    }
+
+    /**
+     * The one subscription to the document.  Calls to request and cancel
+     * only record what was asked for; whichever call finds no other
+     * thread writing becomes the one that writes, until it has
+     * satisfied everything asked for while it was writing.
+     */
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private final byte[] bytes = new byte[BUFFER_SIZE];
+        private volatile boolean cancelled;
+        private volatile IllegalArgumentException badRequest;
+        private boolean done;
+
+        Subscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException(
+                    n + " is an invalid number of buffers");
+            } else {
+                long current, next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() != 0) return;
+
+            if (executor == null) {
+                run();
+                return;
+            }
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException exception) {
+                // This thread still holds the work, so it can end the
+                // subscription; later calls find it done.
+                if (!done) {
+                    finish();
+                    subscriber.onError(exception);
+                }
+                work.set(0);
+            }
+        }
+
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            while (!done) {
+                if (cancelled) {
+                    finish();
+                } else if (badRequest != null) {
+                    finish();
+                    subscriber.onError(badRequest);
+                } else if (demand.get() == 0) {
+                    return;
+                } else {
+                    final int count;
+                    try {
+                        count = in.read(bytes, 0, bytes.length);
+                    } catch (IOException | RuntimeException exception) {
+                        finish();
+                        subscriber.onError(exception);
+                        return;
+                    }
+
+                    if (count == -1) {
+                        finish();
+                        subscriber.onComplete();
+                    } else {
+                        demand.decrementAndGet();
+                        subscriber.onNext(
+                            ByteBuffer.wrap(Arrays.copyOf(bytes, count)));
+                    }
+                }
+            }
+        }
+
+        private void finish() {
+            done = true;
+            in.close();
+        }
+    }
+}
@@ -116,29 +116,43 @@ public final class XMLUtil {
         String text = value.toString();
 
         // Escape special characters in text.
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = null;
         for (int i = 0; i < text.length(); ++i) {
             char c = text.charAt(i);
-            if (c == '<') {
-                sb.append("&lt;");
-            } else if (c == '>') {
-                sb.append("&gt;");
-            } else if (c == '\'') {
-                sb.append("&apos;");
-            } else if (c == '"') {
-                sb.append("&quot;");
-            } else if (c == '&') {
-                sb.append("&amp;");
-            } else if (c == '\n') {
-                sb.append("&#xA;");
-            } else if (c == '\t') {
-                sb.append("&#x9;");
-            } else {
+            String entity = getEntity(c);
+            if (entity != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(text.length() + 16);
+                    sb.append(text, 0, i);
+                }
+                sb.append(entity);
+            } else if (sb != null) {
                 sb.append(c);
             }
         }
         
-        return sb.toString();
+        // Text without special characters is returned as is.
+        return sb == null ? text : sb.toString();
+    }
+
+    /**
+     * Gets the entity reference that replaces a special character
+     * when escaping XML text.
+     * @param c the character
+     * @return the entity reference, or null if <code>c</code>
+     *         doesn't need to be escaped
+     */
+    /* package */ static String getEntity(char c) {
+        switch (c) {
+            case '<': return "&lt;";
+            case '>': return "&gt;";
+            case '\'': return "&apos;";
+            case '"': return "&quot;";
+            case '&': return "&amp;";
+            case '\n': return "&#xA;";
+            case '\t': return "&#x9;";
+            default: return null;
+        }
     }
 
     /**
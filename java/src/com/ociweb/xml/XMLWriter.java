@@ -1,6 +1,7 @@
 package com.ociweb.xml;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -50,7 +51,45 @@ import java.util.List;
 
     private static final int MAX_INDENT_IN_SPACES = 4;
 
-    private final Writer writer;
+    /**
+     * The number of characters collected before they are passed to the Writer.
+     */
+    /* package */ static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * The longest text needed to write a <code>long</code> value.
+     */
+    private static final String MIN_LONG = String.valueOf(Long.MIN_VALUE);
+
+    /**
+     * The Writer that output is passed to, or null when the whole document
+     * is kept in a buffer that grows as needed.
+     */
+    private Writer writer;
+
+    /**
+     * Output is collected here and passed to the Writer in large blocks,
+     * or after every write when <code>passThrough</code> is set.
+     * Writing single characters and substrings straight to most Writers
+     * allocates an object per call, so collecting them here keeps
+     * steady-state writing free of garbage.
+     */
+    private char[] buffer;
+    private int bufferCount;
+
+    /**
+     * The number of characters passed to the Writer so far.
+     */
+    private long writtenCount;
+
+    /**
+     * True if output is passed to the Writer after every write instead of
+     * when the buffer is full.  It is set for a WAX created by one of its
+     * constructors, whose output has always reached the Writer as soon as
+     * it is written; collecting it in the buffer is chosen by creating
+     * the WAX with a configuration, as WAXFactory does.
+     */
+    private boolean passThrough;
 
     private String lineSeparator;
     private String indent = "  ";
@@ -63,31 +102,142 @@ import java.util.List;
     private boolean isClosed;
     private boolean outputStarted;
     private boolean spaceInEmptyElements;
+
+    /**
+     * When not <code>null</code>, short values are escaped through it.
+     */
+    private EscapeCache escapeCache;
     private boolean verifyUsage;
 
     private int indentionLevel = 0;
 
+    /**
+     * The indent string repeated for as many levels as have been needed so
+     * far. The indention for any level is written as a prefix of this array,
+     * so deep documents don't build a new indent string for every line.
+     * It is discarded whenever the indent string changes.
+     */
+    private char[] indentChars = new char[0];
+
     public XMLWriter(final Writer writer, final boolean verifyUsage) {
         this.writer = writer;
+        this.buffer = new char[DEFAULT_BUFFER_SIZE];
         this.verifyUsage = verifyUsage;
         this.lineSeparator = System.getProperty("line.separator");
+        this.passThrough = true;
     }
 
     /**
-     * @param count
-     * @param stringToCopy
-     * @return a <code>String</code> which is <code>count</code> copies of
-     *         <code>stringToCopy</code> concatinated together.
+     * Creates an XMLWriter whose settings come from a shared configuration.
+     * The settings were verified when the configuration was created,
+     * so they aren't verified again here.
+     *
+     * @param writer the Writer
+     * @param config the configuration
      */
-    private static String nCopies(final int count, final String stringToCopy) {
-        final int capacity = count * stringToCopy.length();
+    public XMLWriter(final Writer writer, final WAXConfig config) {
+        this(writer, config, DEFAULT_BUFFER_SIZE);
+    }
 
-        final StringBuilder sb = new StringBuilder(capacity);
-        for (int idx = 0; idx < count; ++idx) {
-            sb.append(stringToCopy);
-        }
+    /**
+     * Creates an XMLWriter whose settings come from a shared configuration
+     * and whose buffer holds a given number of characters.
+     * A document that fits in the buffer is passed to the Writer
+     * in a single call when it is closed.
+     *
+     * @param writer the Writer
+     * @param config the configuration
+     * @param bufferSize the buffer size, at least 64 characters
+     */
+    public XMLWriter(
+        final Writer writer, final WAXConfig config, final int bufferSize) {
+        this.writer = writer;
+        this.buffer = new char[bufferSize];
+        this.verifyUsage = !config.isTrustMe();
+        this.lineSeparator = config.getLineSeparator();
+        this.indent = config.getIndent();
+        this.indentChars = config.getIndentChars();
+        this.schemaVersion = config.getSchemaVersion();
+        this.spaceInEmptyElements = config.isSpaceInEmptyElements();
+        this.escapeCache = config.getEscapeCache();
+    }
 
-        return sb.toString();
+    /**
+     * Creates an XMLWriter that keeps the whole document in its buffer,
+     * which grows as needed, instead of passing it to a Writer.
+     *
+     * @param config the configuration
+     * @param capacity the initial buffer size, in characters
+     */
+    public XMLWriter(final WAXConfig config, final int capacity) {
+        this(null, config, capacity);
+    }
+
+    /**
+     * Creates an XMLWriter that keeps a fragment of the document of another
+     * XMLWriter in a given buffer, which grows as needed.  It has the same
+     * settings and starts at the same indention level.
+     *
+     * @param settings the XMLWriter whose settings are copied
+     * @param buffer the initial buffer
+     */
+    /* package */ XMLWriter(final XMLWriter settings, final char[] buffer) {
+        this(settings, null, buffer);
+    }
+
+    /**
+     * Creates an XMLWriter that writes a fragment of the document of another
+     * XMLWriter to a Writer of its own.  It has the same settings and starts
+     * at the same indention level.
+     *
+     * @param settings the XMLWriter whose settings are copied
+     * @param writer the Writer, or null to keep the fragment in the buffer,
+     *               which grows as needed
+     * @param buffer the buffer
+     */
+    /* package */ XMLWriter(final XMLWriter settings, final Writer writer,
+        final char[] buffer) {
+        this.writer = writer;
+        this.buffer = buffer;
+        this.verifyUsage = settings.verifyUsage;
+        this.lineSeparator = settings.lineSeparator;
+        this.indent = settings.indent;
+        this.indentChars = settings.indentChars;
+        this.indentionLevel = settings.indentionLevel;
+        this.schemaVersion = settings.schemaVersion;
+        this.attrOnNewLine = settings.attrOnNewLine;
+        this.spaceInEmptyElements = settings.spaceInEmptyElements;
+        this.escapeCache = settings.escapeCache;
+        this.passThrough = settings.passThrough;
+    }
+
+    /**
+     * Makes this XMLWriter, which has been closed, ready to write another
+     * document to a different Writer with the same buffer.  The settings
+     * come from the configuration again, undoing any changes to them.
+     *
+     * @param writer the Writer
+     * @param config the configuration
+     */
+    /* package */ void recycle(final Writer writer, final WAXConfig config) {
+        this.writer = writer;
+        this.bufferCount = 0;
+        this.writtenCount = 0;
+        this.verifyUsage = !config.isTrustMe();
+        this.lineSeparator = config.getLineSeparator();
+        this.indent = config.getIndent();
+        this.indentChars = config.getIndentChars();
+        this.indentionLevel = 0;
+        this.schemaVersion = config.getSchemaVersion();
+        this.attrOnNewLine = false;
+        this.spaceInEmptyElements = config.isSpaceInEmptyElements();
+        this.escapeCache = config.getEscapeCache();
+        this.closeStream = true;
+        this.hasContent = false;
+        this.hasIndentedContent = false;
+        this.outputStarted = false;
+        this.isClosed = false;
+        this.passThrough = false;
     }
 
     /**
@@ -99,10 +249,15 @@ import java.util.List;
      */
     public void close() {
         try {
-            if (closeStream) {
-                writer.close();
-            } else {
-                writer.flush();
+            flushBuffer();
+
+            // Without a Writer, the document stays in the buffer.
+            if (writer != null) {
+                if (closeStream) {
+                    writer.close();
+                } else {
+                    writer.flush();
+                }
             }
         } catch (IOException ioException) {
             throw new WAXIOException(ioException);
@@ -111,6 +266,160 @@ import java.util.List;
         isClosed = true;
     }
 
+    /**
+     * Writes all the buffered output to the Writer without flushing it.
+     *
+     * @throws WAXIOException
+     *             if an I/O error occurs.
+     */
+    /* package */ void passBuffer() {
+        try {
+            flushBuffer();
+        } catch (final IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Writes all the buffered output to the Writer and flushes it.
+     *
+     * @throws WAXIOException
+     *             if an I/O error occurs.
+     */
+    public void flush() {
+        if (writer == null) return;
+
+        try {
+            flushBuffer();
+            writer.flush();
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Passes the buffered output to the Writer right away
+     * unless output is being collected in the buffer.
+     *
+     * @throws WAXIOException
+     *             if an I/O error occurs.
+     */
+    private void passOn() {
+        if (!passThrough) return;
+
+        try {
+            flushBuffer();
+        } catch (IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
+    }
+
+    /**
+     * Passes the buffered output to the Writer.
+     * @throws IOException if the Writer throws it
+     */
+    private void flushBuffer() throws IOException {
+        if (bufferCount > 0 && writer != null) {
+            final int count = bufferCount;
+            bufferCount = 0;
+            writer.write(buffer, 0, count);
+            writtenCount += count;
+        }
+    }
+
+    /**
+     * Gets the buffer, which holds the whole document
+     * when there is no Writer.  It must not be modified.
+     * @return the buffer; the first <code>getCharCount()</code>
+     *         characters are in use when there is no Writer
+     */
+    /* package */ char[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the number of characters in the buffer
+     */
+    /* package */ int getBufferCount() {
+        return bufferCount;
+    }
+
+    /**
+     * @return the size of the buffer, which may have grown
+     */
+    /* package */ int getBufferCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Removes characters from the start of the buffer when there is
+     * no Writer, after they have been passed on some other way.
+     * The characters after them are moved to the start.
+     * @param count the number of characters to remove
+     */
+    /* package */ void discard(final int count) {
+        bufferCount -= count;
+        System.arraycopy(buffer, count, buffer, 0, bufferCount);
+        writtenCount += count;
+    }
+
+    /**
+     * @return the number of characters written so far,
+     *         including those still in the buffer
+     */
+    public long getCharCount() {
+        return writtenCount + bufferCount;
+    }
+
+    /**
+     * Makes room in the buffer for at least the given number of characters,
+     * which must not be more than its size.
+     *
+     * @param length the number of characters
+     * @throws IllegalStateException
+     *             if attempting to write additional XML data after the output
+     *             stream has been closed.
+     * @throws WAXIOException
+     *             if an I/O error occurs.
+     */
+    private void reserve(final int length) {
+        if (isClosed) {
+            throw new IllegalStateException(
+                "attempting to write XML after close has been called");
+        }
+
+        if (buffer.length - bufferCount < length) {
+            if (writer == null) {
+                grow(bufferCount + length);
+            } else {
+                try {
+                    flushBuffer();
+                } catch (final IOException ioException) {
+                    throw new WAXIOException(ioException);
+                }
+            }
+        }
+
+        outputStarted = true;
+    }
+
+    /**
+     * Makes the buffer big enough for at least the given number of
+     * characters, at least doubling it so that a document is copied
+     * only a few times as it grows.
+     *
+     * @param minCapacity the number of characters needed
+     */
+    private void grow(final int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("document is too large for a buffer");
+        }
+
+        final int doubled = buffer.length * 2;
+        buffer = Arrays.copyOf(buffer,
+            doubled < 0 ? Integer.MAX_VALUE - 8 : Math.max(doubled, minCapacity));
+    }
+
     /**
      * Calling this method prevents this class from closing the
      * <code>Writer</code> (and any <code>OutputStream</code> it may
@@ -121,21 +430,38 @@ import java.util.List;
     }
 
     /**
-     * @return an indention <code>String</code> for the current level of
-     *         indention.
+     * Makes sure that <code>indentChars</code> holds at least the given number
+     * of indention levels. It grows by doubling so that the cost of
+     * filling it is spread over all the lines written.
+     *
+     * @param levels the number of levels needed
+     * @return the number of characters used by that many levels
      */
-    private String getFullIndent() {
-        return nCopies(indentionLevel, indent);
+    private int ensureIndentChars(final int levels) {
+        final int indentLength = indent.length();
+        final int needed = levels * indentLength;
+        if (needed > indentChars.length) {
+            final int currentLevels = indentChars.length / indentLength;
+            indentChars =
+                repeatIndent(indent, Math.max(levels, currentLevels * 2));
+        }
+        return needed;
     }
 
     /**
-     * @return an indention <code>String</code> for the child of the current
-     *         level of indention. (IE: Returns the indention
-     *         <code>String</code> for one more than the current level of
-     *         indention.
+     * @param indent the indent string for one level
+     * @param levels the number of levels
+     * @return an array holding <code>levels</code> copies of
+     *         <code>indent</code>
      */
-    private String getFullIndentForChild() {
-        return nCopies(indentionLevel + 1, indent);
+    /* package */ static char[] repeatIndent(
+        final String indent, final int levels) {
+        final int indentLength = indent.length();
+        final char[] chars = new char[levels * indentLength];
+        for (int i = 0; i < chars.length; i += indentLength) {
+            indent.getChars(0, indentLength, chars, i);
+        }
+        return chars;
     }
 
     /**
@@ -167,10 +493,8 @@ import java.util.List;
      */
     public String getWhiteSpaceBreakForChildLevel() {
         if (isIndentDefined()) {
-            final StringBuilder sb = new StringBuilder();
-            sb.append(lineSeparator);
-            sb.append(getFullIndentForChild());
-            return sb.toString();
+            final int length = ensureIndentChars(indentionLevel + 1);
+            return lineSeparator + new String(indentChars, 0, length);
         } else {
             return " ";
         }
@@ -207,7 +531,44 @@ import java.util.List;
         hasContent = hasIndentedContent = false;
     }
 
+    /**
+     * Records that a child element was written somewhere else,
+     * so the end tag of the current element goes on a new line.
+     */
+    /* package */ void childWritten() {
+        hasContent = hasIndentedContent = true;
+    }
+
+    /**
+     * @return the number of unended elements
+     */
+    /* package */ int getIndentionLevel() {
+        return indentionLevel;
+    }
+
+    /**
+     * Sets the number of unended elements before any are written, for
+     * a fragment of a document that will be passed to its Writer later.
+     * @param indentionLevel the number of unended elements
+     */
+    /* package */ void setIndentionLevel(final int indentionLevel) {
+        this.indentionLevel = indentionLevel;
+    }
+
     public void setIndent(final int numSpaces) {
+        setIndentChars(makeIndent(numSpaces, verifyUsage));
+    }
+
+    /**
+     * @param numSpaces the number of spaces to indent each level
+     * @param verifyUsage true to reject unreasonable indentation
+     * @return the indent string
+     * @throws IllegalArgumentException
+     *             if <code>numSpaces</code> is negative, or
+     *             if it is more than four and <code>verifyUsage</code> is true.
+     */
+    /* package */ static String makeIndent(
+        final int numSpaces, final boolean verifyUsage) {
         if (numSpaces < 0) {
             throw new IllegalArgumentException(
                 "can't indent a negative number of spaces");
@@ -218,9 +579,10 @@ import java.util.List;
                 + " is an unreasonable indentation");
         }
 
-        indent = "";
+        final StringBuilder sb = new StringBuilder(numSpaces);
         for (int i = 0; i < numSpaces; i++)
-            indent += ' ';
+            sb.append(' ');
+        return sb.toString();
     }
 
     /**
@@ -241,30 +603,43 @@ import java.util.List;
      * @throws IllegalArgumentException
      */
     public void setIndent(final String indent) {
-        if (verifyUsage) {
-            boolean valid =
-                indent == null
-                || indent.length() == 0
-                || "\t".equals(indent);
-
-            if (!valid) {
-                // It can only be valid now if every character is a space.
-                valid = true; // assume
-                for (int i = 0; i < indent.length(); ++i) {
-                    if (indent.charAt(i) != ' ') {
-                        valid = false;
-                        break;
-                    }
+        if (verifyUsage) verifyIndent(indent);
+        setIndentChars(indent);
+    }
+
+    /**
+     * Verifies that an indent string follows the rules
+     * described in <code>setIndent(String)</code>.
+     *
+     * @param indent the indent string
+     * @throws IllegalArgumentException if it doesn't
+     */
+    /* package */ static void verifyIndent(final String indent) {
+        boolean valid =
+            indent == null
+            || indent.length() == 0
+            || "\t".equals(indent);
+
+        if (!valid) {
+            // It can only be valid now if every character is a space.
+            valid = true; // assume
+            for (int i = 0; i < indent.length(); ++i) {
+                if (indent.charAt(i) != ' ') {
+                    valid = false;
+                    break;
                 }
             }
+        }
 
-            if (!valid
-                || (indent != null && indent.length() > MAX_INDENT_IN_SPACES)) {
-                throw new IllegalArgumentException("invalid indent value");
-            }
+        if (!valid
+            || (indent != null && indent.length() > MAX_INDENT_IN_SPACES)) {
+            throw new IllegalArgumentException("invalid indent value");
         }
+    }
 
+    private void setIndentChars(final String indent) {
         this.indent = indent;
+        indentChars = new char[0];
     }
 
     public void setLineSeparator(final String lineSeparator) {
@@ -273,19 +648,28 @@ import java.util.List;
                 "can't change CR characters after output has started");
         }
 
-        if (verifyUsage) {
-            boolean valid = WAX.MAC_LINE_SEPARATOR.equals(lineSeparator)
-                || WAX.UNIX_LINE_SEPARATOR.equals(lineSeparator)
-                || WAX.WINDOWS_LINE_SEPARATOR.equals(lineSeparator);
-            if (!valid) {
-                throw new IllegalArgumentException(
-                    "invalid line separator characters");
-            }
-        }
+        if (verifyUsage) verifyLineSeparator(lineSeparator);
 
         this.lineSeparator = lineSeparator;
     }
 
+    /**
+     * Verifies that line separator characters are one of the
+     * recognized (Mac, Unix or Windows) sequences.
+     *
+     * @param lineSeparator the line separator characters
+     * @throws IllegalArgumentException if they aren't
+     */
+    /* package */ static void verifyLineSeparator(final String lineSeparator) {
+        boolean valid = WAX.MAC_LINE_SEPARATOR.equals(lineSeparator)
+            || WAX.UNIX_LINE_SEPARATOR.equals(lineSeparator)
+            || WAX.WINDOWS_LINE_SEPARATOR.equals(lineSeparator);
+        if (!valid) {
+            throw new IllegalArgumentException(
+                "invalid line separator characters");
+        }
+    }
+
     /**
      * Sets the part of the xsi namespace URI that specifies
      * the version of XML Schema being used.
@@ -295,6 +679,20 @@ import java.util.List;
         this.schemaVersion = schemaVersion;
     }
 
+    /**
+     * Sets the cache that short values are escaped through.
+     * 
+     * @param escapeCache
+     *            the cache, or null to escape every value again
+     */
+    public void setEscapeCache(final EscapeCache escapeCache) {
+        this.escapeCache = escapeCache;
+    }
+
+    public EscapeCache getEscapeCache() {
+        return escapeCache;
+    }
+
     /**
      * Sets whether a space will be added before the closing slash in empty
      * elements. When set true, output will look like "<tag />". When set false,
@@ -319,7 +717,41 @@ import java.util.List;
      *            the character to write
      */
     public void write(char chr) {
-        write(String.valueOf(chr));
+        reserve(1);
+        buffer[bufferCount++] = chr;
+        passOn();
+    }
+
+    /**
+     * Writes a portion of a character array to the stream.
+     *
+     * @param chars the characters
+     * @param offset the index of the first character to write
+     * @param length the number of characters to write
+     * @throws IllegalStateException
+     *             if attempting to write additional XML data after the output
+     *             stream has been closed.
+     * @throws WAXIOException
+     *             if an I/O error occurs.
+     */
+    /* package */ void write(
+        final char[] chars, final int offset, final int length) {
+        if (length <= buffer.length || writer == null) {
+            reserve(length);
+            System.arraycopy(chars, offset, buffer, bufferCount, length);
+            bufferCount += length;
+            passOn();
+            return;
+        }
+
+        // Too big to buffer, so pass it straight to the Writer.
+        reserve(buffer.length);
+        try {
+            writer.write(chars, offset, length);
+            writtenCount += length;
+        } catch (final IOException ioException) {
+            throw new WAXIOException(ioException);
+        }
     }
 
     /**
@@ -334,42 +766,98 @@ import java.util.List;
      *             if an I/O error occurs.
      */
     public void write(final String text) {
+        write(text, 0, text.length());
+    }
+
+    /**
+     * Writes part of a string value to the stream.
+     *
+     * @param text the String containing the characters to write
+     * @param offset the index of the first character to write
+     * @param length the number of characters to write
+     * @throws IllegalStateException
+     *             if attempting to write additional XML data after the output
+     *             stream has been closed.
+     * @throws WAXIOException
+     *             if an I/O error occurs.
+     */
+    public void write(final String text, int offset, int length) {
         if (isClosed) {
             throw new IllegalStateException(
                 "attempting to write XML after close has been called");
         }
 
-        try {
-            writer.write(text);
-            outputStarted = true;
-        } catch (final IOException ioException) {
-            throw new WAXIOException(ioException);
+        // Without a Writer, room for everything is made at once.
+        if (writer == null) reserve(length);
+
+        while (length > 0) {
+            reserve(1);
+            final int count =
+                Math.min(length, buffer.length - bufferCount);
+            text.getChars(offset, offset + count, buffer, bufferCount);
+            bufferCount += count;
+            offset += count;
+            length -= count;
         }
+        passOn();
     }
 
-    public void writeAttributeEqualsValue(final String qualifiedName,
-        final Object value, final boolean newLine, final boolean escape) {
+    /**
+     * Writes the end of an attribute, its closing quote.
+     */
+    public void writeAttributeEnd() {
+        write('"');
+    }
+
+    /**
+     * Writes the beginning of an attribute, up to and including the
+     * opening quote of its value.
+     *
+     * @param prefix the namespace prefix, or null
+     * @param name the attribute name
+     * @param newLine true to write it on a new line; false otherwise
+     */
+    public void writeAttributeStart(final String prefix, final String name,
+        final boolean newLine) {
         if (newLine) {
             writeLineBreakAndFullIndent();
         } else {
             write(' ');
         }
 
-        writeNameEqualsValue(qualifiedName, value, escape);
+        writeQualifiedName(prefix, name);
+        write("=\"");
+    }
+
+    /**
+     * Writes an attribute value, between its quotes.
+     *
+     * @param value an Object whose toString value is written
+     * @param escape true to escape special characters; false otherwise
+     */
+    public void writeAttributeValue(final Object value, final boolean escape) {
+        if (!escape) {
+            write(value.toString());
+        } else if (value != null) {
+            writeEscaped(value.toString());
+        }
     }
 
     public void writeComment(final String text, final boolean newLine) {
         if (indentionLevel > 0) writeLineBreakAndFullIndent();
 
+        // A null comment has always been written as "null".
+        final String comment = String.valueOf(text);
+
         if (newLine && isIndentDefined()) {
             write("<!--");
             writeLineBreakAndFullIndentInChild();
-            write(text);
+            write(comment);
             writeLineBreakAndFullIndent();
             write("-->");
         } else {
             write("<!-- ");
-            write(text);
+            write(comment);
             write(" -->");
         }
 
@@ -408,7 +896,7 @@ import java.util.List;
         if (isIndentDefined()) writeln();
     }
 
-    public void writeEndTag(final String qualifiedName,
+    public void writeEndTag(final String prefix, final String name,
         final boolean isCommentElement, final boolean verbose) {
         --indentionLevel;
 
@@ -418,7 +906,7 @@ import java.util.List;
         if (hasContent || verbose) {
             if (hasIndentedContent) writeLineBreakAndFullIndent();
             write("</");
-            write(qualifiedName);
+            writeQualifiedName(prefix, name);
         } else {
             if (spaceInEmptyElements) write(' ');
             write('/');
@@ -429,6 +917,94 @@ import java.util.List;
         hasContent = hasIndentedContent = true; // new setting for parent
     }
 
+    /**
+     * Writes text with the same escaping as <code>XMLUtil.escape</code>.
+     * Runs of characters that don't need escaping are copied straight into
+     * the buffer, so no escaped String is built.  Very long text is
+     * escaped in pieces by fork/join tasks.
+     *
+     * @param text the text
+     */
+    public void writeEscaped(final String text) {
+        final int length = text.length();
+        if (escapeCache != null && length <= escapeCache.getMaxLength()) {
+            write(escapeCache.escape(text));
+        } else if (ParallelText.isWorthwhile(length)) {
+            new ParallelText(this, text, false).write();
+        } else {
+            writeEscaped(text, 0, length);
+        }
+    }
+
+    /**
+     * Writes part of a String with the same escaping as
+     * <code>XMLUtil.escape</code>.
+     *
+     * @param text the String
+     * @param start the index of the first character to write
+     * @param end the index just past the last character to write
+     */
+    /* package */ void writeEscaped(
+        final String text, final int start, final int end) {
+        int run = start;
+        for (int i = start; i < end; ++i) {
+            final String entity = XMLUtil.getEntity(text.charAt(i));
+            if (entity != null) {
+                write(text, run, i - run);
+                write(entity);
+                run = i + 1;
+            }
+        }
+
+        write(text, run, end - run);
+    }
+
+    /**
+     * Writes a CDATA section.  Each "]]&gt;" in the text ends the
+     * section after its "]]" and starts another before its "&gt;".
+     * Very long text is written in pieces by fork/join tasks.
+     *
+     * @param text the text
+     * @param newLine true to write the section on a new line
+     */
+    public void writeCData(final String text, final boolean newLine) {
+        if (newLine) writeLineBreakAndFullIndent();
+        write("<![CDATA[");
+        if (ParallelText.isWorthwhile(text.length())) {
+            new ParallelText(this, text, true).write();
+        } else {
+            writeCDataContent(text, 0, text.length());
+        }
+        write("]]>");
+
+        hasContent = true;
+        hasIndentedContent = newLine;
+    }
+
+    /**
+     * Writes part of the text of a CDATA section, which must not
+     * split a "]]&gt;".
+     *
+     * @param text the text
+     * @param start the index of the first character to write
+     * @param end the index just past the last character to write
+     */
+    /* package */ void writeCDataContent(
+        final String text, final int start, final int end) {
+        int run = start;
+        for (int i = start; i < end - 2; ++i) {
+            if (text.charAt(i) == ']' && text.charAt(i + 1) == ']'
+                && text.charAt(i + 2) == '>') {
+                write(text, run, i + 2 - run);
+                write("]]><![CDATA[");
+                run = i + 2;
+                i += 2;
+            }
+        }
+
+        write(text, run, end - run);
+    }
+
     /**
      * If indention is being done, then write a line separator character and
      * then write the appropriate indention spaces. In other words, write a new
@@ -437,7 +1013,8 @@ import java.util.List;
     private void writeLineBreakAndFullIndent() {
         if (isIndentDefined()) {
             writeln();
-            write(getFullIndent());
+            final int length = ensureIndentChars(indentionLevel);
+            if (length > 0) write(indentChars, 0, length);
         }
     }
 
@@ -461,13 +1038,68 @@ import java.util.List;
         writeln();
     }
 
-    private void writeNameEqualsValue(final String qualifiedName,
-        final Object value, final boolean escape) {
-        write(qualifiedName);
+    /**
+     * Writes the decimal digits of a <code>long</code> value
+     * without creating a String.
+     *
+     * @param value the value
+     */
+    public void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            // It has no positive counterpart.
+            write(MIN_LONG);
+            return;
+        }
+
+        reserve(MIN_LONG.length());
+        if (value < 0) {
+            buffer[bufferCount++] = '-';
+            value = -value;
+        }
+
+        appendDigits(value, countDigits(value));
+        passOn();
+    }
+
+    /**
+     * Writes the decimal digits of a value that isn't negative,
+     * with leading zeros added to make up a minimum width.
+     *
+     * @param value the value
+     * @param width the minimum number of digits
+     */
+    public void writePadded(final long value, final int width) {
+        final int digits = countDigits(value);
+        reserve(Math.max(digits, width));
+        for (int i = digits; i < width; ++i) buffer[bufferCount++] = '0';
+        appendDigits(value, digits);
+        passOn();
+    }
 
-        write("=\"");
-        write(escape ? XMLUtil.escape(value) : value.toString());
-        write('"');
+    /**
+     * @param value a value that isn't negative
+     * @return the number of decimal digits in the value
+     */
+    private static int countDigits(final long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) ++digits;
+        return digits;
+    }
+
+    /**
+     * Puts the decimal digits of a value that isn't negative into the
+     * buffer, which must already have room for them.
+     *
+     * @param value the value
+     * @param digits the number of digits in the value
+     */
+    private void appendDigits(long value, final int digits) {
+        bufferCount += digits;
+        int index = bufferCount;
+        do {
+            buffer[--index] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
     }
 
     public void writeNamespaceDeclaration(
@@ -476,8 +1108,13 @@ import java.util.List;
         writeWhiteSpaceBreak();
 
         write("xmlns");
-        if (XMLUtil.hasValue(prefix)) write(':' + prefix);
-        write("=\"" + uri + '"');
+        if (XMLUtil.hasValue(prefix)) {
+            write(':');
+            write(prefix);
+        }
+        write("=\"");
+        write(uri);
+        write('"');
 
         attrOnNewLine = true; // for the next attribute
     }
@@ -487,7 +1124,11 @@ import java.util.List;
 
         if (indentionLevel > 0) writeLineBreakAndFullIndent();
 
-        write("<?" + target + ' ' + data + "?>");
+        write("<?");
+        write(target);
+        write(' ');
+        write(data);
+        write("?>");
 
         if (indentionLevel == 0 && isIndentDefined()) writeln();
 
@@ -499,18 +1140,34 @@ import java.util.List;
         this.attrOnNewLine = false; // reset
     }
 
+    /**
+     * Writes a name with its optional namespace prefix,
+     * without building the qualified name String.
+     *
+     * @param prefix the namespace prefix, or null
+     * @param name the name
+     */
+    private void writeQualifiedName(final String prefix, final String name) {
+        if (XMLUtil.hasValue(prefix)) {
+            write(prefix);
+            write(':');
+        }
+        write(name);
+    }
+
     /**
      * Write the opening and name portion of a start tag.
      * 
-     * @param qualifiedName
+     * @param prefix
+     * @param name
      * @param inCommentedStart
      */
-    public void writeStartTagOpen(
-        final String qualifiedName, final boolean inCommentedStart) {
+    public void writeStartTagOpen(final String prefix, final String name,
+        final boolean inCommentedStart) {
 
         if (indentionLevel > 0) writeLineBreakAndFullIndent();
         write(inCommentedStart ? "<!--" : "<");
-        write(qualifiedName);
+        writeQualifiedName(prefix, name);
 
         ++indentionLevel;
     }
@@ -519,7 +1176,11 @@ import java.util.List;
         final String text, final boolean newLine, final boolean escape) {
         if (text != null && text.length() > 0) {
             if (newLine) writeLineBreakAndFullIndent();
-            write(escape ? XMLUtil.escape(text) : text);
+            if (escape) {
+                writeEscaped(text);
+            } else {
+                write(text);
+            }
         } else if (newLine) {
             writeln();
         }
@@ -528,6 +1189,15 @@ import java.util.List;
         hasIndentedContent = newLine;
     }
 
+    /**
+     * Records that a value was written inside the content of the current
+     * element, without a new line, by one of the other write methods.
+     */
+    public void textWritten() {
+        hasContent = true;
+        hasIndentedContent = false;
+    }
+
     /**
      * Write a white space "break" at the current indention level. When
      * indention is disabled, write only a single space.
@@ -541,6 +1211,14 @@ import java.util.List;
     }
 
     public void writeXMLDeclaration(final String versionString) {
+        writeln(makeXMLDeclaration(versionString));
+    }
+
+    /**
+     * @param versionString the XML version
+     * @return the XML declaration, without a line separator
+     */
+    /* package */ static String makeXMLDeclaration(final String versionString) {
         // We could also consider using the value of
         // the "file.encoding" system property.
         // However, if we did that then users would have to remember to
@@ -554,7 +1232,7 @@ import java.util.List;
             //((OutputStreamWriter) writer).getEncoding() :
             XMLUtil.DEFAULT_ENCODING;
 
-        writeln("<?xml version=\"" + versionString
-            + "\" encoding=\"" + encoding + "\"?>");
+        return "<?xml version=\"" + versionString
+            + "\" encoding=\"" + encoding + "\"?>";
     }
 }
\ No newline at end of file
@@ -0,0 +1,597 @@
+package com.ociweb.xml;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.*;
+
+/**
+ * This class writes values in the lexical forms defined by XML Schema
+ * directly into the buffer of an <code>XMLWriter</code>, without creating
+ * Strings for them.  None of these forms contain characters that must be
+ * escaped.  A null value writes nothing, the same as escaping null does.
+ * Years before 1 are written the way ISO 8601 and XML Schema 1.1 number
+ * them, so 1 BCE is written as year 0000.
+ *
+ * <p>
+ *   Doubles and floats are written with the fewest digits that still
+ *   read back as exactly the same value, using the Schubfach algorithm
+ *   described in Raffaello Giulietti's "The Schubfach way to render
+ *   doubles".  The layout is the same as <code>Double.toString</code>
+ *   except that infinities are written as INF and -INF.
+ * </p>
+ *
+ * <p>
+ *   Copyright (c) 2008, R. Mark Volkmann<br />
+ *   All rights reserved.
+ * </p>
+ * <p>
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions are met:
+ * </p>
+ * <ul>
+ *   <li>
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   </li>
+ *   <li>
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   </li>
+ *   <li>
+ *     Neither the name of Object Computing, Inc. nor the names of its
+ *     contributors may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *   </li>
+ * </ul>
+ * <p>
+ *   This software is provided by the copyright holders and contributors "as is"
+ *   and any express or implied warranties, including, but not limited to,
+ *   the implied warranties of merchantability and fitness for a particular
+ *   purpose are disclaimed. In no event shall the copyright owner or
+ *   contributors be liable for any direct, indirect, incidental, special,
+ *   exemplary, or consequential damages (including, but not limited to,
+ *   procurement of substitute goods or services; loss of use, data, or profits;
+ *   or business interruption) however caused and on any theory of liability,
+ *   whether in contract, strict liability, or tort (including negligence
+ *   or otherwise) arising in any way out of the use of this software,
+ *   even if advised of the possibility of such damage.
+ * </p>
+ * @author R. Mark Volkmann, Object Computing, Inc.
+ */
+/* package */ final class XSDFormat {
+
+    private static final int NANOS_PER_SECOND = 1000000000;
+    private static final int SECONDS_PER_MINUTE = 60;
+    private static final int SECONDS_PER_HOUR = 60 * SECONDS_PER_MINUTE;
+    private static final int SECONDS_PER_DAY = 24 * SECONDS_PER_HOUR;
+
+    /**
+     * The powers of ten that fit in a long.
+     */
+    private static final long[] POWERS_OF_TEN = new long[19];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+            POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+        }
+    }
+
+    private static final long MASK_63 = Long.MAX_VALUE;
+
+    /**
+     * The decimal exponents of the powers of ten needed to convert
+     * doubles, which also covers floats.
+     */
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+
+    /**
+     * The 126 bit approximations of the powers of ten used by
+     * <code>writeShortest</code>.  They are only computed when a
+     * double or float is first written.
+     */
+    private static final class PowersOfTen {
+
+        /**
+         * For each k, 10<sup>-k</sup> = &beta; 2<sup>r</sup> with
+         * 2<sup>125</sup> &lt;= &beta; &lt; 2<sup>126</sup>, and
+         * g = floor(&beta;) + 1 is split into its upper 63 bits in G1
+         * and its lower 63 bits in G0.
+         */
+        static final long[] G1 = new long[K_MAX - K_MIN + 1];
+        static final long[] G0 = new long[K_MAX - K_MIN + 1];
+        static {
+            final BigInteger mask = BigInteger.valueOf(MASK_63);
+            for (int k = K_MIN; k <= K_MAX; ++k) {
+                final int shift = 125 - flog2pow10(-k);
+                BigInteger beta;
+                if (k <= 0) {
+                    beta = BigInteger.TEN.pow(-k);
+                    beta = shift >= 0 ?
+                        beta.shiftLeft(shift) : beta.shiftRight(-shift);
+                } else {
+                    beta = BigInteger.ONE.shiftLeft(shift)
+                        .divide(BigInteger.TEN.pow(k));
+                }
+
+                final BigInteger g = beta.add(BigInteger.ONE);
+                G1[k - K_MIN] = g.shiftRight(63).longValue();
+                G0[k - K_MIN] = g.and(mask).longValue();
+            }
+        }
+    }
+
+    /**
+     * Describes the binary format of a floating point type.
+     */
+    private static final int DOUBLE_PRECISION = 53;
+    private static final int DOUBLE_Q_MIN = -1074;
+    private static final int DOUBLE_C_TINY = 3;
+    private static final int FLOAT_PRECISION = 24;
+    private static final int FLOAT_Q_MIN = -149;
+
+    /**
+     * Creating instances of this class is not allowed
+     * since all methods are static.
+     */
+    private XSDFormat() {
+    }
+
+    /**
+     * Writes an xsd:date value.
+     * @param out the XMLWriter
+     * @param date the date
+     */
+    public static void writeDate(XMLWriter out, LocalDate date) {
+        if (date == null) return;
+
+        writeDate(out,
+            date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+    }
+
+    /**
+     * Writes an xsd:dateTime value in UTC, ending with "Z".
+     * @param out the XMLWriter
+     * @param instant the instant
+     */
+    public static void writeDateTime(XMLWriter out, Instant instant) {
+        if (instant == null) return;
+
+        final long seconds = instant.getEpochSecond();
+        writeEpochDay(out, Math.floorDiv(seconds, SECONDS_PER_DAY));
+        out.write('T');
+        writeTime(out, Math.floorMod(seconds, SECONDS_PER_DAY),
+            instant.getNano());
+        out.write('Z');
+    }
+
+    /**
+     * Writes an xsd:dateTime value without a time zone.
+     * @param out the XMLWriter
+     * @param dateTime the date and time
+     */
+    public static void writeDateTime(XMLWriter out, LocalDateTime dateTime) {
+        if (dateTime == null) return;
+
+        writeDate(out, dateTime.getYear(), dateTime.getMonthValue(),
+            dateTime.getDayOfMonth());
+        out.write('T');
+        writeTime(out, dateTime.toLocalTime().toSecondOfDay(),
+            dateTime.getNano());
+    }
+
+    /**
+     * Writes an xsd:dateTime value with its time zone offset.
+     * XML Schema offsets are whole minutes, so a value whose offset
+     * includes seconds is written as the same instant in UTC.
+     * @param out the XMLWriter
+     * @param dateTime the date and time
+     */
+    public static void writeDateTime(XMLWriter out, OffsetDateTime dateTime) {
+        if (dateTime == null) return;
+
+        int offset = dateTime.getOffset().getTotalSeconds();
+        if (offset % SECONDS_PER_MINUTE != 0) {
+            writeDateTime(out, dateTime.toInstant());
+            return;
+        }
+
+        writeDateTime(out, dateTime.toLocalDateTime());
+        if (offset == 0) {
+            out.write('Z');
+            return;
+        }
+
+        out.write(offset < 0 ? '-' : '+');
+        offset = Math.abs(offset);
+        out.writePadded(offset / SECONDS_PER_HOUR, 2);
+        out.write(':');
+        out.writePadded(offset / SECONDS_PER_MINUTE % 60, 2);
+    }
+
+    /**
+     * Writes an xsd:duration value using hours, minutes and seconds,
+     * such as "PT36H5M0.25S".  Unlike <code>Duration.toString</code>,
+     * a negative duration has a single leading minus sign.
+     * @param out the XMLWriter
+     * @param duration the duration
+     */
+    public static void writeDuration(XMLWriter out, Duration duration) {
+        if (duration == null) return;
+
+        long seconds = duration.getSeconds();
+        int nanos = duration.getNano();
+        final boolean negative = seconds < 0;
+        if (negative) {
+            // Make seconds the whole part, rounded toward zero,
+            // without negating it since it could be Long.MIN_VALUE.
+            if (nanos > 0) {
+                seconds += 1;
+                nanos = NANOS_PER_SECOND - nanos;
+            }
+            out.write('-');
+        }
+
+        final long hours = Math.abs(seconds / SECONDS_PER_HOUR);
+        final int minutes =
+            (int) Math.abs(seconds % SECONDS_PER_HOUR / SECONDS_PER_MINUTE);
+        final int secs = (int) Math.abs(seconds % SECONDS_PER_MINUTE);
+
+        out.write("PT");
+        if (hours != 0) {
+            out.writeLong(hours);
+            out.write('H');
+        }
+        if (minutes != 0) {
+            out.writeLong(minutes);
+            out.write('M');
+        }
+        if (secs != 0 || nanos != 0 || (hours == 0 && minutes == 0)) {
+            out.writeLong(secs);
+            writeFraction(out, nanos);
+            out.write('S');
+        }
+    }
+
+    /**
+     * Writes an xsd:decimal value.  The value is written in full,
+     * without an exponent, so 1E+3 is written as 1000.
+     * A BigDecimal doesn't expose its digits, so this creates
+     * one String, but it doesn't need to be escaped.
+     * @param out the XMLWriter
+     * @param value the value
+     */
+    public static void writeDecimal(XMLWriter out, BigDecimal value) {
+        if (value == null) return;
+
+        if (value.signum() < 0) out.write('-');
+        final String digits = value.unscaledValue().abs().toString();
+        final int scale = value.scale();
+        final int length = digits.length();
+
+        if (scale <= 0) {
+            out.write(digits);
+            if (value.signum() != 0) {
+                for (int i = scale; i < 0; ++i) out.write('0');
+            }
+        } else if (length > scale) {
+            out.write(digits, 0, length - scale);
+            out.write('.');
+            out.write(digits, length - scale, scale);
+        } else {
+            out.write("0.");
+            for (int i = length; i < scale; ++i) out.write('0');
+            out.write(digits);
+        }
+    }
+
+    /**
+     * Writes an xsd:double value.
+     * @param out the XMLWriter
+     * @param value the value
+     */
+    public static void writeDouble(XMLWriter out, double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        final long t = bits & (1L << DOUBLE_PRECISION - 1) - 1;
+        final int bq = (int) (bits >>> DOUBLE_PRECISION - 1) & 0x7ff;
+        if (bq == 0x7ff) {
+            writeSpecial(out, t != 0, bits < 0);
+            return;
+        }
+
+        if (bits < 0) out.write('-');
+        if (bq != 0) {
+            final long c = 1L << DOUBLE_PRECISION - 1 | t;
+            writeNormal(out, DOUBLE_PRECISION, DOUBLE_Q_MIN,
+                DOUBLE_Q_MIN - 1 + bq, c);
+        } else if (t == 0) {
+            out.write("0.0");
+        } else if (t < DOUBLE_C_TINY) {
+            // Too small for the table, so work with ten times the value.
+            writeShortest(out, DOUBLE_PRECISION, DOUBLE_Q_MIN,
+                DOUBLE_Q_MIN, 10 * t, -1);
+        } else {
+            writeShortest(out, DOUBLE_PRECISION, DOUBLE_Q_MIN,
+                DOUBLE_Q_MIN, t, 0);
+        }
+    }
+
+    /**
+     * Writes an xsd:float value.
+     * @param out the XMLWriter
+     * @param value the value
+     */
+    public static void writeFloat(XMLWriter out, float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int t = bits & (1 << FLOAT_PRECISION - 1) - 1;
+        final int bq = (bits >>> FLOAT_PRECISION - 1) & 0xff;
+        if (bq == 0xff) {
+            writeSpecial(out, t != 0, bits < 0);
+            return;
+        }
+
+        if (bits < 0) out.write('-');
+        if (bq != 0) {
+            final long c = 1L << FLOAT_PRECISION - 1 | t;
+            writeNormal(out, FLOAT_PRECISION, FLOAT_Q_MIN,
+                FLOAT_Q_MIN - 1 + bq, c);
+        } else if (t == 0) {
+            out.write("0.0");
+        } else {
+            writeShortest(out, FLOAT_PRECISION, FLOAT_Q_MIN,
+                FLOAT_Q_MIN, t, 0);
+        }
+    }
+
+    /**
+     * Writes an xsd:integer value.
+     * @param out the XMLWriter
+     * @param value the value
+     */
+    public static void writeInteger(XMLWriter out, BigInteger value) {
+        if (value == null) return;
+
+        if (value.bitLength() < 64) {
+            out.writeLong(value.longValue());
+        } else {
+            out.write(value.toString());
+        }
+    }
+
+    /**
+     * @return floor(e log<sub>10</sub>2)
+     */
+    private static int flog10pow2(int e) {
+        return (int) (e * 661971961083L >> 41);
+    }
+
+    /**
+     * @return floor(log<sub>10</sub>(3/4 2<sup>e</sup>))
+     */
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661971961083L + -274743187321L >> 41);
+    }
+
+    /**
+     * @return floor(e log<sub>2</sub>10)
+     */
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+    /**
+     * Computes g c' 2<sup>-127</sup>, rounded to odd,
+     * where g is split into g1 and g0.
+     */
+    private static long rop(long g1, long g0, long cp) {
+        final long x1 = Math.multiplyHigh(g0, cp);
+        final long y0 = g1 * cp;
+        final long y1 = Math.multiplyHigh(g1, cp);
+        final long z = (y0 >>> 1) + x1;
+        final long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    /**
+     * Writes the date part of an xsd:date or xsd:dateTime value.
+     * Years with more than four digits are written in full,
+     * and years before 0 get a leading minus sign.
+     */
+    private static void writeDate(
+        XMLWriter out, long year, int month, int day) {
+        if (year < 0) out.write('-');
+        out.writePadded(Math.abs(year), 4);
+        out.write('-');
+        out.writePadded(month, 2);
+        out.write('-');
+        out.writePadded(day, 2);
+    }
+
+    /**
+     * Writes the date of a day counted from 1970-01-01, using the
+     * proleptic Gregorian calendar.  This is the days-to-civil algorithm
+     * from Howard Hinnant's "chrono-Compatible Low-Level Date Algorithms",
+     * which needs no LocalDate object.
+     */
+    private static void writeEpochDay(XMLWriter out, long epochDay) {
+        final long shifted = epochDay + 719468; // days from 0000-03-01
+        final long era = Math.floorDiv(shifted, 146097);
+        final long dayOfEra = shifted - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460
+            + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear =
+            dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long monthIndex = (5 * dayOfYear + 2) / 153; // March is 0
+        final int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        final int month =
+            (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        writeDate(out, year, month, day);
+    }
+
+    /**
+     * Writes a decimal value f 10<sup>e</sup> in the same layout as
+     * <code>Double.toString</code>: plain digits from 10<sup>-3</sup>
+     * up to 10<sup>7</sup>, and scientific notation outside that range.
+     */
+    private static void writeDigits(XMLWriter out, long f, int e) {
+        while (f != 0 && f % 10 == 0) {
+            f /= 10;
+            ++e;
+        }
+
+        int length = 1;
+        while (length < POWERS_OF_TEN.length && f >= POWERS_OF_TEN[length]) {
+            ++length;
+        }
+
+        // The exponent of the first digit.
+        final int exponent = e + length - 1;
+        if (exponent >= 7 || exponent < -3) {
+            writeDigitsWithPoint(out, f, length, 1);
+            out.write('E');
+            out.writeLong(exponent);
+        } else if (e >= 0) {
+            out.writeLong(f);
+            for (int i = 0; i < e; ++i) out.write('0');
+            out.write(".0");
+        } else if (exponent >= 0) {
+            writeDigitsWithPoint(out, f, length, exponent + 1);
+        } else {
+            out.write("0.");
+            for (int i = exponent + 1; i < 0; ++i) out.write('0');
+            out.writeLong(f);
+        }
+    }
+
+    /**
+     * Writes the digits of f with a decimal point after the first
+     * <code>integerDigits</code> of them, and a zero after the point
+     * if there are no more digits.
+     */
+    private static void writeDigitsWithPoint(
+        XMLWriter out, long f, int length, int integerDigits) {
+        final int fractionDigits = length - integerDigits;
+        final long scale = POWERS_OF_TEN[fractionDigits];
+        out.writeLong(f / scale);
+        out.write('.');
+        out.writePadded(f % scale, Math.max(fractionDigits, 1));
+    }
+
+    /**
+     * Writes a normal floating point value c 2<sup>q</sup>,
+     * with integers that fit in the significand written directly.
+     */
+    private static void writeNormal(
+        XMLWriter out, int precision, int qMin, int q, long c) {
+        final int mq = -q;
+        if (0 < mq && mq < precision) {
+            final long f = c >> mq;
+            if (f << mq == c) {
+                writeDigits(out, f, 0);
+                return;
+            }
+        }
+
+        writeShortest(out, precision, qMin, q, c, 0);
+    }
+
+    /**
+     * Writes the shortest decimal that rounds to the floating point value
+     * c 2<sup>q</sup> 10<sup>-dk</sup>; when two are equally short,
+     * the one closest to the value.
+     */
+    private static void writeShortest(XMLWriter out,
+        int precision, int qMin, int q, long c, int dk) {
+        // The bounds of the rounding interval belong to it
+        // only when c is even.
+        final int excluded = (int) c & 0x1;
+        final long cb = c << 2;
+        final long cbr = cb + 2;
+        final long cbl;
+        final int k;
+        if (c != 1L << precision - 1 || q == qMin) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // The gap to the next lower value is half as big.
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+
+        final int h = q + flog2pow10(-k) + 2;
+        final long g1 = PowersOfTen.G1[k - K_MIN];
+        final long g0 = PowersOfTen.G0[k - K_MIN];
+        final long vb = rop(g1, g0, cb << h);
+        final long vbl = rop(g1, g0, cbl << h);
+        final long vbr = rop(g1, g0, cbr << h);
+
+        final long s = vb >> 2;
+        if (s >= 100) {
+            // Try one digit less first.
+            final long sp10 = 10 * Math.multiplyHigh(s, 115292150460684698L << 4);
+            final long tp10 = sp10 + 10;
+            final boolean upin = vbl + excluded <= sp10 << 2;
+            final boolean wpin = (tp10 << 2) + excluded <= vbr;
+            if (upin != wpin) {
+                writeDigits(out, upin ? sp10 : tp10, k);
+                return;
+            }
+        }
+
+        final long t = s + 1;
+        final boolean uin = vbl + excluded <= s << 2;
+        final boolean win = (t << 2) + excluded <= vbr;
+        if (uin != win) {
+            writeDigits(out, uin ? s : t, k + dk);
+            return;
+        }
+
+        final long cmp = vb - (s + t << 1);
+        writeDigits(out,
+            cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk);
+    }
+
+    /**
+     * Writes NaN or an infinity in their xsd:double and xsd:float forms.
+     */
+    private static void writeSpecial(
+        XMLWriter out, boolean nan, boolean negative) {
+        if (nan) {
+            out.write("NaN");
+        } else {
+            out.write(negative ? "-INF" : "INF");
+        }
+    }
+
+    /**
+     * Writes the fractional seconds of a time or duration, without
+     * trailing zeros, or nothing if there are none.
+     */
+    private static void writeFraction(XMLWriter out, int nanos) {
+        if (nanos == 0) return;
+
+        int digits = 9;
+        while (nanos % 10 == 0) {
+            nanos /= 10;
+            --digits;
+        }
+
+        out.write('.');
+        out.writePadded(nanos, digits);
+    }
+
+    /**
+     * Writes the hh:mm:ss part of a time, with fractional seconds.
+     */
+    private static void writeTime(XMLWriter out, int secondOfDay, int nanos) {
+        out.writePadded(secondOfDay / SECONDS_PER_HOUR, 2);
+        out.write(':');
+        out.writePadded(secondOfDay / SECONDS_PER_MINUTE % 60, 2);
+        out.write(':');
+        out.writePadded(secondOfDay % SECONDS_PER_MINUTE, 2);
+        writeFraction(out, nanos);
+    }
+}
@@ -0,0 +1,155 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncFileWAXTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+    }
+
+    private static void write(WAX wax, int children) {
+        wax.start("root");
+        for (int i = 0; i < children; ++i) {
+            wax.start("child").attr("id", i).text("caf\u00e9 \ud83d\ude00").end();
+        }
+    }
+
+    private static byte[] expected(int children) {
+        InMemoryWAX wax = new InMemoryWAX();
+        write(wax, children);
+        wax.close();
+        return wax.toByteArray();
+    }
+
+    @Test
+    public void testCloseAsync() throws Exception {
+        // Many buffers, with fewer of them than the writes needed.
+        Path path = directory.resolve("big.xml");
+        AsyncFileWAX wax = new AsyncFileWAX(path, WAXConfig.DEFAULT, 2);
+        write(wax, 20000);
+        CompletableFuture<Long> future = wax.closeAsync();
+
+        byte[] expected = expected(20000);
+        assertTrue(expected.length > 8 * AsyncFileOutputStream.BUFFER_SIZE);
+        assertEquals(expected.length, future.get().longValue());
+        assertArrayEquals(expected, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testManyFiles() throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[20];
+        for (int i = 0; i < futures.length; ++i) {
+            AsyncFileWAX wax =
+                new AsyncFileWAX(directory.resolve(i + ".xml"));
+            write(wax, i * 100);
+            futures[i] = wax.closeAsync();
+        }
+        CompletableFuture.allOf(futures).get();
+
+        for (int i = 0; i < futures.length; ++i) {
+            assertArrayEquals(expected(i * 100),
+                Files.readAllBytes(directory.resolve(i + ".xml")));
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Path path = directory.resolve("small.xml");
+        AsyncFileWAX wax = new AsyncFileWAX(path);
+        write(wax, 3);
+        wax.close();
+        assertArrayEquals(expected(3), Files.readAllBytes(path));
+
+        try {
+            wax.closeAsync();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailedWriteClosesFile() throws Exception {
+        Path path = directory.resolve("read-only.xml");
+        Files.createFile(path);
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(path);
+        AsyncFileOutputStream stream = new AsyncFileOutputStream(channel, 1);
+        stream.write(new byte[] { '<', 'a', '/', '>' }, 0, 4);
+        stream.close();
+
+        try {
+            stream.getCompletion().get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testCloseInPrologClosesFile() throws Exception {
+        AsyncFileWAX wax = new AsyncFileWAX(directory.resolve("empty.xml"));
+        try {
+            wax.closeAsync();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            wax.getCompletion().get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testAbortClosesFile() throws Exception {
+        Path path = directory.resolve("aborted.xml");
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+            path, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        AsyncFileOutputStream stream = new AsyncFileOutputStream(channel, 1);
+        stream.write('x');
+        IOException failure = new IOException("failed");
+        stream.abort(failure);
+
+        try {
+            stream.getCompletion().get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertFalse(channel.isOpen());
+    }
+
+    @Test(expected = WAXIOException.class)
+    public void testBadPath() {
+        new AsyncFileWAX(directory.resolve("missing").resolve("x.xml"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadMaxWrites() {
+        new AsyncFileWAX(directory.resolve("x.xml"), WAXConfig.DEFAULT, 0);
+    }
+}
@@ -0,0 +1,79 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class EscapeCacheTest {
+
+    private static String write(EscapeCache cache) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setEscapeCache(cache);
+        wax.start("root");
+        for (int i = 0; i < 3; ++i) {
+            wax.start("item").attr("code", "A&B").attr("n", "<" + i + ">")
+                .text("Tom & Jerry's").end();
+        }
+        wax.child("long", "a long value with a < in it, a > and an &").close();
+        return sw.toString();
+    }
+
+    @Test
+    public void testSameOutput() {
+        EscapeCache cache = new EscapeCache(100, 20, 1);
+        assertEquals(write(null), write(cache));
+        assertSame(cache, new WAXFactory(
+            WAXConfig.DEFAULT.withEscapeCache(cache))
+            .newWAX(new StringWriter()).getEscapeCache());
+
+        // The long value isn't cached.
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        EscapeCache cache = new EscapeCache(10, 20, 1);
+        for (int i = 0; i < 1000; ++i) cache.escape("value&" + i);
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testPlainValuesArentCached() {
+        EscapeCache cache = new EscapeCache(10, 20, 1);
+        String plain = "ID-12345";
+        assertSame(plain, cache.escape(plain));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSampledAdmission() {
+        EscapeCache cache = new EscapeCache(1000, 20);
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals("&lt;" + i, cache.escape("<" + i));
+        }
+        assertTrue(cache.size() < 1000);
+    }
+
+    @Test
+    public void testFrequentValuesStay() {
+        EscapeCache cache = new EscapeCache(50, 20, 1);
+        String frequent = "USD & EUR";
+        String escaped = cache.escape(frequent);
+        assertEquals("USD &amp; EUR", escaped);
+        for (int i = 0; i < 10000; ++i) {
+            cache.escape(frequent);
+            cache.escape("rare<" + i);
+        }
+
+        // It was never replaced, so the same String is returned.
+        assertSame(escaped, cache.escape(frequent));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCapacity() {
+        new EscapeCache(0);
+    }
+}
@@ -0,0 +1,172 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FragmentManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final WAXConfig CONFIG =
+        WAXConfig.DEFAULT.withLineSeparator(WAX.UNIX_LINE_SEPARATOR);
+
+    private Path dir;
+    private Path manifestPath;
+    private Path path;
+    private FragmentManifest manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.getRoot().toPath();
+        manifestPath = dir.resolve("orders.manifest");
+        path = dir.resolve("orders.xml");
+        Map<String, String> namespaces = new LinkedHashMap<String, String>();
+        namespaces.put("o", "urn:orders");
+        manifest = new FragmentManifest(
+            Arrays.asList("part-0.xml", "part-1.xml"), namespaces, 1);
+        manifest.write(manifestPath);
+    }
+
+    private void writeFragment(int index) {
+        FragmentManifest read = FragmentManifest.read(manifestPath);
+        FragmentWAX wax = new FragmentWAX(manifestPath, read, index, CONFIG);
+        for (int i = 0; i < 2; ++i) {
+            wax.start("o", "order").attr("id", index * 10 + i)
+                .child("total", "\u20ac" + i).end();
+        }
+        wax.close();
+    }
+
+    private AssembledFileWAX startDocument() {
+        AssembledFileWAX wax = new AssembledFileWAX(path, CONFIG);
+        wax.start("orders").namespace("o", "urn:orders");
+        return wax;
+    }
+
+    @Test
+    public void testReadWrite() {
+        FragmentManifest read = FragmentManifest.read(manifestPath);
+        assertEquals(manifest.getFragments(), read.getFragments());
+        assertEquals(manifest.getNamespaces(), read.getNamespaces());
+        assertEquals(1, read.getLevel());
+    }
+
+    @Test
+    public void testAssemble() throws IOException {
+        writeFragment(1);
+        writeFragment(0);
+        AssembledFileWAX wax = startDocument();
+        wax.appendFragments(manifestPath);
+        wax.start("summary").end();
+        wax.close();
+
+        StringBuilder expected = new StringBuilder(
+            "<orders\n  xmlns:o=\"urn:orders\">");
+        for (int index = 0; index < 2; ++index) {
+            for (int i = 0; i < 2; ++i) {
+                expected.append("\n  <o:order id=\"").append(index * 10 + i)
+                    .append("\">\n    <total>\u20ac").append(i)
+                    .append("</total>\n  </o:order>");
+            }
+        }
+        expected.append("\n  <summary/>\n</orders>");
+        assertEquals(expected.toString(), new String(
+            Files.readAllBytes(path), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testIncompleteFragment() {
+        writeFragment(0);
+        AssembledFileWAX wax = startDocument();
+        try {
+            wax.appendFragments(manifestPath);
+            fail("expected an exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(),
+                e.getMessage().contains("part-1.xml is incomplete"));
+        }
+        wax.close();
+    }
+
+    @Test
+    public void testChangedFragment() throws IOException {
+        writeFragment(0);
+        writeFragment(1);
+        Files.write(dir.resolve("part-1.xml"), new byte[] { ' ' },
+            StandardOpenOption.APPEND);
+        AssembledFileWAX wax = startDocument();
+        try {
+            wax.appendFragments(manifestPath);
+            fail("expected an exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                "part-1.xml isn't the size in its descriptor"));
+        }
+        wax.close();
+    }
+
+    @Test
+    public void testNamespaceNotInScope() {
+        writeFragment(0);
+        writeFragment(1);
+        AssembledFileWAX wax = new AssembledFileWAX(path, CONFIG);
+        wax.start("orders").namespace("o", "urn:other");
+        try {
+            wax.appendFragments(manifestPath);
+            fail("expected an exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                "\"o\" isn't bound to urn:orders"));
+        }
+        wax.close();
+    }
+
+    @Test
+    public void testWrongLevel() {
+        writeFragment(0);
+        writeFragment(1);
+        AssembledFileWAX wax = startDocument();
+        wax.start("inner");
+        try {
+            wax.appendFragments(manifestPath);
+            fail("expected an exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(),
+                e.getMessage().contains("for level 1, not 2"));
+        }
+        wax.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUndeclaredPrefixInFragment() {
+        FragmentWAX wax = new FragmentWAX(manifestPath, manifest, 0);
+        wax.start("x", "order").child("total", "1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadFragmentName() {
+        new FragmentManifest(Collections.singletonList("../part.xml"),
+            Collections.<String, String>emptyMap(), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRepeatedFragment() {
+        new FragmentManifest(Arrays.asList("a.xml", "a.xml"),
+            Collections.<String, String>emptyMap(), 1);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class InMemoryWAXTest {
+
+    private static void write(WAX wax, int children) {
+        wax.setIndent(2);
+        wax.start("root").namespace("foo", "http://www.ociweb.com/foo")
+            .attr("version", 3);
+        for (int i = 0; i < children; ++i) {
+            wax.start("foo", "item").attr("id", i)
+                .text("caf\u00e9 & \u20ac \ud83d\ude00 <" + i + ">").end();
+        }
+        wax.comment("done").close();
+    }
+
+    private static String expected(int children) {
+        StringWriter sw = new StringWriter();
+        write(new WAX(sw), children);
+        return sw.toString();
+    }
+
+    @Test
+    public void testSameAsWriter() {
+        InMemoryWAX wax = new InMemoryWAX();
+        write(wax, 10);
+        String xml = expected(10);
+        assertEquals(xml, wax.toString());
+        assertEquals(xml.length(), wax.size());
+        assertArrayEquals(xml.getBytes(StandardCharsets.UTF_8),
+            wax.toByteArray());
+    }
+
+    @Test
+    public void testGrowth() {
+        InMemoryWAX wax = new InMemoryWAX(0);
+        write(wax, 5000);
+        assertEquals(expected(5000), wax.toString());
+    }
+
+    @Test
+    public void testWriteTo() {
+        // Many chunks, with the surrogate pairs falling on every offset.
+        InMemoryWAX wax = new InMemoryWAX(16);
+        write(wax, 3000);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        wax.writeTo(baos);
+        assertArrayEquals(expected(3000).getBytes(StandardCharsets.UTF_8),
+            baos.toByteArray());
+    }
+
+    @Test
+    public void testLoneSurrogates() {
+        InMemoryWAX wax = new InMemoryWAX();
+        wax.start("e").text("a\ud83d b \ude00").close();
+        assertArrayEquals("<e>a\ud83d b \ude00</e>".getBytes(
+            StandardCharsets.UTF_8), wax.toByteArray());
+    }
+
+    @Test
+    public void testFactory() {
+        WAXFactory factory = new WAXFactory(
+            WAXConfig.DEFAULT.withTrustMe(true).withIndent(null));
+        for (int i = 0; i < 3; ++i) {
+            InMemoryWAX wax = factory.newInMemoryWAX();
+            wax.start("root").child("child", "text").close();
+            assertEquals("<root><child>text</child></root>", wax.toString());
+        }
+        assertEquals(32, factory.getExpectedSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCapacity() {
+        new InMemoryWAX(-1);
+    }
+}
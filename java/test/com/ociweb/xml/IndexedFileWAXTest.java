@@ -0,0 +1,169 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexedFileWAXTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final WAXConfig CONFIG =
+        WAXConfig.DEFAULT.withLineSeparator(WAX.UNIX_LINE_SEPARATOR);
+
+    private Path dir;
+    private Path path;
+
+    @Before
+    public void setUp() {
+        dir = folder.getRoot().toPath();
+        path = dir.resolve("records.xml");
+    }
+
+    private String slice(WAXIndex index, int i) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        return new String(bytes, (int) index.getOffset(i),
+            (int) index.getLength(i), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRecords() throws IOException {
+        IndexedFileWAX wax = new IndexedFileWAX(path, CONFIG, 1, "id");
+        wax.start("records");
+        wax.start("record").attr("id", "a").text("caf\u00e9 \u20ac").end();
+        wax.commentedStart("record").attr("id", "skipped").end();
+        wax.start("p", "record").namespace("p", "urn:p").attr("id", 42L)
+            .start("name").text("\ud83d\ude00 & more").end().end();
+        wax.child("record", "no key");
+        wax.start("record").namespace("q", "urn:q")
+            .attr("q", "id", "prefixed").end();
+        wax.close();
+
+        WAXIndex index = WAXIndex.read(WAXIndex.indexPath(path));
+        assertEquals(1, index.getDepth());
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList("a", "42", null, null), Arrays.asList(
+            index.getKey(0), index.getKey(1), index.getKey(2),
+            index.getKey(3)));
+
+        assertEquals("<record id=\"a\">caf\u00e9 \u20ac</record>",
+            slice(index, 0));
+        assertEquals("<p:record\n    xmlns:p=\"urn:p\"\n    id=\"42\">\n"
+            + "    <name>\ud83d\ude00 &amp; more</name>\n"
+            + "  </p:record>", slice(index, 1));
+        assertEquals("<record>no key</record>", slice(index, 2));
+        assertEquals("<record\n    xmlns:q=\"urn:q\"\n    q:id=\"prefixed\"/>",
+            slice(index, 3));
+    }
+
+    @Test
+    public void testRoot() throws IOException {
+        IndexedFileWAX wax = new IndexedFileWAX(path, CONFIG, 0, "version");
+        wax.comment("r\u00e9sum\u00e9").start("root").attr("version", 3)
+            .child("a", "\u00e9").close();
+
+        WAXIndex index = WAXIndex.read(WAXIndex.indexPath(path));
+        assertEquals(0, index.getDepth());
+        assertEquals(1, index.size());
+        assertEquals("3", index.getKey(0));
+        String document = new String(
+            Files.readAllBytes(path), StandardCharsets.UTF_8);
+        assertEquals(document.substring(document.indexOf("<root")),
+            slice(index, 0));
+    }
+
+    @Test
+    public void testManyRecords() throws IOException {
+        // Enough to pass through the buffer many times.
+        IndexedFileWAX wax = new IndexedFileWAX(path, 1, "id");
+        wax.start("records");
+        for (int i = 0; i < 5000; ++i) {
+            wax.start("record").attr("id", i).text("\u00e9\u20ac" + i).end();
+        }
+        wax.close();
+
+        WAXIndex index = WAXIndex.read(WAXIndex.indexPath(path));
+        assertEquals(5000, index.size());
+        byte[] bytes = Files.readAllBytes(path);
+        for (int i = 0; i < 5000; ++i) {
+            assertEquals(String.valueOf(i), index.getKey(i));
+            assertEquals("<record id=\"" + i + "\">\u00e9\u20ac" + i
+                + "</record>", new String(bytes, (int) index.getOffset(i),
+                (int) index.getLength(i), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testTypedKeys() throws IOException {
+        IndexedFileWAX wax = new IndexedFileWAX(path, CONFIG, 1, "id");
+        wax.start("records");
+        wax.start("record").attr("id", 1.5).end();
+        wax.start("record").decimalAttr("id", new BigDecimal("2.50")).end();
+        wax.start("record")
+            .dateAttr("id", LocalDate.of(2024, 2, 29)).end();
+        wax.start("record").attr("id", 'c').end();
+        wax.start("record").attr("id", "a&b \"c\"").end();
+        wax.start("record").unescapedAttr("id", "x&#233;").end();
+        wax.close();
+
+        WAXIndex index = WAXIndex.read(WAXIndex.indexPath(path));
+        assertEquals(6, index.size());
+        assertEquals(Arrays.asList("1.5", "2.50", "2024-02-29", "c",
+            "a&b \"c\"", "x&#233;"), Arrays.asList(index.getKey(0),
+            index.getKey(1), index.getKey(2), index.getKey(3),
+            index.getKey(4), index.getKey(5)));
+    }
+
+    @Test
+    public void testParallelChildren() throws IOException {
+        IndexedFileWAX wax = new IndexedFileWAX(path, CONFIG, 1, "id");
+        wax.start("records");
+        try {
+            wax.children("record", IntStream.range(0, 100).boxed().parallel(),
+                (record, i) -> record.attr("id", i));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // Below the indexed elements, they can be written in parallel.
+        wax.start("record").attr("id", 1);
+        wax.children("item", IntStream.range(0, 100).boxed().parallel(),
+            (item, i) -> item.attr("n", i));
+        wax.close();
+
+        WAXIndex index = WAXIndex.read(WAXIndex.indexPath(path));
+        assertEquals(1, index.size());
+        assertEquals("1", index.getKey(0));
+    }
+
+    @Test
+    public void testBadIndex() throws IOException {
+        Path indexPath = WAXIndex.indexPath(path);
+        Files.write(indexPath, new byte[] { 'X', 'M', 'L' });
+        try {
+            WAXIndex.read(indexPath);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadDepth() {
+        new IndexedFileWAX(path, -1, null);
+    }
+}
@@ -0,0 +1,147 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class OrderedWAXTest {
+
+    private static String expected(WAXConfig config, int count) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAXFactory(config).newWAX(sw);
+        wax.start("page").attr("id", 1);
+        for (int i = 0; i < count; ++i) {
+            wax.text("before " + i);
+            wax.start("section").attr("n", i).child("body", "text " + i).end();
+        }
+        wax.close();
+        return sw.toString();
+    }
+
+    @Test
+    public void testReverseOrder() {
+        for (WAXConfig config : new WAXConfig[] { WAXConfig.DEFAULT,
+            WAXConfig.DEFAULT.withIndent(null),
+            WAXConfig.DEFAULT.withVersion(Version.V1_0)
+                .withFinalNewline(true) }) {
+            StringWriter sw = new StringWriter();
+            OrderedWAX wax = new OrderedWAX(sw, config);
+            List<CompletableFuture<Integer>> futures =
+                new ArrayList<CompletableFuture<Integer>>();
+            wax.start("page").attr("id", 1);
+            for (int i = 0; i < 5; ++i) {
+                CompletableFuture<Integer> future =
+                    new CompletableFuture<Integer>();
+                futures.add(future);
+                wax.text("before " + i);
+                wax.slot(future, (child, n) -> child.start("section")
+                    .attr("n", n).child("body", "text " + n).end());
+            }
+            wax.flush();
+            String head = sw.toString();
+            assertEquals(5, wax.getPendingSlots());
+
+            // Later slots are held back until the first one is filled.
+            for (int i = 4; i > 0; --i) futures.get(i).complete(i);
+            assertEquals(head, sw.toString());
+            assertEquals(1, wax.getPendingSlots());
+
+            futures.get(0).complete(0);
+            assertTrue(sw.toString().length() > head.length());
+            wax.close();
+            assertEquals(expected(config, 5), sw.toString());
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            StringWriter sw = new StringWriter();
+            OrderedWAX wax = new OrderedWAX(sw);
+            wax.start("page").attr("id", 1);
+            for (int i = 0; i < 200; ++i) {
+                final int n = i;
+                wax.text("before " + i);
+                wax.slot(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        Thread.sleep((n * 7) % 5);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return n;
+                }, executor), (child, value) -> child.start("section")
+                    .attr("n", value).child("body", "text " + value).end());
+            }
+            wax.close();
+            assertEquals(expected(WAXConfig.DEFAULT, 200), sw.toString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        StringWriter sw = new StringWriter();
+        OrderedWAX wax = new OrderedWAX(sw, WAXConfig.DEFAULT.withIndent(null));
+        CompletableFuture<String> failed = new CompletableFuture<String>();
+        wax.start("page");
+        wax.slot(failed, (child, s) -> child.start("a").end());
+        wax.slot(CompletableFuture.completedFuture("x"),
+            (child, s) -> child.start("b").text(s).end());
+        failed.completeExceptionally(new IllegalStateException("backend"));
+
+        try {
+            wax.close();
+            fail("expected CompletionException");
+        } catch (CompletionException e) {
+            assertEquals("backend", e.getCause().getMessage());
+        }
+        assertEquals("<page><b>x</b></page>", sw.toString());
+    }
+
+    @Test
+    public void testNamespaceInScope() {
+        StringWriter sw = new StringWriter();
+        OrderedWAX wax = new OrderedWAX(sw, WAXConfig.DEFAULT.withIndent(null));
+        CompletableFuture<String> later = new CompletableFuture<String>();
+        wax.start("page").namespace("p", "http://example.com/p");
+        wax.start("list");
+        wax.slot(later, (child, s) -> child.start("p", "item").text(s).end());
+        wax.end();
+
+        // The elements that declared the prefix have ended by now.
+        wax.start("other").end();
+        later.complete("x");
+        wax.close();
+        assertEquals("<page xmlns:p=\"http://example.com/p\"><list>"
+            + "<p:item>x</p:item></list><other/></page>", sw.toString());
+    }
+
+    @Test
+    public void testLiveSettings() {
+        StringWriter sw = new StringWriter();
+        OrderedWAX wax = new OrderedWAX(sw);
+        wax.setIndent(null);
+        wax.start("page");
+        wax.slot(CompletableFuture.completedFuture("x"),
+            (child, s) -> child.start("a").child("b", s).end());
+        wax.close();
+        assertEquals("<page><a><b>x</b></a></page>", sw.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSlotInProlog() {
+        new OrderedWAX(new StringWriter()).slot(
+            CompletableFuture.completedFuture(1),
+            (child, n) -> child.start("a"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class ParallelChildrenTest {
+
+    private static final BiConsumer<StartTagWAX, Integer> ROW =
+        (wax, i) -> {
+            wax.attr("id", i).start("foo", "name").text("row & " + i);
+            if (i % 3 == 0) wax.start("empty");
+        };
+
+    private static String write(WAXConfig config, Stream<Integer> items) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAXFactory(config).newWAX(sw);
+        wax.start("export").namespace("foo", "http://www.ociweb.com/foo")
+            .children("row", items, ROW).child("end", "done").close();
+        return sw.toString();
+    }
+
+    private static String expected(WAXConfig config, int count) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAXFactory(config).newWAX(sw);
+        wax.start("export").namespace("foo", "http://www.ociweb.com/foo");
+        for (int i = 0; i < count; ++i) {
+            wax.start("row");
+            ROW.accept(wax, i);
+            wax.end().end();
+            if (i % 3 == 0) wax.end();
+        }
+        wax.child("end", "done").close();
+        return sw.toString();
+    }
+
+    private static Stream<Integer> items(int count) {
+        return IntStream.range(0, count).boxed();
+    }
+
+    @Test
+    public void testSequential() {
+        for (WAXConfig config : new WAXConfig[] {
+            WAXConfig.DEFAULT, WAXConfig.DEFAULT.withIndent(null) }) {
+            assertEquals(expected(config, 10), write(config, items(10)));
+            assertEquals(expected(config, 0), write(config, items(0)));
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        int count = ParallelChildren.BATCH_SIZE * 200 + 17;
+        for (WAXConfig config : new WAXConfig[] {
+            WAXConfig.DEFAULT, WAXConfig.DEFAULT.withIndent(null),
+            WAXConfig.DEFAULT.withTrustMe(true) }) {
+            assertEquals(expected(config, count),
+                write(config, items(count).parallel()));
+        }
+        assertEquals(expected(WAXConfig.DEFAULT, 0),
+            write(WAXConfig.DEFAULT, items(0).parallel()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelVerification() {
+        StringWriter sw = new StringWriter();
+        new WAX(sw).start("export").children("row", items(1000).parallel(),
+            (wax, i) -> wax.start(i == 700 ? "bad name" : "good"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParentEnded() {
+        StringWriter sw = new StringWriter();
+        new WAX(sw).start("export").start("rows")
+            .children("row", items(3), (wax, i) -> wax.end().end());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInProlog() {
+        new WAX(new StringWriter()).children("row", items(3), ROW);
+    }
+}
@@ -0,0 +1,108 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelTextTest {
+
+    private static final int CHUNK = ParallelText.CHUNK_SIZE;
+
+    /**
+     * Makes text with special characters, surrogate pairs and "]]>"
+     * at and around the chunk boundaries.
+     */
+    private static String makeText(int length) {
+        Random random = new Random(7);
+        String pieces = "abc <>&'\"\n\t]x";
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = pieces.charAt(random.nextInt(pieces.length()));
+        }
+
+        int boundary = CHUNK;
+        for (int offset = -3; offset <= 1; ++offset) {
+            put(chars, boundary + offset, "]]>");
+            boundary += CHUNK;
+            chars[boundary - 1] = '\uD83D';
+            chars[boundary] = '\uDE00';
+            boundary += CHUNK;
+        }
+        return new String(chars);
+    }
+
+    private static void put(char[] chars, int index, String s) {
+        s.getChars(0, s.length(), chars, index);
+    }
+
+    private static String write(String text, boolean cdata, boolean parallel) {
+        XMLWriter out = new XMLWriter(WAXConfig.DEFAULT, 16);
+        if (parallel) {
+            new ParallelText(out, text, cdata).write();
+        } else if (cdata) {
+            out.writeCDataContent(text, 0, text.length());
+        } else {
+            out.writeEscaped(text, 0, text.length());
+        }
+        return new String(out.getBuffer(), 0, out.getBufferCount());
+    }
+
+    @Test
+    public void testEscaped() {
+        String text = makeText(20 * CHUNK + 123);
+        String parallel = write(text, false, true);
+        assertEquals(write(text, false, false), parallel);
+        assertEquals(XMLUtil.escape(text), parallel);
+    }
+
+    @Test
+    public void testCData() {
+        String text = makeText(20 * CHUNK + 123);
+        String parallel = write(text, true, true);
+        assertEquals(write(text, true, false), parallel);
+        assertEquals(text.replace("]]>", "]]]]><![CDATA[>"), parallel);
+    }
+
+    @Test
+    public void testChunkEnd() {
+        char[] chars = new char[10];
+        Arrays.fill(chars, 'a');
+        put(chars, 4, "]]>");
+        String text = new String(chars);
+        assertEquals(4, ParallelText.chunkEnd(text, 5, true));
+        assertEquals(4, ParallelText.chunkEnd(text, 6, true));
+        assertEquals(7, ParallelText.chunkEnd(text, 7, true));
+        assertEquals(6, ParallelText.chunkEnd(text, 6, false));
+        assertEquals(10, ParallelText.chunkEnd(text, 12, true));
+
+        text = "ab\ud83d\ude00cd";
+        assertEquals(2, ParallelText.chunkEnd(text, 3, false));
+        assertEquals(4, ParallelText.chunkEnd(text, 4, false));
+    }
+
+    @Test
+    public void testCDataThroughWAX() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setIndent(null);
+        wax.start("a").cdata("x]]>y]]]>z").close();
+        assertEquals("<a><![CDATA[x]]]]><![CDATA[>y]]]]]><![CDATA[>z]]></a>",
+            sw.toString());
+    }
+
+    @Test
+    public void testLongTextThroughWAX() {
+        String text = makeText(ParallelText.MIN_PARALLEL_LENGTH + 5);
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setIndent(null);
+        wax.start("a").text(text).start("b").cdata(text).close();
+        assertEquals("<a>" + XMLUtil.escape(text) + "<b><![CDATA["
+            + text.replace("]]>", "]]]]><![CDATA[>") + "]]></b></a>",
+            sw.toString());
+    }
+}
@@ -0,0 +1,175 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PartitionedWAXTest {
+
+    private static final WAXConfig CONFIG = WAXConfig.DEFAULT
+        .withLineSeparator(WAX.UNIX_LINE_SEPARATOR).withFinalNewline(true);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setUp() {
+        dir = folder.getRoot().toPath();
+    }
+
+    private static void writeRoot(PrologWAX wax, Integer customer) {
+        wax.comment("statement");
+        wax.start("statement").namespace("t", "urn:t")
+            .attr("customer", customer);
+    }
+
+    private static void writeRecord(ElementWAX wax, int i) {
+        wax.start("t", "transaction").attr("n", i).child("memo", "\u00fc" + i);
+    }
+
+    private String read(int customer) throws IOException {
+        return new String(Files.readAllBytes(
+            dir.resolve(customer + ".xml")), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the document for a customer with a single WAX.
+     */
+    private static String expected(int customer, int customers, int records) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAXFactory(CONFIG).newWAX(sw);
+        writeRoot(wax, customer);
+        for (int i = customer; i < records; i += customers) {
+            writeRecord(wax, i);
+            wax.end();
+        }
+        wax.close();
+        return sw.toString();
+    }
+
+    @Test
+    public void testSuspendAndResume() throws IOException {
+        PartitionedWAX<Integer> partitioned = new PartitionedWAX<Integer>(
+            customer -> dir.resolve(customer + ".xml"),
+            PartitionedWAXTest::writeRoot, CONFIG, 3, 1L << 30);
+        for (int i = 0; i < 100; ++i) {
+            final int n = i;
+            partitioned.write(i % 10, wax -> writeRecord(wax, n));
+            assertTrue(partitioned.getOpenCount() <= 3);
+        }
+        assertEquals(10, partitioned.getDocumentCount());
+        assertTrue(partitioned.getSuspendCount() > 0);
+        partitioned.close();
+
+        for (int customer = 0; customer < 10; ++customer) {
+            assertEquals(expected(customer, 10, 100), read(customer));
+        }
+    }
+
+    @Test
+    public void testSuspendBeforeCreate() {
+        List<PartitionedWAX<Integer>> holder =
+            new ArrayList<PartitionedWAX<Integer>>();
+        PartitionedWAX<Integer> partitioned = new PartitionedWAX<Integer>(
+            customer -> dir.resolve(customer + ".xml"),
+            (wax, customer) -> {
+                // The eldest document was closed before this one opened.
+                assertTrue(holder.get(0).getOpenCount() < 2);
+                writeRoot(wax, customer);
+            }, CONFIG, 2, 1L << 30);
+        holder.add(partitioned);
+        for (int i = 0; i < 10; ++i) {
+            final int n = i;
+            partitioned.write(i, wax -> writeRecord(wax, n));
+        }
+        assertEquals(8, partitioned.getSuspendCount());
+        partitioned.close();
+    }
+
+    @Test
+    public void testMemoryLimit() throws IOException {
+        PartitionedWAX<Integer> partitioned = new PartitionedWAX<Integer>(
+            customer -> dir.resolve(customer + ".xml"),
+            PartitionedWAXTest::writeRoot, CONFIG, 100, 1);
+        for (int i = 0; i < 20; ++i) {
+            final int n = i;
+            partitioned.write(i % 4, wax -> writeRecord(wax, n));
+            assertEquals(1, partitioned.getOpenCount());
+        }
+        partitioned.close();
+
+        for (int customer = 0; customer < 4; ++customer) {
+            assertEquals(expected(customer, 4, 20), read(customer));
+        }
+    }
+
+    @Test
+    public void testUndeclaredPrefixAfterResume() {
+        PartitionedWAX<Integer> partitioned = new PartitionedWAX<Integer>(
+            customer -> dir.resolve(customer + ".xml"),
+            PartitionedWAXTest::writeRoot, CONFIG, 1, 1L << 30);
+        partitioned.write(1, wax -> writeRecord(wax, 1));
+        partitioned.write(2, wax -> writeRecord(wax, 2));
+
+        // Resumed, the prefix of the root is still in scope.
+        partitioned.write(1, wax -> writeRecord(wax, 3));
+        try {
+            partitioned.write(1, wax -> wax.start("x", "y").child("z", "1"));
+            fail("expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        partitioned.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRootNotStarted() {
+        PartitionedWAX<Integer> partitioned = new PartitionedWAX<Integer>(
+            customer -> dir.resolve(customer + ".xml"),
+            (wax, customer) -> wax.comment("no root"));
+        partitioned.write(1, wax -> wax.child("a", "b"));
+    }
+
+    @Test
+    public void testRootWriterFails() {
+        PartitionedWAX<Integer> partitioned = new PartitionedWAX<Integer>(
+            customer -> dir.resolve(customer + ".xml"),
+            (wax, customer) -> {
+                wax.start("customer");
+                throw new IllegalStateException("no customer " + customer);
+            });
+        try {
+            partitioned.write(1, wax -> wax.child("a", "b"));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("no customer 1", e.getMessage());
+        }
+
+        // The partial file is closed and deleted.
+        assertFalse(Files.exists(dir.resolve("1.xml")));
+        assertEquals(0, partitioned.getDocumentCount());
+        partitioned.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteAfterClose() {
+        PartitionedWAX<Integer> partitioned = new PartitionedWAX<Integer>(
+            customer -> dir.resolve(customer + ".xml"),
+            PartitionedWAXTest::writeRoot);
+        partitioned.close();
+        partitioned.write(1, wax -> wax.child("a", "b"));
+    }
+}
@@ -0,0 +1,116 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class PipelinedWAXTest {
+
+    private static final WAXConfig CONFIG = WAXConfig.DEFAULT.withIndent(null);
+
+    @Test
+    public void testSameAsWAX() {
+        StringWriter expected = new StringWriter();
+        WAX wax = new WAXFactory(CONFIG).newWAX(expected);
+        wax.start("trades").namespace("t", "http://www.ociweb.com/t");
+        for (int i = 0; i < 20000; ++i) {
+            wax.start("t", "trade").attr("id", i).attr("t", "side", "B&S")
+                .child("symbol", "<" + i + ">").text(i * 7L).end();
+            if (i % 1000 == 0) wax.comment("batch " + i);
+        }
+        wax.close();
+
+        // A small ring buffer, so the producer often waits for room.
+        StringWriter sw = new StringWriter();
+        PipelinedWAX pipelined = new PipelinedWAX(sw, CONFIG, 64);
+        pipelined.start("trades").namespace("t", "http://www.ociweb.com/t");
+        for (int i = 0; i < 20000; ++i) {
+            pipelined.start("t", "trade").attr("id", i)
+                .attr("t", "side", "B&S").child("symbol", "<" + i + ">")
+                .text(i * 7L).end();
+            if (i % 1000 == 0) pipelined.comment("batch " + i);
+        }
+        pipelined.close();
+        assertEquals(expected.toString(), sw.toString());
+    }
+
+    @Test
+    public void testFlush() {
+        StringWriter sw = new StringWriter();
+        PipelinedWAX wax = new PipelinedWAX(sw);
+        wax.start("root").child("a", "1");
+        wax.flush();
+        assertEquals("<root>\n  <a>1</a>", sw.toString().replace("\r", ""));
+        wax.close();
+        assertTrue(sw.toString().endsWith("</root>"));
+    }
+
+    @Test
+    public void testErrorsAreThrownLater() {
+        PipelinedWAX wax = new PipelinedWAX(new StringWriter());
+        wax.start("root").start("bad name");
+        try {
+            wax.flush();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            wax.end();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            wax.close();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConsumerGivesBackItsThread() throws Exception {
+        List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        Executor executor = task -> {
+            Thread thread = new Thread(task);
+            threads.add(thread);
+            thread.start();
+        };
+
+        StringWriter sw = new StringWriter();
+        PipelinedWAX wax = new PipelinedWAX(sw, CONFIG, 64, executor);
+        wax.start("root").child("a", "1");
+        wax.flush();
+        threads.get(0).join(5000);
+        assertFalse(threads.get(0).isAlive());
+
+        wax.child("b", "2").close();
+        assertEquals(2, threads.size());
+        assertEquals("<root><a>1</a><b>2</b></root>", sw.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadExecutor() {
+        new PipelinedWAX(new StringWriter(), CONFIG, 64, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() {
+        PipelinedWAX wax = new PipelinedWAX(new StringWriter());
+        wax.start("root").close();
+        wax.start("again");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCapacity() {
+        new PipelinedWAX(new StringWriter(), CONFIG, 1);
+    }
+}
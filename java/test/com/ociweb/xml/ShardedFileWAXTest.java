@@ -0,0 +1,126 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardedFileWAXTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private Path path;
+
+    @Before
+    public void setUp() {
+        dir = folder.getRoot().toPath();
+        path = dir.resolve("export.xml");
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testWriteShards() throws IOException {
+        ShardedFileWAX wax = new ShardedFileWAX(
+            path, WAXConfig.DEFAULT.withIndent(null), 4);
+        wax.start("export").attr("month", "2026-10");
+        wax.writeShards((shard, index) -> {
+            for (int i = 0; i < 1000; ++i) {
+                shard.start("row").attr("shard", index).text("\u00e9" + i).end();
+            }
+        });
+        wax.close();
+
+        StringBuilder expected = new StringBuilder("<export month=\"2026-10\">");
+        for (int index = 0; index < 4; ++index) {
+            for (int i = 0; i < 1000; ++i) {
+                expected.append("<row shard=\"").append(index).append("\">\u00e9")
+                    .append(i).append("</row>");
+            }
+        }
+        expected.append("</export>");
+        assertEquals(expected.toString(), read());
+        assertEquals(1, fileCount());
+    }
+
+    @Test
+    public void testIndentedWithNamespace() throws IOException {
+        ShardedFileWAX wax = new ShardedFileWAX(path, 2);
+        wax.setLineSeparator(WAX.UNIX_LINE_SEPARATOR);
+        wax.start("a").namespace("p", "urn:p").start("b");
+        List<ElementWAX> shards = wax.openShards();
+        shards.get(1).start("p", "c").child("d", "2");
+        shards.get(0).start("p", "c").child("d", "1");
+        wax.close();
+
+        assertEquals("<a\n  xmlns:p=\"urn:p\">\n"
+            + "  <b>\n"
+            + "    <p:c>\n      <d>1</d>\n    </p:c>\n"
+            + "    <p:c>\n      <d>2</d>\n    </p:c>\n"
+            + "  </b>\n"
+            + "</a>", read());
+    }
+
+    @Test
+    public void testEmptyShards() throws IOException {
+        ShardedFileWAX wax = new ShardedFileWAX(
+            path, WAXConfig.DEFAULT.withIndent(null), 3);
+        wax.start("a");
+        wax.openShards();
+        wax.close();
+        assertEquals("<a></a>", read());
+        assertEquals(1, fileCount());
+    }
+
+    @Test
+    public void testShardFailure() throws IOException {
+        ShardedFileWAX wax = new ShardedFileWAX(path, 2);
+        wax.start("a");
+        try {
+            wax.writeShards((shard, index) -> {
+                if (index == 1) throw new IllegalArgumentException("bad");
+            });
+            fail("expected an exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad", e.getMessage());
+        }
+        wax.close();
+        assertEquals(1, fileCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testShardsOpenedTwice() {
+        ShardedFileWAX wax = new ShardedFileWAX(path, 2);
+        wax.start("a");
+        wax.openShards();
+        try {
+            wax.openShards();
+        } finally {
+            wax.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadShardCount() {
+        new ShardedFileWAX(path, 0);
+    }
+}
@@ -0,0 +1,159 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class VerificationSamplerTest {
+
+    private static class RecordingListener implements ViolationListener {
+        final List<IllegalArgumentException> violations =
+            Collections.synchronizedList(
+                new ArrayList<IllegalArgumentException>());
+
+        public void violation(IllegalArgumentException violation) {
+            violations.add(violation);
+        }
+    }
+
+    private static String writeBadDocument(VerificationSampler sampler) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setVerificationSampler(sampler);
+        wax.start("root").child("1bad", "text").comment("a -- b").close();
+        return sw.toString();
+    }
+
+    @Test
+    public void testEveryNthDocument() {
+        RecordingListener listener = new RecordingListener();
+        VerificationSampler sampler =
+            VerificationSampler.everyNthDocument(3, listener);
+
+        for (int i = 0; i < 6; ++i) writeBadDocument(sampler);
+
+        // Two documents were checked, each with two violations.
+        assertEquals(4, listener.violations.size());
+        assertEquals("\"1bad\" is an invalid XML name",
+            listener.violations.get(0).getMessage());
+    }
+
+    @Test
+    public void testOutputIsWrittenDespiteViolations() {
+        RecordingListener listener = new RecordingListener();
+        String xml = writeBadDocument(
+            VerificationSampler.percentOfCalls(100, listener));
+
+        assertEquals(2, listener.violations.size());
+        assertTrue(xml.contains("<1bad>text</1bad>"));
+        assertTrue(xml.contains("<!-- a -- b -->"));
+    }
+
+    @Test
+    public void testParallelChildrenAreSampled() {
+        RecordingListener listener = new RecordingListener();
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setVerificationSampler(
+            VerificationSampler.percentOfCalls(100, listener));
+        wax.start("root").children("row",
+            IntStream.range(0, 100).boxed().parallel(),
+            (row, i) -> row.child(i % 10 == 0 ? "1bad" : "good", "text"))
+            .close();
+
+        assertEquals(10, listener.violations.size());
+        assertTrue(sw.toString().contains("<1bad>text</1bad>"));
+    }
+
+    @Test
+    public void testPercentOfCallsZero() {
+        RecordingListener listener = new RecordingListener();
+        writeBadDocument(VerificationSampler.percentOfCalls(0, listener));
+        assertTrue(listener.violations.isEmpty());
+    }
+
+    @Test
+    public void testDuplicateAttributeIsReported() {
+        RecordingListener listener = new RecordingListener();
+        WAX wax = new WAX(new StringWriter());
+        wax.setVerificationSampler(
+            VerificationSampler.everyNthDocument(1, listener));
+        wax.start("root").attr("a", 1).attr("a", 2).close();
+        assertEquals(1, listener.violations.size());
+    }
+
+    @Test
+    public void testTrustMeDisablesSampledChecks() {
+        RecordingListener listener = new RecordingListener();
+        WAX wax = new WAX(new StringWriter());
+        wax.setVerificationSampler(
+            VerificationSampler.everyNthDocument(1, listener));
+        wax.setTrustMe(true);
+        wax.start("1bad").close();
+        assertTrue(listener.violations.isEmpty());
+    }
+
+    @Test
+    public void testSamplerAfterTrustMe() {
+        RecordingListener listener = new RecordingListener();
+        WAX wax = new WAX(new StringWriter());
+        wax.setTrustMe(true);
+        wax.setVerificationSampler(
+            VerificationSampler.everyNthDocument(1, listener));
+        assertTrue(wax.isTrustMe());
+        wax.start("1bad").close();
+        assertTrue(listener.violations.isEmpty());
+    }
+
+    @Test
+    public void testUnsampledDocumentIsNotTrustMe() {
+        RecordingListener listener = new RecordingListener();
+        WAX wax = new WAX(new StringWriter());
+        VerificationSampler sampler =
+            VerificationSampler.everyNthDocument(2, listener);
+        sampler.sampleDocument();
+        wax.setVerificationSampler(sampler);
+        assertFalse(wax.isTrustMe());
+        wax.start("1bad").close();
+        assertTrue(listener.violations.isEmpty());
+    }
+
+    @Test
+    public void testNullRestoresFullChecking() {
+        WAX wax = new WAX(new StringWriter());
+        wax.setVerificationSampler(VerificationSampler.everyNthDocument(
+            2, new RecordingListener()));
+        wax.setVerificationSampler(null);
+        assertNull(wax.getVerificationSampler());
+        assertFalse(wax.isTrustMe());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBadSamplerAfterRoot() {
+        WAX wax = new WAX(new StringWriter());
+        wax.start("root");
+        wax.setVerificationSampler(VerificationSampler.everyNthDocument(
+            2, new RecordingListener()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadDocumentInterval() {
+        VerificationSampler.everyNthDocument(0, new RecordingListener());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadPercent() {
+        VerificationSampler.percentOfCalls(101, new RecordingListener());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadListener() {
+        VerificationSampler.percentOfCalls(50, null);
+    }
+}
@@ -0,0 +1,117 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class WAXAppenderTest {
+
+    @Test
+    public void testSameAsWAX() {
+        StringWriter expected = new StringWriter();
+        WAX wax = new WAX(expected);
+        wax.start("log").namespace("a", "http://www.ociweb.com/audit");
+        for (int i = 0; i < 3; ++i) {
+            wax.start("a", "event").attr("n", i).text("x & y").end();
+        }
+        wax.comment("more");
+        wax.start("event").start("nested").close();
+
+        StringWriter sw = new StringWriter();
+        wax = new WAX(sw);
+        wax.start("log").namespace("a", "http://www.ociweb.com/audit");
+        WAXAppender appender = new WAXAppender(wax);
+        for (int i = 0; i < 3; ++i) {
+            final int n = i;
+            appender.append(child ->
+                child.start("a", "event").attr("n", n).text("x & y"));
+        }
+        appender.append(child -> child.comment("more"));
+        appender.append(child -> child.start("event").start("nested"));
+        appender.close();
+        assertEquals(expected.toString(), sw.toString());
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        final int threads = 8;
+        final int events = 5000;
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.start("log");
+        final WAXAppender appender = new WAXAppender(wax);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < events; ++i) {
+                        final int id = thread * events + i;
+                        appender.append(child -> child.start("event")
+                            .attr("id", id).child("detail", "event " + id));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        appender.close();
+
+        NodeList list = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder()
+            .parse(new InputSource(new StringReader(sw.toString())))
+            .getDocumentElement().getElementsByTagName("event");
+        assertEquals(threads * events, list.getLength());
+        BitSet seen = new BitSet();
+        for (int i = 0; i < list.getLength(); ++i) {
+            Element event = (Element) list.item(i);
+            int id = Integer.parseInt(event.getAttribute("id"));
+            assertEquals("event " + id, event.getTextContent().trim());
+            seen.set(id);
+        }
+        assertEquals(threads * events, seen.cardinality());
+    }
+
+    @Test
+    public void testClosed() {
+        WAX wax = new WAX(new StringWriter());
+        wax.start("log");
+        WAXAppender appender = new WAXAppender(wax);
+        appender.close();
+        try {
+            appender.append(child -> child.start("event"));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUndeclaredPrefix() {
+        WAX wax = new WAX(new StringWriter());
+        wax.start("log");
+        new WAXAppender(wax).append(child -> child.start("a", "event"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInProlog() {
+        new WAXAppender(new WAX(new StringWriter()));
+    }
+}
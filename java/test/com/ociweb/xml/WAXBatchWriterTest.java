@@ -0,0 +1,157 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WAXBatchWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setUp() {
+        dir = folder.getRoot().toPath();
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testManyFiles() throws IOException {
+        List<CompletableFuture<Long>> futures =
+            new ArrayList<CompletableFuture<Long>>();
+        try (WAXBatchWriter batch = new WAXBatchWriter(
+            WAXConfig.DEFAULT.withIndent(null), 8, 1 << 20)) {
+            for (int i = 0; i < 500; ++i) {
+                final int n = i;
+                futures.add(batch.submit(dir.resolve("f" + i + ".xml"),
+                    wax -> wax.start("feed").attr("n", n)
+                        .child("name", "caf\u00e9 " + n)));
+            }
+        }
+
+        for (int i = 0; i < 500; ++i) {
+            Path path = dir.resolve("f" + i + ".xml");
+            String expected = "<feed n=\"" + i + "\"><name>caf\u00e9 " + i + "</name></feed>";
+            assertEquals(expected, read(path));
+            assertEquals(Files.size(path), futures.get(i).join().longValue());
+        }
+    }
+
+    @Test
+    public void testGeneratorCloses() throws IOException {
+        Path path = dir.resolve("closed.xml");
+        CompletableFuture<Long> future;
+        try (WAXBatchWriter batch = new WAXBatchWriter(
+            WAXConfig.DEFAULT.withIndent(null), 2, 1 << 20)) {
+            future = batch.submit(path,
+                wax -> wax.start("root").child("a", "b").close());
+        }
+
+        assertEquals("<root><a>b</a></root>", read(path));
+        assertEquals(Files.size(path), future.join().longValue());
+    }
+
+    @Test
+    public void testOpenFilesLimited() throws IOException {
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger most = new AtomicInteger();
+        try (WAXBatchWriter batch =
+            new WAXBatchWriter(WAXConfig.DEFAULT, 3, 1L << 30)) {
+            for (int i = 0; i < 50; ++i) {
+                batch.submit(dir.resolve("f" + i + ".xml"), wax -> {
+                    int now = open.incrementAndGet();
+                    most.accumulateAndGet(now, Math::max);
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    wax.start("root");
+                    open.decrementAndGet();
+                });
+            }
+        }
+        assertTrue(most.get() <= 3);
+    }
+
+    @Test
+    public void testMemoryLimited() throws IOException {
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger most = new AtomicInteger();
+
+        // Each file needs more than half of the memory.
+        try (WAXBatchWriter batch =
+            new WAXBatchWriter(WAXConfig.DEFAULT, 100, 15000)) {
+            for (int i = 0; i < 20; ++i) {
+                batch.submit(dir.resolve("f" + i + ".xml"), wax -> {
+                    most.accumulateAndGet(open.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    wax.start("root");
+                    open.decrementAndGet();
+                });
+            }
+        }
+        assertEquals(1, most.get());
+    }
+
+    @Test
+    public void testFailedFileDeleted() throws IOException {
+        Path path = dir.resolve("bad.xml");
+        CompletableFuture<Long> future;
+        try (WAXBatchWriter batch = new WAXBatchWriter()) {
+            future = batch.submit(path, wax -> {
+                wax.start("root");
+                throw new IllegalStateException("no data");
+            });
+        }
+        try {
+            future.join();
+            fail("expected an exception");
+        } catch (CompletionException e) {
+            assertEquals("no data", e.getCause().getMessage());
+        }
+        assertFalse(Files.exists(path));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterClose() {
+        WAXBatchWriter batch = new WAXBatchWriter();
+        batch.close();
+        batch.submit(dir.resolve("late.xml"), wax -> wax.start("root"));
+    }
+
+    @Test
+    public void testVirtualThreads() {
+        WAXBatchWriter batch = new WAXBatchWriter();
+        boolean available = Runtime.version().feature() >= 21;
+        assertEquals(available, batch.usesVirtualThreads());
+        batch.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadMaxOpenFiles() {
+        new WAXBatchWriter(WAXConfig.DEFAULT, 0, 1000);
+    }
+}
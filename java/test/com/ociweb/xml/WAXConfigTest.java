@@ -0,0 +1,106 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class WAXConfigTest {
+
+    @Test
+    public void testDefaults() {
+        WAXConfig config = WAXConfig.DEFAULT;
+        assertEquals("  ", config.getIndent());
+        assertEquals(System.getProperty("line.separator"),
+            config.getLineSeparator());
+        assertEquals(Version.UNSPECIFIED, config.getVersion());
+        assertEquals("1999", config.getSchemaVersion());
+        assertFalse(config.isTrustMe());
+        assertFalse(config.isSpaceInEmptyElements());
+        assertFalse(config.isFinalNewline());
+        assertNull(config.getXMLDeclaration());
+    }
+
+    @Test
+    public void testWithMethodsDontModify() {
+        WAXConfig config = WAXConfig.DEFAULT.withIndent("\t");
+        assertEquals("\t", config.getIndent());
+        assertEquals("  ", WAXConfig.DEFAULT.getIndent());
+        assertNotSame(config, config.withIndent("\t"));
+    }
+
+    @Test
+    public void testDerivedValues() {
+        WAXConfig config = WAXConfig.DEFAULT
+            .withVersion(Version.V1_0)
+            .withLineSeparator(WAX.WINDOWS_LINE_SEPARATOR)
+            .withIndent(4);
+        String declaration =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n";
+        assertEquals(declaration, config.getXMLDeclaration());
+        assertEquals("    ", new String(config.getIndentChars(), 0, 4));
+    }
+
+    @Test
+    public void testSameOutputAsSetters() {
+        StringWriter expected = new StringWriter();
+        WAX wax = new WAX(expected);
+        wax.setIndent(1);
+        wax.setLineSeparator(WAX.UNIX_LINE_SEPARATOR);
+        wax.setSpaceInEmptyElements(true);
+        wax.setSchemaVersion("2001");
+        wax.includeFinalNewline();
+        writeDocument(wax);
+
+        StringWriter actual = new StringWriter();
+        WAXConfig config = WAXConfig.DEFAULT
+            .withIndent(1)
+            .withLineSeparator(WAX.UNIX_LINE_SEPARATOR)
+            .withSpaceInEmptyElements(true)
+            .withSchemaVersion("2001")
+            .withFinalNewline(true);
+        writeDocument(new WAXFactory(config).newWAX(actual));
+
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    private static void writeDocument(WAX wax) {
+        wax.start("root")
+            .defaultNamespace("http://www.ociweb.com/tns",
+                "http://www.ociweb.com/tns.xsd");
+        for (int i = 0; i < 20; ++i) wax.start("nested");
+        wax.child("empty").close();
+    }
+
+    @Test
+    public void testTrustMeAllowsUnusualIndent() {
+        WAXConfig config =
+            WAXConfig.DEFAULT.withTrustMe(true).withIndent("abc");
+        assertEquals("abc", config.getIndent());
+
+        WAX wax = new WAXFactory(config).newWAX(new StringWriter());
+        assertTrue(wax.isTrustMe());
+        assertEquals("abc", wax.getIndent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadIndent() {
+        WAXConfig.DEFAULT.withIndent("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadIndentTooLarge() {
+        WAXConfig.DEFAULT.withIndent(5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadLineSeparator() {
+        WAXConfig.DEFAULT.withLineSeparator("x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadVersion() {
+        WAXConfig.DEFAULT.withVersion(null);
+    }
+}
@@ -0,0 +1,108 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+public class WAXFactoryTest {
+
+    @Test
+    public void testNewWAXUsesConfig() {
+        WAXConfig config = WAXConfig.DEFAULT
+            .withVersion(Version.V1_0)
+            .withLineSeparator(WAX.UNIX_LINE_SEPARATOR)
+            .withIndent(null)
+            .withFinalNewline(true);
+        WAXFactory factory = new WAXFactory(config);
+        assertSame(config, factory.getConfig());
+
+        for (int i = 0; i < 2; ++i) {
+            StringWriter sw = new StringWriter();
+            factory.newWAX(sw).start("root").child("child", "text").close();
+            assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<root><child>text</child></root>\n", sw.toString());
+        }
+    }
+
+    @Test
+    public void testNewWAXOutputStreamUsesUTF8() throws Exception {
+        WAXFactory factory = new WAXFactory();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        factory.newWAX(baos).start("root").text("\u00e9\u4e2d").close();
+        assertEquals("<root>\u00e9\u4e2d</root>", baos.toString("UTF-8"));
+    }
+
+    @Test
+    public void testNewWAXIsIndependent() {
+        WAXFactory factory = new WAXFactory();
+        WAX first = factory.newWAX(new StringWriter());
+        first.setIndent("\t");
+        WAX second = factory.newWAX(new StringWriter());
+        assertEquals("  ", second.getIndent());
+    }
+
+    /**
+     * Counts the calls that pass characters to it.
+     */
+    private static class CountingWriter extends Writer {
+        int writes;
+        @Override public void close() {}
+        @Override public void flush() {}
+        @Override public void write(char[] chars, int offset, int length) {
+            ++writes;
+        }
+    }
+
+    private static int writeDocument(WAXFactory factory, int children) {
+        CountingWriter writer = new CountingWriter();
+        WAX wax = factory.newWAX(writer);
+        wax.start("root");
+        for (int i = 0; i < children; ++i) wax.child("child", "text");
+        wax.close();
+        return writer.writes;
+    }
+
+    @Test
+    public void testBuffersAreSizedFromPreviousDocuments() {
+        WAXFactory factory = new WAXFactory(
+            WAXConfig.DEFAULT.withIndent(null).withTrustMe(true));
+        assertEquals(0, factory.getExpectedSize());
+
+        // About 48,000 characters don't fit in the default buffer.
+        assertTrue(writeDocument(factory, 2500) > 1);
+        long size = factory.getExpectedSize();
+        assertTrue(size > 40000);
+
+        // Now a whole document is passed to the Writer at once.
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(1, writeDocument(factory, 2500));
+        }
+        assertEquals(size, factory.getExpectedSize());
+    }
+
+    @Test
+    public void testSizePercentile() {
+        WAXFactory factory = new WAXFactory(WAXConfig.DEFAULT, 50);
+        for (int i = 1; i <= 9; ++i) writeDocument(factory, i * 100);
+        long median = factory.getExpectedSize();
+
+        factory = new WAXFactory(WAXConfig.DEFAULT, 100);
+        for (int i = 1; i <= 9; ++i) writeDocument(factory, i * 100);
+        assertTrue(factory.getExpectedSize() > median);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadSizePercentile() {
+        new WAXFactory(WAXConfig.DEFAULT, 101);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadConfig() {
+        new WAXFactory(null);
+    }
+}
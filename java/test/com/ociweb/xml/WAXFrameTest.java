@@ -0,0 +1,165 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class WAXFrameTest {
+
+    private static final String[] SYMBOLS = { "ACME", "Caf\u00e9 \u20ac", "\ud83d\ude00" };
+
+    private static byte[] write(WAXFrameWriter.Framing framing,
+        boolean checksum) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WAXFrameWriter frames = new WAXFrameWriter(
+            baos, WAXConfig.DEFAULT, framing, checksum);
+        WAX first = null;
+        for (int i = 0; i < SYMBOLS.length; ++i) {
+            WAX wax = frames.next();
+            if (first == null) first = wax;
+            assertSame(first, wax);
+            wax.start("quote").attr("symbol", SYMBOLS[i]).text(i).close();
+        }
+        assertEquals(SYMBOLS.length, frames.getDocumentCount());
+        frames.close();
+        return baos.toByteArray();
+    }
+
+    private static void assertDocuments(byte[] stream,
+        WAXFrameWriter.Framing framing, boolean checksum) {
+        WAXFrameReader reader = new WAXFrameReader(
+            new ByteArrayInputStream(stream), framing, checksum);
+        for (int i = 0; i < SYMBOLS.length; ++i) {
+            assertEquals("<quote symbol=\"" + SYMBOLS[i] + "\">" + i
+                + "</quote>", new String(reader.next(), StandardCharsets.UTF_8));
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testLengthPrefix() {
+        byte[] stream = write(WAXFrameWriter.Framing.LENGTH_PREFIX, false);
+        assertEquals(0, stream[0]);
+        assertEquals(30, stream[3]);
+        assertEquals('<', stream[4]);
+        assertDocuments(stream, WAXFrameWriter.Framing.LENGTH_PREFIX, false);
+    }
+
+    @Test
+    public void testDelimiter() {
+        for (boolean checksum : new boolean[] { false, true }) {
+            byte[] stream = write(WAXFrameWriter.Framing.DELIMITER, checksum);
+            assertEquals('<', stream[0]);
+            assertDocuments(stream, WAXFrameWriter.Framing.DELIMITER, checksum);
+        }
+    }
+
+    @Test
+    public void testChecksum() {
+        byte[] stream = write(WAXFrameWriter.Framing.LENGTH_PREFIX, true);
+        assertDocuments(stream, WAXFrameWriter.Framing.LENGTH_PREFIX, true);
+
+        // Change a character of the second document.
+        int secondStart = 4 + 30 + 4 + 4;
+        stream[secondStart + 1] = 'Q';
+        WAXFrameReader reader = new WAXFrameReader(
+            new ByteArrayInputStream(stream),
+            WAXFrameWriter.Framing.LENGTH_PREFIX, true);
+        assertNotNull(reader.next());
+        try {
+            reader.next();
+            fail("expected WAXIOException");
+        } catch (WAXIOException e) {
+            assertTrue(e.getIOException() instanceof StreamCorruptedException);
+        }
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] stream = write(WAXFrameWriter.Framing.LENGTH_PREFIX, false);
+        WAXFrameReader reader = new WAXFrameReader(
+            new ByteArrayInputStream(stream, 0, 20));
+        try {
+            reader.next();
+            fail("expected WAXIOException");
+        } catch (WAXIOException e) {
+            assertTrue(e.getIOException() instanceof StreamCorruptedException);
+        }
+    }
+
+    @Test
+    public void testMaxFrameLength() {
+        for (WAXFrameWriter.Framing framing : WAXFrameWriter.Framing.values()) {
+            byte[] stream = write(framing, false);
+            WAXFrameReader reader = new WAXFrameReader(
+                new ByteArrayInputStream(stream), framing, false, 30);
+            assertEquals(30, reader.next().length);
+            try {
+                reader.next();
+                fail("expected WAXIOException");
+            } catch (WAXIOException e) {
+                assertTrue(
+                    e.getIOException() instanceof StreamCorruptedException);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptLength() {
+        byte[] stream = { 0x7f, -1, -1, -1, '<' };
+        WAXFrameReader reader =
+            new WAXFrameReader(new ByteArrayInputStream(stream));
+        try {
+            reader.next();
+            fail("expected WAXIOException");
+        } catch (WAXIOException e) {
+            assertTrue(e.getIOException() instanceof StreamCorruptedException);
+        }
+    }
+
+    @Test
+    public void testDeclarationInEachDocument() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WAXFrameWriter frames = new WAXFrameWriter(baos,
+            WAXConfig.DEFAULT.withVersion(Version.V1_0),
+            WAXFrameWriter.Framing.LENGTH_PREFIX, false);
+        frames.next().start("a").close();
+        frames.next().start("b").close();
+        frames.close();
+
+        WAXFrameReader reader = new WAXFrameReader(
+            new ByteArrayInputStream(baos.toByteArray()));
+        String first = new String(reader.next(), StandardCharsets.UTF_8);
+        String second = new String(reader.next(), StandardCharsets.UTF_8);
+        assertTrue(first, first.startsWith("<?xml") && first.endsWith("<a/>"));
+        assertTrue(second, second.startsWith("<?xml")
+            && second.endsWith("<b/>"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPreviousNotClosed() {
+        WAXFrameWriter frames = new WAXFrameWriter(new ByteArrayOutputStream());
+        frames.next().start("a");
+        frames.next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadMaxFrameLength() {
+        new WAXFrameReader(new ByteArrayInputStream(new byte[0]),
+            WAXFrameWriter.Framing.LENGTH_PREFIX, false, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNulInDelimitedDocument() {
+        WAXFrameWriter frames = new WAXFrameWriter(new ByteArrayOutputStream(),
+            WAXConfig.DEFAULT.withTrustMe(true),
+            WAXFrameWriter.Framing.DELIMITER, false);
+        frames.next().start("a").text("\0").close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class WAXInputStreamTest {
+
+    private static final WAXConfig CONFIG =
+        WAXConfig.DEFAULT.withIndent(null);
+
+    private static void writeRecord(ElementWAX wax, int i) {
+        wax.start("record").attr("id", i)
+            .text("\u00e9\u20ac\ud83d\ude00 & " + i).end();
+    }
+
+    private static byte[] expected(int count) {
+        InMemoryWAX wax = new InMemoryWAX(CONFIG, 0);
+        wax.start("records");
+        for (int i = 0; i < count; ++i) writeRecord(wax, i);
+        wax.close();
+        return wax.toByteArray();
+    }
+
+    private static Iterator<Integer> records(int count) {
+        return IntStream.range(0, count).iterator();
+    }
+
+    private static byte[] readAll(InputStream in, int size) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[size];
+        int count;
+        while ((count = in.read(buffer, 0, size)) != -1) {
+            baos.write(buffer, 0, count);
+        }
+        in.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testRecords() throws IOException {
+        for (int count : new int[] { 0, 1, 10, 5000 }) {
+            for (int size : new int[] { 1, 7, 100000 }) {
+                InputStream in = WAXInputStream.forRecords(CONFIG, "records",
+                    records(count), WAXInputStreamTest::writeRecord);
+                assertArrayEquals(expected(count), readAll(in, size));
+            }
+        }
+    }
+
+    @Test
+    public void testSingleBytes() throws IOException {
+        InputStream in = WAXInputStream.forRecords(CONFIG, "records",
+            records(100), WAXInputStreamTest::writeRecord);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) baos.write(b);
+        assertArrayEquals(expected(100), baos.toByteArray());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        InputStream in = WAXInputStream.forRecords(CONFIG, "records",
+            Collections.<Integer>emptyIterator(),
+            WAXInputStreamTest::writeRecord);
+        assertEquals("<records/>",
+            new String(readAll(in, 10), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLazy() throws IOException {
+        final int[] calls = new int[1];
+        InputStream in = new WAXInputStream(CONFIG, new WAXSource() {
+            public boolean writeNext(WAX wax) {
+                if (calls[0]++ == 0) {
+                    wax.start("root");
+                } else {
+                    wax.child("child", "x");
+                }
+                return true;
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 19; ++i) sb.append((char) in.read());
+        assertEquals("<root><child>x</chi", sb.toString());
+        assertTrue(calls[0] < 5);
+
+        in.close();
+        try {
+            in.read();
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSurrogateAtEndOfPiece() throws IOException {
+        // Each piece ends with the first half of a surrogate pair.
+        InputStream in = new WAXInputStream(CONFIG, new WAXSource() {
+            private int step;
+
+            public boolean writeNext(WAX wax) {
+                switch (step++) {
+                    case 0: wax.start("root").text("a\ud83d"); return true;
+                    case 1: wax.text("\ude00b\ud83d"); return true;
+                    default: wax.text("\ude00"); return false;
+                }
+            }
+        });
+        assertEquals("<root>a\ud83d\ude00b\ud83d\ude00</root>",
+            new String(readAll(in, 1), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,215 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+public class WAXLogHandlerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Document parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new InputSource(new StringReader(xml)));
+    }
+
+    /**
+     * A Writer that blocks in flush until it is released.
+     */
+    private static class BlockingWriter extends StringWriter {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void flush() {
+            entered.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Test
+    public void testRecords() throws Exception {
+        StringWriter sw = new StringWriter();
+        WAXLogHandler handler = new WAXLogHandler(sw);
+        Logger logger = Logger.getLogger("com.ociweb.xml.test");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        try {
+            logger.info("hello <world> & {0}");
+            logger.log(Level.WARNING, "count {0}", 42);
+            logger.log(Level.SEVERE, "failed", new IOException("disk"));
+        } finally {
+            logger.removeHandler(handler);
+        }
+        handler.close();
+
+        Document document = parse(sw.toString());
+        assertEquals("log", document.getDocumentElement().getTagName());
+        Element first =
+            (Element) document.getElementsByTagName("record").item(0);
+        assertEquals("hello <world> & {0}", text(first, "message"));
+        assertEquals("INFO", text(first, "level"));
+        assertEquals("com.ociweb.xml.test", text(first, "logger"));
+        assertEquals(WAXLogHandlerTest.class.getName(), text(first, "class"));
+        assertEquals("testRecords", text(first, "method"));
+
+        Element second =
+            (Element) document.getElementsByTagName("record").item(1);
+        assertEquals("count 42", text(second, "message"));
+
+        Element exception =
+            (Element) document.getElementsByTagName("exception").item(0);
+        assertEquals("java.io.IOException: disk", text(exception, "message"));
+        assertTrue(exception.getElementsByTagName("frame").getLength() > 0);
+    }
+
+    private static String text(Element element, String name) {
+        return element.getElementsByTagName(name).item(0).getTextContent();
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        StringWriter sw = new StringWriter();
+        final WAXLogHandler handler = new WAXLogHandler(sw,
+            WAXConfig.DEFAULT, 16, WAXLogHandler.Overflow.BLOCK, 5);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; ++i) {
+                    handler.publish(new LogRecord(Level.INFO, "message " + i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        handler.close();
+
+        assertEquals(4000, parse(sw.toString())
+            .getElementsByTagName("record").getLength());
+        assertEquals(0, handler.getDroppedCount());
+    }
+
+    @Test
+    public void testFlushWaits() throws Exception {
+        StringWriter sw = new StringWriter();
+        WAXLogHandler handler = new WAXLogHandler(sw,
+            WAXConfig.DEFAULT, 16, WAXLogHandler.Overflow.BLOCK, 60000);
+        handler.publish(new LogRecord(Level.INFO, "flushed"));
+        handler.flush();
+        assertTrue(sw.toString().contains("<message>flushed</message>"));
+        handler.close();
+    }
+
+    @Test
+    public void testCloseWhilePublishing() throws Exception {
+        StringWriter sw = new StringWriter();
+        final WAXLogHandler handler = new WAXLogHandler(sw,
+            WAXConfig.DEFAULT, 1, WAXLogHandler.Overflow.BLOCK, 5);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; ++i) {
+                    handler.publish(new LogRecord(Level.INFO, "message " + i));
+                }
+            });
+            threads[t].start();
+        }
+        handler.close();
+
+        // No publisher is left waiting for a queue that isn't drained.
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+        assertEquals("log", parse(sw.toString()).getDocumentElement()
+            .getTagName());
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        BlockingWriter writer = new BlockingWriter();
+        WAXLogHandler handler = new WAXLogHandler(writer,
+            WAXConfig.DEFAULT, 2, WAXLogHandler.Overflow.DROP, 1000);
+        handler.publish(new LogRecord(Level.INFO, "first"));
+
+        // The handler's thread is stuck flushing, so the queue fills up.
+        writer.entered.await();
+        for (int i = 0; i < 10; ++i) {
+            handler.publish(new LogRecord(Level.INFO, "next " + i));
+        }
+        assertEquals(8, handler.getDroppedCount());
+
+        writer.released.countDown();
+        handler.close();
+        assertEquals(3, parse(writer.toString())
+            .getElementsByTagName("record").getLength());
+    }
+
+    @Test
+    public void testLevel() throws Exception {
+        StringWriter sw = new StringWriter();
+        WAXLogHandler handler = new WAXLogHandler(sw);
+        handler.setLevel(Level.WARNING);
+        handler.publish(new LogRecord(Level.INFO, "ignored"));
+        handler.publish(new LogRecord(Level.WARNING, "kept"));
+        handler.close();
+        handler.publish(new LogRecord(Level.WARNING, "after close"));
+
+        assertEquals(1, parse(sw.toString())
+            .getElementsByTagName("record").getLength());
+    }
+
+    @Test
+    public void testLogManagerProperties() throws Exception {
+        File file = new File(folder.getRoot(), "log.xml");
+        String prefix = "com.ociweb.xml.WAXLogHandler.";
+        String properties =
+            prefix + "pattern=" + file.getPath().replace("\\", "/") + "\n"
+            + prefix + "level=WARNING\n"
+            + prefix + "capacity=16\n"
+            + prefix + "overflow=BLOCK\n"
+            + prefix + "flushMillis=bad\n";
+        LogManager.getLogManager().readConfiguration(new ByteArrayInputStream(
+            properties.getBytes(StandardCharsets.ISO_8859_1)));
+        try {
+            WAXLogHandler handler = new WAXLogHandler();
+            assertEquals(Level.WARNING, handler.getLevel());
+            handler.publish(new LogRecord(Level.INFO, "ignored"));
+            handler.publish(new LogRecord(Level.WARNING, "kept {0}"));
+            handler.close();
+        } finally {
+            LogManager.getLogManager().readConfiguration();
+        }
+
+        Document document = parse(new String(
+            Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(1, document.getElementsByTagName("record").getLength());
+        assertEquals("kept {0}", document.getElementsByTagName("message")
+            .item(0).getTextContent());
+    }
+}
@@ -0,0 +1,144 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class WAXPoolTest {
+
+    private static final WAXConfig CONFIG = WAXConfig.DEFAULT.withIndent(null);
+
+    @Test
+    public void testReused() {
+        WAXPool pool = new WAXPool(CONFIG);
+        StringWriter sw1 = new StringWriter();
+        WAX wax1 = pool.borrow(sw1);
+        wax1.start("a").child("b", "1").close();
+        assertEquals(1, pool.size());
+
+        StringWriter sw2 = new StringWriter();
+        WAX wax2 = pool.borrow(sw2);
+        assertSame(wax1, wax2);
+        assertEquals(0, pool.size());
+        wax2.start("c").attr("n", 2).child("d", "x").close();
+
+        assertEquals("<a><b>1</b></a>", sw1.toString());
+        assertEquals("<c n=\"2\"><d>x</d></c>", sw2.toString());
+    }
+
+    @Test
+    public void testSettingsForgotten() {
+        WAXPool pool = new WAXPool(CONFIG);
+        StringWriter sw1 = new StringWriter();
+        WAX wax = pool.borrow(sw1);
+        wax.setIndent(2);
+        wax.setTrustMe(true);
+        wax.includeFinalNewline();
+        wax.start("a").namespace("p", "urn:p").child("p", "b", "1").close();
+
+        StringWriter sw2 = new StringWriter();
+        wax = pool.borrow(sw2);
+        wax.start("a").child("b", "2").close();
+        assertEquals("<a><b>2</b></a>", sw2.toString());
+
+        // Checking is on again, and the namespace is gone.
+        wax = pool.borrow(new StringWriter());
+        wax.start("a");
+        try {
+            wax.child("p", "b", "3");
+            fail("expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDeepInstanceDropped() {
+        WAXPool pool = new WAXPool(CONFIG, 1024, 3, 4);
+        WAX wax = pool.borrow(new StringWriter());
+        wax.start("a");
+        for (int i = 0; i < 10; ++i) wax.start("b");
+        wax.close();
+        assertEquals(0, pool.size());
+
+        wax = pool.borrow(new StringWriter());
+        wax.start("a").start("b").start("c").close();
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testLargeCollectionsDropped() {
+        WAXPool pool = new WAXPool(CONFIG);
+        WAX wax = pool.borrow(new StringWriter());
+        wax.start("a");
+        for (int i = 0; i <= WAXPool.MAX_RETAINED_ENTRIES; ++i) {
+            wax.attr("n" + i, i);
+        }
+        wax.close();
+        assertEquals(0, pool.size());
+
+        wax = pool.borrow(new StringWriter());
+        wax.start("a").attr("n", 1).namespace("p", "urn:p").close();
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testOutputStream() {
+        WAXPool pool = new WAXPool(CONFIG, 64, 8, 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; ++i) text.append("caf\u00e9 \ud83d\ude00 ");
+
+        for (int i = 0; i < 3; ++i) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            pool.borrow(bytes).start("t").text(text.toString()).close();
+            assertEquals("<t>" + text + "</t>",
+                new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        }
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        final WAXPool pool = new WAXPool(CONFIG);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; ++t) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; ++i) {
+                        StringWriter sw = new StringWriter();
+                        pool.borrow(sw).start("r").attr("i", i)
+                            .text("t" + i).close();
+                        String expected = "<r i=\"" + i + "\">t" + i + "</r>";
+                        if (!expected.equals(sw.toString())) return false;
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) assertTrue(result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedTwice() {
+        WAX wax = new WAXPool().borrow(new StringWriter());
+        wax.start("a").close();
+        wax.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCapacity() {
+        new WAXPool(WAXConfig.DEFAULT, 1024, 8, 0);
+    }
+}
@@ -0,0 +1,173 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class WAXPublisherTest {
+
+    private static final WAXConfig CONFIG =
+        WAXConfig.DEFAULT.withIndent(null);
+
+    /**
+     * Writes a root element with a given number of children,
+     * one per piece, counting the pieces written.
+     */
+    private static class Source implements WAXSource {
+        final int children;
+        volatile int pieces;
+
+        Source(int children) { this.children = children; }
+
+        public boolean writeNext(WAX wax) {
+            if (pieces++ == 0) {
+                wax.start("root");
+            } else {
+                wax.child("child", "caf\u00e9 " + pieces);
+            }
+            return pieces <= children;
+        }
+    }
+
+    private static String expected(int children) {
+        InMemoryWAX wax = new InMemoryWAX(CONFIG, 0);
+        wax.start("root");
+        for (int i = 2; i <= children + 1; ++i) {
+            wax.child("child", "caf\u00e9 " + i);
+        }
+        wax.close();
+        return wax.toString();
+    }
+
+    private static class Collector implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final long batch;
+        Flow.Subscription subscription;
+        Throwable error;
+        int buffers;
+        boolean complete;
+
+        Collector(long batch) { this.batch = batch; }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) subscription.request(batch);
+        }
+
+        public void onNext(ByteBuffer buffer) {
+            bytes.write(buffer.array(), buffer.position(), buffer.remaining());
+            if (++buffers > 0 && batch > 0 && buffers % batch == 0) {
+                subscription.request(batch);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            finished.countDown();
+        }
+
+        public void onComplete() {
+            complete = true;
+            finished.countDown();
+        }
+
+        String text() throws Exception {
+            return bytes.toString("UTF-8");
+        }
+    }
+
+    @Test
+    public void testDocument() throws Exception {
+        for (long batch : new long[] { 1, 3, Long.MAX_VALUE }) {
+            Collector collector = new Collector(batch);
+            new WAXPublisher(CONFIG, new Source(2000)).subscribe(collector);
+            assertTrue(collector.complete);
+            assertNull(collector.error);
+            assertEquals(expected(2000), collector.text());
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        Source source = new Source(1000);
+        Collector collector = new Collector(0);
+        new WAXPublisher(CONFIG, source).subscribe(collector);
+        assertEquals(0, source.pieces);
+
+        collector.subscription.request(2);
+        assertEquals(2, collector.buffers);
+        int pieces = source.pieces;
+        assertTrue(pieces <= 3);
+
+        // Nothing more is written without demand.
+        assertEquals(pieces, source.pieces);
+
+        collector.subscription.cancel();
+        collector.subscription.request(5);
+        assertEquals(2, collector.buffers);
+        assertEquals(pieces, source.pieces);
+        assertFalse(collector.complete);
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Collector collector = new Collector(2);
+            new WAXPublisher(CONFIG, new Source(500), executor)
+                .subscribe(collector);
+            assertTrue(collector.finished.await(10, TimeUnit.SECONDS));
+            assertEquals(expected(500), collector.text());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedExecution() {
+        Collector collector = new Collector(1);
+        new WAXPublisher(CONFIG, new Source(1), task -> {
+            throw new RejectedExecutionException("shut down");
+        }).subscribe(collector);
+        assertTrue(collector.error instanceof RejectedExecutionException);
+
+        // Later requests are ignored rather than reported again.
+        collector.error = null;
+        collector.subscription.request(1);
+        assertNull(collector.error);
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        Collector collector = new Collector(0);
+        new WAXPublisher(CONFIG, new Source(1)).subscribe(collector);
+        collector.subscription.request(0);
+        assertTrue(collector.error instanceof IllegalArgumentException);
+
+        WAXPublisher publisher = new WAXPublisher(CONFIG, new WAXSource() {
+            public boolean writeNext(WAX wax) {
+                wax.start("root").end();
+                wax.start("second");
+                return true;
+            }
+        });
+        collector = new Collector(1);
+        publisher.subscribe(collector);
+        assertTrue(collector.error instanceof IllegalStateException);
+
+        // A second subscriber is refused.
+        collector = new Collector(1);
+        publisher.subscribe(collector);
+        assertTrue(collector.error instanceof IllegalStateException);
+    }
+}
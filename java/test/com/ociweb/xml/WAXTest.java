@@ -963,6 +963,46 @@ public class WAXTest {
         assertEquals("==]]>==", rootElement.getTextContent());
     }
 
+    @Test
+    public void testDeepNesting() {
+        final int depth = 200000;
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setIndent("");
+        wax.start("root").namespace("foo", "http://www.ociweb.com/foo");
+        for (int i = 1; i < depth; ++i) wax.start("e");
+
+        // Resolving this prefix walks the whole element stack.
+        wax.start("foo", "leaf").attr("foo", "a", "1").end();
+        wax.setTrustMe(true);
+        wax.close();
+
+        String xml = sw.toString();
+        String lineSeparator = wax.getLineSeparator();
+        assertTrue(xml.contains(lineSeparator + "<foo:leaf foo:a=\"1\"/>"));
+        assertTrue(xml.endsWith(lineSeparator + "</root>"));
+    }
+
+    @Test
+    public void testDeepNestingIndent() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setLineSeparator(WAX.UNIX_LINE_SEPARATOR);
+        wax.setIndent("\t");
+        wax.start("a");
+        for (int i = 0; i < 20; ++i) wax.start("b");
+        wax.close();
+
+        // The innermost element is empty, so it has no end tag line.
+        String[] lines = sw.toString().split("\n");
+        assertEquals(41, lines.length);
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(i, lines[i].lastIndexOf('\t') + 1);
+            assertEquals(i, lines[lines.length - 1 - i].lastIndexOf('\t') + 1);
+        }
+        assertEquals("\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t<b/>", lines[20]);
+    }
+
     @Test
     public void testDefaultNamespace() {
         StringWriter sw = new StringWriter();
@@ -0,0 +1,217 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.time.*;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class XSDFormatTest {
+
+    private static String attrAndText(Object value) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.start("e");
+        if (value instanceof Duration) {
+            wax.durationAttr("a", (Duration) value)
+                .durationText((Duration) value);
+        } else if (value instanceof Instant) {
+            wax.instantAttr("a", (Instant) value)
+                .instantText((Instant) value);
+        } else if (value instanceof LocalDate) {
+            wax.dateAttr("a", (LocalDate) value).dateText((LocalDate) value);
+        } else if (value instanceof LocalDateTime) {
+            wax.dateTimeAttr("a", (LocalDateTime) value)
+                .dateTimeText((LocalDateTime) value);
+        } else {
+            wax.dateTimeAttr("a", (OffsetDateTime) value)
+                .dateTimeText((OffsetDateTime) value);
+        }
+        wax.close();
+
+        String xml = sw.toString();
+        String text = xml.substring(xml.indexOf('>') + 1, xml.indexOf("</"));
+        assertEquals("<e a=\"" + text + "\">" + text + "</e>", xml);
+        return text;
+    }
+
+    @Test
+    public void testDate() {
+        assertEquals("2008-02-29", attrAndText(LocalDate.of(2008, 2, 29)));
+        assertEquals("0000-01-01", attrAndText(LocalDate.of(0, 1, 1)));
+        assertEquals("-0044-03-15", attrAndText(LocalDate.of(-44, 3, 15)));
+        assertEquals("12345-12-31", attrAndText(LocalDate.of(12345, 12, 31)));
+    }
+
+    @Test
+    public void testDateTime() {
+        assertEquals("2008-06-01T09:05:03",
+            attrAndText(LocalDateTime.of(2008, 6, 1, 9, 5, 3)));
+        assertEquals("2008-06-01T09:05:03.12",
+            attrAndText(LocalDateTime.of(2008, 6, 1, 9, 5, 3, 120000000)));
+        assertEquals("2008-06-01T00:00:00.000000001",
+            attrAndText(LocalDateTime.of(2008, 6, 1, 0, 0, 0, 1)));
+    }
+
+    @Test
+    public void testInstant() {
+        assertEquals("1970-01-01T00:00:00Z", attrAndText(Instant.EPOCH));
+        assertEquals("1969-12-31T23:59:59.5Z",
+            attrAndText(Instant.ofEpochSecond(-1, 500000000)));
+
+        // Compare with Instant.toString over years 0000 to 9999.
+        Random random = new Random(42);
+        long min = Instant.parse("0000-01-01T00:00:00Z").getEpochSecond();
+        long max = Instant.parse("9999-12-31T23:59:59Z").getEpochSecond();
+        for (int i = 0; i < 1000; ++i) {
+            long seconds = min + (long) (random.nextDouble() * (max - min));
+            Instant instant = Instant.ofEpochSecond(seconds,
+                random.nextBoolean() ? 0 : random.nextInt(1000000000));
+            String expected = instant.toString();
+            // Instant.toString pads fractions to groups of three digits.
+            expected = expected.replaceAll("(\\.\\d*?)0*Z$", "$1Z")
+                .replace(".Z", "Z");
+            assertEquals(expected, attrAndText(instant));
+        }
+    }
+
+    @Test
+    public void testOffsetDateTime() {
+        LocalDateTime local = LocalDateTime.of(2008, 6, 1, 9, 5, 3);
+        assertEquals("2008-06-01T09:05:03Z",
+            attrAndText(OffsetDateTime.of(local, ZoneOffset.UTC)));
+        assertEquals("2008-06-01T09:05:03-05:30",
+            attrAndText(OffsetDateTime.of(local,
+                ZoneOffset.ofHoursMinutes(-5, -30))));
+        assertEquals("2008-06-01T08:05:02Z",
+            attrAndText(OffsetDateTime.of(local,
+                ZoneOffset.ofHoursMinutesSeconds(1, 0, 1))));
+    }
+
+    @Test
+    public void testDuration() {
+        assertEquals("PT0S", attrAndText(Duration.ZERO));
+        assertEquals("PT36H5M0.25S",
+            attrAndText(Duration.ofSeconds(36 * 3600 + 300, 250000000)));
+        assertEquals("-PT1M0.5S", attrAndText(Duration.ofMillis(-60500)));
+        assertEquals("-PT0.5S", attrAndText(Duration.ofMillis(-500)));
+        assertEquals("-PT2562047788015215H30M8S",
+            attrAndText(Duration.ofSeconds(Long.MIN_VALUE)));
+    }
+
+    private static String attrAndText(double value) {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.start("e").attr("a", value).text(value).close();
+
+        String xml = sw.toString();
+        String text = xml.substring(xml.indexOf('>') + 1, xml.indexOf("</"));
+        assertEquals("<e a=\"" + text + "\">" + text + "</e>", xml);
+        return text;
+    }
+
+    private static String text(float value) {
+        StringWriter sw = new StringWriter();
+        new WAX(sw).start("e").text(value).close();
+        return sw.toString().replaceAll("</?e>", "");
+    }
+
+    private static String text(BigDecimal value) {
+        StringWriter sw = new StringWriter();
+        new WAX(sw).start("e").decimalText(value).close();
+        return sw.toString().replaceAll("</?e>", "");
+    }
+
+    /**
+     * @return the fewest significant digits that read back as the value
+     */
+    private static int shortestLength(double value) {
+        BigDecimal exact = new BigDecimal(value);
+        for (int digits = 1; ; ++digits) {
+            if (exact.round(new MathContext(digits)).doubleValue() == value) {
+                return digits;
+            }
+        }
+    }
+
+    @Test
+    public void testDouble() {
+        assertEquals("0.1", attrAndText(0.1));
+        assertEquals("-0.0", attrAndText(-0.0));
+        assertEquals("100.0", attrAndText(100));
+        assertEquals("0.001", attrAndText(0.001));
+        assertEquals("9.999E-4", attrAndText(9.999e-4));
+        assertEquals("1.0E7", attrAndText(1e7));
+        assertEquals("1.0E23", attrAndText(1e23));
+        assertEquals("4.9E-324", attrAndText(Double.MIN_VALUE));
+        assertEquals("1.7976931348623157E308", attrAndText(Double.MAX_VALUE));
+        assertEquals("NaN", attrAndText(Double.NaN));
+        assertEquals("INF", attrAndText(Double.POSITIVE_INFINITY));
+        assertEquals("-INF", attrAndText(Double.NEGATIVE_INFINITY));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value)) continue;
+
+            String text = attrAndText(value);
+            assertEquals(value, Double.parseDouble(text), 0);
+            assertEquals(text, shortestLength(value),
+                new BigDecimal(text).stripTrailingZeros().precision());
+        }
+    }
+
+    @Test
+    public void testFloat() {
+        assertEquals("0.1", text(0.1f));
+        assertEquals("1.6777216E7", text(16777216f));
+        assertEquals("3.4028235E38", text(Float.MAX_VALUE));
+        assertEquals("1.0E-45", text(Float.MIN_VALUE));
+        assertEquals("-INF", text(Float.NEGATIVE_INFINITY));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; ++i) {
+            float value = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(value) || Float.isInfinite(value)) continue;
+            assertEquals(value, Float.parseFloat(text(value)), 0);
+        }
+    }
+
+    @Test
+    public void testDecimalAndInteger() {
+        assertEquals("1.50", text(new BigDecimal("1.50")));
+        assertEquals("-0.0012", text(new BigDecimal("-1.2E-3")));
+        assertEquals("1000", text(new BigDecimal("1E+3")));
+        assertEquals("0", text(new BigDecimal("0E+3")));
+        assertEquals("0.00", text(new BigDecimal("0.00")));
+
+        StringWriter sw = new StringWriter();
+        new WAX(sw).start("e")
+            .integerAttr("a",
+                new BigInteger("-123456789012345678901234567890"))
+            .integerText(BigInteger.TEN).close();
+        assertEquals("<e a=\"-123456789012345678901234567890\">10</e>",
+            sw.toString());
+    }
+
+    @Test
+    public void testNull() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.start("e").instantAttr("a", null).durationText(null).close();
+        assertEquals("<e a=\"\"></e>", sw.toString());
+    }
+
+    @Test
+    public void testNullAttrAndTextArentAmbiguous() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.start("e").attr("a", null).text(null).close();
+        assertEquals("<e a=\"\"></e>", sw.toString());
+    }
+}
@@ -0,0 +1,123 @@
+package com.ociweb.xml;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+
+import org.junit.Test;
+
+public class ZeroAllocationTest {
+
+    /**
+     * A Writer that discards everything, so only WAX allocations are seen.
+     */
+    private static class NullWriter extends Writer {
+        @Override public void close() {}
+        @Override public void flush() {}
+        @Override public void write(char[] chars, int offset, int length) {}
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final Instant AT = Instant.ofEpochSecond(1214000000, 5000);
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void writeRecords(WAX wax, int count) {
+        for (int i = 0; i < count; ++i) {
+            wax.start("record").attr("id", i).attr("name", "a & b")
+                .instantAttr("at", AT)
+                .start("value").text(i * 1000L).end()
+                .start("ratio").text(i / 7.0).end()
+                .start("note").text("<escaped>").end()
+                .end();
+        }
+    }
+
+    @Test
+    public void testSteadyStateDoesNotAllocate() {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        WAX wax = new WAX(new NullWriter());
+        wax.setTrustMe(true);
+        wax.start("root");
+
+        // Let the JIT compile everything and fill the reused objects.
+        for (int i = 0; i < 20; ++i) writeRecords(wax, 10000);
+
+        // The JVM itself occasionally allocates a little on this thread,
+        // for example when a method is recompiled, so a few rounds are
+        // measured and the best of them must be free of allocations.
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 5 && allocated > 0; ++round) {
+            long before = allocatedBytes();
+            writeRecords(wax, 100000);
+            allocated = allocatedBytes() - before;
+        }
+
+        assertEquals(0, allocated);
+        wax.close();
+    }
+
+    @Test
+    public void testLongValues() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setTrustMe(true);
+        wax.start("root").attr("min", Long.MIN_VALUE).attr("p", "n", 0)
+            .text(-42).text(Long.MAX_VALUE).close();
+        assertEquals("<root min=\"-9223372036854775808\" p:n=\"0\">"
+            + "-429223372036854775807</root>", sw.toString());
+    }
+
+    @Test
+    public void testPassThroughByDefault() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.start("root").text("text");
+        assertEquals("<root>text", sw.toString());
+
+        // Even in "trust me" mode.
+        wax.setTrustMe(true);
+        wax.text(" more");
+        assertEquals("<root>text more", sw.toString());
+        wax.close();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullString() {
+        new XMLWriter(new StringWriter(), true).write((String) null);
+    }
+
+    @Test
+    public void testCharValues() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAX(sw);
+        wax.setTrustMe(true);
+        wax.start("root").attr("c", 'x').attr("p", "d", '<')
+            .text('&').text('y').close();
+        assertEquals("<root c=\"x\" p:d=\"&lt;\">&amp;y</root>",
+            sw.toString());
+    }
+
+    @Test
+    public void testFlush() {
+        StringWriter sw = new StringWriter();
+        WAX wax = new WAXFactory(WAXConfig.DEFAULT.withTrustMe(true))
+            .newWAX(sw);
+        wax.start("root").text("text");
+        assertEquals("", sw.toString());
+        wax.flush();
+        assertEquals("<root>text", sw.toString());
+        wax.close();
+        assertEquals("<root>text</root>", sw.toString());
+    }
+}